@@ -0,0 +1,230 @@
+package com.jonas.evaluator.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.jonas.evaluator.FieldGrid;
+import com.jonas.evaluator.MineIndex;
+import com.jonas.evaluator.MineIndexType;
+import com.jonas.evaluator.Position;
+import com.jonas.evaluator.Settings;
+import com.jonas.evaluator.SharedMineIndex;
+import com.jonas.evaluator.Util;
+
+/**
+ * This is a JMH benchmark of the {@link MineIndex} operations of every
+ * {@link MineIndexType}, and of the {@link SharedMineIndex}, across field sizes
+ * and mine densities. Build it with $ mvn -P benchmarks package and run it with
+ * $ java -jar target/benchmarks.jar MineIndexBenchmark, optionally narrowing
+ * the parameters (e.g., -p type=PACKED -p size=2048).
+ *
+ * The query benchmarks run over a fixed set of random probes and report the
+ * time per probe. The build, copy and removal benchmarks report the time per
+ * index; removals are made from a copy of the index taken outside of the
+ * measured time. A shared index is published to a temporary file once per
+ * trial, so its build benchmark measures attaching to that file.
+ *
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MineIndexBenchmark {
+	/** The number of random probes per query invocation. */
+	private static final int NUM_PROBES = 1 << 12;
+
+	/** The seed of the mine and probe generators. */
+	private static final long SEED = 42;
+
+	/** The maximum mine depth. */
+	private static final int MAX_DEPTH = 52;
+
+	/** The type name of the shared mine index, which has no index type. */
+	private static final String SHARED = "SHARED";
+
+	/** The name of a {@link MineIndexType} or {@link #SHARED}. */
+	@Param({ "CUSTOM", "TILED", "QUADTREE", "PAGED", "PACKED", SHARED })
+	public String type;
+
+	@Param({ "64", "512", "2048" })
+	public int size;
+
+	@Param({ "0.01", "0.1", "0.5" })
+	public double density;
+
+	/** The generated mine positions in field (row-major) order. */
+	private List<Position> mines;
+
+	/** The mines in a random order of removal. */
+	private List<Position> removals;
+
+	/** Random positions within the field used to probe the index. */
+	private Position[] probes;
+
+	/** An index holding the generated mines, which is only queried. */
+	private MineIndex index;
+
+	/** The file the shared index is published to, or null. */
+	private File sharedFile;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Random random = new Random(SEED);
+
+		// generate a field with the requested mine density
+		mines = new ArrayList<Position>();
+		for (int y = 0; y < size; y++)
+			for (int x = 0; x < size; x++)
+				if (random.nextDouble() < density)
+					mines.add(new Position(x, y, 1 + random.nextInt(MAX_DEPTH)));
+
+		removals = new ArrayList<Position>(mines);
+		Collections.shuffle(removals, new Random(SEED));
+
+		probes = new Position[NUM_PROBES];
+		for (int i = 0; i < probes.length; i++)
+			probes[i] = new Position(random.nextInt(size),
+					random.nextInt(size), random.nextInt(MAX_DEPTH + 1));
+
+		if (SHARED.equals(type)) {
+			sharedFile = File.createTempFile("benchmark", ".shm");
+			SharedMineIndex.publish(newFieldGrid(), sharedFile);
+		}
+
+		index = newIndex();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (sharedFile != null)
+			sharedFile.delete();
+	}
+
+	@Benchmark
+	public MineIndex build() throws IOException {
+		return newIndex();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_PROBES)
+	public void getMineAtXY(Blackhole blackhole) {
+		for (Position probe : probes)
+			blackhole.consume(index.getMineAtXY(probe));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_PROBES)
+	public void getMaxXDistance(Blackhole blackhole) {
+		for (Position probe : probes)
+			blackhole.consume(index.getMaxXDistance(probe));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_PROBES)
+	public void getMaxYDistance(Blackhole blackhole) {
+		for (Position probe : probes)
+			blackhole.consume(index.getMaxYDistance(probe));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_PROBES)
+	public void getNumMinesAtOrAbove(Blackhole blackhole) {
+		for (Position probe : probes)
+			blackhole.consume(index.getNumMinesAtOrAbove(probe.getZ()));
+	}
+
+	/**
+	 * Removes every mine, in random order, from a fresh copy of the index.
+	 */
+	@Benchmark
+	public void removeMineAtXY(Removal removal, Blackhole blackhole) {
+		for (Position mine : removals)
+			blackhole.consume(removal.index.removeMineAtXY(mine));
+	}
+
+	@Benchmark
+	public MineIndex copy() {
+		return index.copy();
+	}
+
+	/**
+	 * Builds a new index of the benchmarked type holding the generated mines,
+	 * or attaches to the published shared index.
+	 */
+	private MineIndex newIndex() throws IOException {
+		if (SHARED.equals(type))
+			return SharedMineIndex.attach(sharedFile);
+
+		MineIndex index = MineIndexType.valueOf(type).newMineIndex();
+		for (Position mine : mines)
+			index.addMine(mine);
+		index.build();
+
+		return index;
+	}
+
+	/**
+	 * Parses the generated mines from the text of a field file, as they are
+	 * published to a shared index.
+	 */
+	private FieldGrid newFieldGrid() {
+		StringBuilder text = new StringBuilder();
+		int i = 0;
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				Position mine = i < mines.size() ? mines.get(i) : null;
+				if (mine != null && mine.getX() == x && mine.getY() == y) {
+					text.append(Util.translateToLetter(mine.getZ()));
+					i++;
+				} else
+					text.append(Settings.EMPTY_POSITION_CHARACTER);
+			}
+			text.append('\n');
+		}
+
+		return new FieldGrid(new StringReader(text.toString()), "benchmark");
+	}
+
+	/**
+	 * A state holding a copy of the index to remove the mines from, which is
+	 * taken before each invocation so that the copy is not measured.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	@State(Scope.Thread)
+	public static class Removal {
+		private MineIndex index;
+
+		@Setup(Level.Invocation)
+		public void setUp(MineIndexBenchmark benchmark) {
+			index = benchmark.index.copy();
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package com.jonas.evaluator;
+
+/**
+ * This class bounds the resources that a single evaluation may consume: the
+ * number of simulated steps, the wall-clock time (measured from the budget's
+ * start and covering both loading and simulation), the number of bytes printed
+ * and the estimated heap footprint of the field's mine index. Budgets are
+ * enforced cooperatively by the parsers (see {@link InputFileModel}) and the
+ * {@link Evaluator}'s step loop. An evaluation that exceeds its budget ends with
+ * a budget {@link TerminationReason} and fails.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class Budget {
+	/** The value of an unlimited budget. */
+	public static final long UNLIMITED = Long.MAX_VALUE;
+
+	/** The budget limits. */
+	private long maxSteps = UNLIMITED, maxMillis = UNLIMITED,
+			maxOutputBytes = UNLIMITED, maxIndexBytes = UNLIMITED;
+
+	/** The time at which the budget was started. */
+	private long startNanos;
+
+	public Budget() {
+		start();
+	}
+
+	/**
+	 * Creates a budget with the limits of another budget. The new budget is
+	 * started now.
+	 * 
+	 * @param budget
+	 *            the budget to copy
+	 */
+	public Budget(Budget budget) {
+		maxSteps = budget.maxSteps;
+		maxMillis = budget.maxMillis;
+		maxOutputBytes = budget.maxOutputBytes;
+		maxIndexBytes = budget.maxIndexBytes;
+
+		start();
+	}
+
+	/**
+	 * Starts measuring the wall-clock time of the budget.
+	 */
+	public void start() {
+		startNanos = System.nanoTime();
+	}
+
+	public long getMaxSteps() {
+		return maxSteps;
+	}
+
+	public void setMaxSteps(long maxSteps) {
+		this.maxSteps = maxSteps;
+	}
+
+	public long getMaxMillis() {
+		return maxMillis;
+	}
+
+	public void setMaxMillis(long maxMillis) {
+		this.maxMillis = maxMillis;
+	}
+
+	public long getMaxOutputBytes() {
+		return maxOutputBytes;
+	}
+
+	public void setMaxOutputBytes(long maxOutputBytes) {
+		this.maxOutputBytes = maxOutputBytes;
+	}
+
+	public long getMaxIndexBytes() {
+		return maxIndexBytes;
+	}
+
+	public void setMaxIndexBytes(long maxIndexBytes) {
+		this.maxIndexBytes = maxIndexBytes;
+	}
+
+	/**
+	 * Returns whether or not the wall-clock time of the budget is used up.
+	 * 
+	 * @return true if the time budget is exceeded, false otherwise
+	 */
+	public boolean isTimeExceeded() {
+		return maxMillis != UNLIMITED
+				&& (System.nanoTime() - startNanos) / 1000000 > maxMillis;
+	}
+
+	/**
+	 * Returns whether or not the estimated heap footprint of a mine index
+	 * holding a number of mines exceeds the budget.
+	 * 
+	 * @param numMines
+	 *            the number of mines
+	 * @return true if the index budget is exceeded, false otherwise
+	 */
+	public boolean isIndexExceeded(long numMines) {
+		return numMines * Settings.ESTIMATED_MINE_BYTES > maxIndexBytes;
+	}
+
+	/**
+	 * Parses a budget from a comma-separated list of limits, e.g.,
+	 * "steps=1000,millis=500,output=1048576,index=268435456".
+	 * 
+	 * @param spec
+	 *            a budget specification
+	 * @return the budget
+	 */
+	public static Budget parse(String spec) {
+		Budget budget = new Budget();
+		for (String limit : spec.split(",")) {
+			if (limit.trim().isEmpty())
+				continue;
+
+			String[] keyValue = limit.trim().split("=");
+			long value = -1;
+			if (keyValue.length == 2) {
+				try {
+					value = Long.parseLong(keyValue[1].trim());
+
+				} catch (NumberFormatException e) {
+					Logger.printErrorAndExit(Budget.class, "Invalid value "
+							+ keyValue[1].trim() + " of budget limit "
+							+ keyValue[0]);
+				}
+			}
+
+			if (keyValue[0].equals("steps"))
+				budget.maxSteps = value;
+			else if (keyValue[0].equals("millis"))
+				budget.maxMillis = value;
+			else if (keyValue[0].equals("output"))
+				budget.maxOutputBytes = value;
+			else if (keyValue[0].equals("index"))
+				budget.maxIndexBytes = value;
+			else
+				value = -1;
+
+			if (value < 0)
+				Logger.printErrorAndExit(Budget.class, "Invalid budget limit "
+						+ limit);
+		}
+
+		return budget;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		if (maxSteps != UNLIMITED)
+			sb.append(",steps=").append(maxSteps);
+		if (maxMillis != UNLIMITED)
+			sb.append(",millis=").append(maxMillis);
+		if (maxOutputBytes != UNLIMITED)
+			sb.append(",output=").append(maxOutputBytes);
+		if (maxIndexBytes != UNLIMITED)
+			sb.append(",index=").append(maxIndexBytes);
+
+		return sb.length() == 0 ? "" : sb.substring(1);
+	}
+}
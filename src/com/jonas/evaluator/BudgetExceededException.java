@@ -0,0 +1,24 @@
+package com.jonas.evaluator;
+
+/**
+ * This exception is thrown when loading the field or script of an evaluation
+ * exceeds the evaluation's {@link Budget}.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class BudgetExceededException extends EvaluationException {
+	private static final long serialVersionUID = 1L;
+
+	private final TerminationReason reason;
+
+	public BudgetExceededException(TerminationReason reason, String message) {
+		super(message);
+
+		this.reason = reason;
+	}
+
+	public TerminationReason getReason() {
+		return reason;
+	}
+}
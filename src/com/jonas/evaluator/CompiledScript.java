@@ -0,0 +1,117 @@
+package com.jonas.evaluator;
+
+import java.util.Arrays;
+
+/**
+ * This class is a source of script instructions compiled by a
+ * {@link ScriptCompiler}. Each step is encoded in 16 bits holding the codes
+ * (see {@link StepInstructions#INSTRUCTION_CODES}) of up to two instructions
+ * in their original order, so a compiled script is loaded without tokenizing
+ * or validating any instruction.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class CompiledScript implements InstructionSource {
+	/** The decoded instructions of every valid step encoding. */
+	private static final StepInstructions[] DECODED;
+	static {
+		String[] names = StepInstructions.INSTRUCTION_CODES;
+		DECODED = new StepInstructions[(names.length + 1) << 8];
+		for (int first = 0; first < names.length; first++) {
+			DECODED[encode(first, -1)] = new StepInstructions(
+					names[first]);
+
+			for (int second = 0; second < names.length; second++)
+				if (StepInstructions.isFiringPattern(names[first]) != StepInstructions
+						.isFiringPattern(names[second]))
+					DECODED[encode(first, second)] = new StepInstructions(
+							names[first], names[second]);
+		}
+	}
+
+	/** The encoded steps. */
+	private final short[] steps;
+
+	/**
+	 * Creates a script from encoded steps.
+	 * 
+	 * @param steps
+	 *            the encoded steps (see {@link #encode(StepInstructions)})
+	 */
+	public CompiledScript(short[] steps) {
+		for (short step : steps)
+			if (!isValid(step))
+				Logger.printErrorAndExit(CompiledScript.class,
+						"Invalid compiled step " + (step & 0xffff));
+
+		this.steps = steps;
+	}
+
+	@Override
+	public boolean hasInstructions(int step) {
+		return step <= steps.length;
+	}
+
+	@Override
+	public StepInstructions getInstructions(int step) {
+		return DECODED[steps[step - 1] & 0xffff];
+	}
+
+	@Override
+	public void close() {
+		// compiled scripts are shared and hold no resources
+	}
+
+	public int getNumInstructions() {
+		return steps.length;
+	}
+
+	/**
+	 * Returns a copy of the encoded steps.
+	 * 
+	 * @return the encoded steps
+	 */
+	public short[] getSteps() {
+		return Arrays.copyOf(steps, steps.length);
+	}
+
+	/**
+	 * Returns whether or not a value is the encoding of a valid step.
+	 * 
+	 * @param step
+	 *            an encoded step
+	 * @return true if the step decodes to valid instructions, false otherwise
+	 */
+	public static boolean isValid(short step) {
+		int encoding = step & 0xffff;
+		return encoding < DECODED.length && DECODED[encoding] != null;
+	}
+
+	/**
+	 * Encodes the instructions of a step.
+	 * 
+	 * @param stepInstructions
+	 *            a step's valid instructions
+	 * @return the step's encoding
+	 */
+	public static short encode(StepInstructions stepInstructions) {
+		int first = -1, second = -1;
+		for (String instruction : stepInstructions.getInstructions()) {
+			if (first < 0)
+				first = StepInstructions.getCode(instruction);
+			else
+				second = StepInstructions.getCode(instruction);
+		}
+
+		return (short) encode(first, second);
+	}
+
+	/**
+	 * Packs the codes of up to two instructions, or -1 for none, into the low
+	 * and high bytes of 16 bits.
+	 */
+	private static int encode(int first, int second) {
+		return (first + 1) | (second + 1) << 8;
+	}
+}
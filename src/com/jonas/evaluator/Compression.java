@@ -0,0 +1,90 @@
+package com.jonas.evaluator;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * This enumeration lists the compression formats of input files. A format is
+ * recognized by the magic bytes at the start of a file (see
+ * {@link #detect(BufferedInputStream)}), so compressed field and script files
+ * are decoded as a stream while they are parsed, without being decompressed to
+ * disk first.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public enum Compression {
+	/** Uncompressed input. */
+	NONE(new byte[0]) {
+		@Override
+		public InputStream decode(InputStream in) {
+			return in;
+		}
+	},
+
+	/** Gzip compressed input. */
+	GZIP(new byte[] { (byte) 0x1f, (byte) 0x8b }) {
+		@Override
+		public InputStream decode(InputStream in) throws IOException {
+			return new GZIPInputStream(in, Settings.INPUT_BUFFER_SIZE);
+		}
+	},
+
+	/** Zstandard compressed input, which the JDK cannot decode. */
+	ZSTD(new byte[] { (byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd }) {
+		@Override
+		public InputStream decode(InputStream in) throws IOException {
+			throw new IOException("Zstandard compressed input is not supported");
+		}
+	};
+
+	/** The magic bytes that start input in this format. */
+	private final byte[] magic;
+
+	private Compression(byte[] magic) {
+		this.magic = magic;
+	}
+
+	/**
+	 * Wraps a stream of input in this format with a stream of the decoded
+	 * input.
+	 * 
+	 * @param in
+	 *            a stream of input in this format
+	 * @return a stream of the decoded input
+	 * @throws IOException
+	 */
+	public abstract InputStream decode(InputStream in) throws IOException;
+
+	/**
+	 * Detects the compression format of input by peeking at its first bytes.
+	 * The stream is reset to the start of the input.
+	 * 
+	 * @param in
+	 *            a stream of input
+	 * @return the input's compression format
+	 * @throws IOException
+	 */
+	public static Compression detect(BufferedInputStream in) throws IOException {
+		byte[] header = new byte[4];
+		in.mark(header.length);
+		int length = in.readNBytes(header, 0, header.length);
+		in.reset();
+
+		for (Compression compression : values()) {
+			if (compression == NONE || compression.magic.length > length)
+				continue;
+
+			boolean matches = true;
+			for (int i = 0; i < compression.magic.length; i++)
+				matches &= header[i] == compression.magic[i];
+
+			if (matches)
+				return compression;
+		}
+
+		return NONE;
+	}
+}
@@ -0,0 +1,146 @@
+package com.jonas.evaluator;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This is a {@link MineIndex} decorator that counts the calls made to each
+ * method of an underlying mine index. It is installed by an {@link Evaluator}
+ * when {@link Metrics} are enabled. Decorators are created through
+ * {@link #of(MineIndex)}, which keeps the range queries of a
+ * {@link RangeMineIndex}, so a measured field is rendered the same way as an
+ * unmeasured one.
+ * 
+ * The counters may be incremented concurrently by a parallel render (see
+ * {@link Field#toString(Position)}).
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class CountingMineIndex implements MineIndex {
+	/** The decorated mine index. */
+	protected MineIndex mineIndex;
+
+	/** Call counts of each method. */
+	private LongAdder getMineAtXYCalls = new LongAdder(),
+			removeMineAtXYCalls = new LongAdder(),
+			getMaxXDistanceCalls = new LongAdder(),
+			getMaxYDistanceCalls = new LongAdder(),
+			countCalls = new LongAdder(),
+			getNumMinesAtOrAboveCalls = new LongAdder();
+
+	/** Call counts of range queries, made only of a {@link RangeMineIndex}. */
+	protected LongAdder getMinesInRangeCalls = new LongAdder();
+
+	protected CountingMineIndex(MineIndex mineIndex) {
+		this.mineIndex = mineIndex;
+	}
+
+	/**
+	 * Decorates a mine index, implementing {@link RangeMineIndex} if the
+	 * decorated index does.
+	 * 
+	 * @param mineIndex
+	 *            the mine index to decorate
+	 * @return the counting decorator
+	 */
+	public static CountingMineIndex of(MineIndex mineIndex) {
+		if (mineIndex instanceof RangeMineIndex)
+			return new CountingRangeMineIndex((RangeMineIndex) mineIndex);
+
+		return new CountingMineIndex(mineIndex);
+	}
+
+	@Override
+	public void build() {
+		mineIndex.build();
+	}
+
+	@Override
+	public void addMine(Position position) {
+		mineIndex.addMine(position);
+	}
+
+	@Override
+	public Position getMineAtXY(Position position) {
+		getMineAtXYCalls.increment();
+		return mineIndex.getMineAtXY(position);
+	}
+
+	@Override
+	public Position removeMineAtXY(Position position) {
+		removeMineAtXYCalls.increment();
+		return mineIndex.removeMineAtXY(position);
+	}
+
+	@Override
+	public int getMaxXDistance(Position position) {
+		getMaxXDistanceCalls.increment();
+		return mineIndex.getMaxXDistance(position);
+	}
+
+	@Override
+	public int getMaxYDistance(Position position) {
+		getMaxYDistanceCalls.increment();
+		return mineIndex.getMaxYDistance(position);
+	}
+
+	@Override
+	public int count() {
+		countCalls.increment();
+		return mineIndex.count();
+	}
+
+	@Override
+	public int getNumMinesAtOrAbove(int depth) {
+		getNumMinesAtOrAboveCalls.increment();
+		return mineIndex.getNumMinesAtOrAbove(depth);
+	}
+
+	@Override
+	public MineIndex copy() {
+		return mineIndex.copy();
+	}
+
+	/**
+	 * Returns a JSON object holding the call counts of each method.
+	 * 
+	 * @return a JSON string
+	 */
+	public String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"getMineAtXY\":").append(getMineAtXYCalls.sum());
+		sb.append(",\"getMinesInRange\":").append(getMinesInRangeCalls.sum());
+		sb.append(",\"removeMineAtXY\":").append(removeMineAtXYCalls.sum());
+		sb.append(",\"getMaxXDistance\":").append(getMaxXDistanceCalls.sum());
+		sb.append(",\"getMaxYDistance\":").append(getMaxYDistanceCalls.sum());
+		sb.append(",\"count\":").append(countCalls.sum());
+		sb.append(",\"getNumMinesAtOrAbove\":").append(
+				getNumMinesAtOrAboveCalls.sum());
+		sb.append('}');
+
+		return sb.toString();
+	}
+
+	/**
+	 * An inner class that counts the calls made to a {@link RangeMineIndex},
+	 * including its range queries.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	private static class CountingRangeMineIndex extends CountingMineIndex
+			implements RangeMineIndex {
+		public CountingRangeMineIndex(RangeMineIndex mineIndex) {
+			super(mineIndex);
+		}
+
+		@Override
+		public List<Position> getMinesInRange(int minX, int minY, int maxX,
+				int maxY) {
+			getMinesInRangeCalls.increment();
+			return ((RangeMineIndex) mineIndex).getMinesInRange(minX, minY,
+					maxX, maxY);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package com.jonas.evaluator;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This class is an output stream that counts the bytes written through it to an
+ * underlying output stream.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class CountingOutputStream extends FilterOutputStream {
+	private long count = 0;
+
+	public CountingOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		count++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		count += len;
+	}
+
+	public long getCount() {
+		return count;
+	}
+}
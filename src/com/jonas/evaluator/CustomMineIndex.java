@@ -88,9 +88,9 @@ public class CustomMineIndex implements MineIndex {
 		// we no longer need the list of mine positions
 		mineList.clear();
 
-		Logger.printDebug(CustomMineIndex.class, mineMap.toString());
-		Logger.printDebug(CustomMineIndex.class, xCountMap.toString());
-		Logger.printDebug(CustomMineIndex.class, yCountMap.toString());
+		Logger.printDebug(CustomMineIndex.class, "{}", mineMap);
+		Logger.printDebug(CustomMineIndex.class, "{}", xCountMap);
+		Logger.printDebug(CustomMineIndex.class, "{}", yCountMap);
 	}
 
 	@Override
@@ -104,9 +104,11 @@ public class CustomMineIndex implements MineIndex {
 	}
 
 	@Override
-	public void removeMineAtXY(Position position) {
+	public Position removeMineAtXY(Position position) {
 		// remove the mine at this xy-position
-		mineMap.remove(position);
+		Position mine = mineMap.remove(position);
+		if (mine == null)
+			return null; // no mine, so no coordinate counts to update
 
 		// update the count for this mine's x-coordinate
 		int x = position.getX();
@@ -127,6 +129,8 @@ public class CustomMineIndex implements MineIndex {
 			else
 				yCountMap.put(y, yCount);
 		}
+
+		return mine;
 	}
 
 	@Override
@@ -183,4 +187,17 @@ public class CustomMineIndex implements MineIndex {
 		return numMines;
 
 	}
+
+	@Override
+	public MineIndex copy() {
+		CustomMineIndex copy = new CustomMineIndex();
+
+		// mine positions are never modified by the index, so they can be
+		// shared between copies
+		copy.mineMap = new LinkedHashMap<Position, Position>(mineMap);
+		copy.xCountMap = new TreeMap<Integer, Integer>(xCountMap);
+		copy.yCountMap = new TreeMap<Integer, Integer>(yCountMap);
+
+		return copy;
+	}
 }
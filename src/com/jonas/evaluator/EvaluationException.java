@@ -0,0 +1,16 @@
+package com.jonas.evaluator;
+
+/**
+ * This exception is thrown in place of exiting the JVM when an evaluation
+ * fails in a long-running process (see {@link Logger#setExitOnError(boolean)}).
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class EvaluationException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public EvaluationException(String message) {
+		super(message);
+	}
+}
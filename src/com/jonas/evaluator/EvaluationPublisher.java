@@ -0,0 +1,67 @@
+package com.jonas.evaluator;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * This class publishes the simulation of an {@link Evaluator} as a stream of
+ * {@link SimulationEvent}s: one {@link StepEvent} per step followed by a single
+ * {@link ScoreEvent}. Each subscriber consumes the stream at its own pace. The
+ * publisher buffers at most a bounded number of events per subscriber and the
+ * simulation blocks while any subscriber's buffer is full, so memory stays
+ * bounded regardless of the length of the script.
+ * 
+ * While published, the evaluator's own output is discarded: the evaluator
+ * still prints to its output stream rather than through the publisher, so an
+ * unpublished evaluation pays nothing for the stream. A
+ * {@link TextOutputSubscriber} prints a stream with frames in the evaluator's
+ * text format.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class EvaluationPublisher extends SubmissionPublisher<SimulationEvent> {
+	/** The default maximum number of buffered events per subscriber. */
+	public static final int DEFAULT_BUFFER_CAPACITY = 256;
+
+	private Evaluator evaluator;
+
+	/** Whether or not the published step events hold rendered frames. */
+	private boolean frames;
+
+	public EvaluationPublisher(Evaluator evaluator, boolean frames) {
+		this(evaluator, frames, ForkJoinPool.commonPool(),
+				DEFAULT_BUFFER_CAPACITY);
+	}
+
+	public EvaluationPublisher(Evaluator evaluator, boolean frames,
+			Executor executor, int bufferCapacity) {
+		super(executor, bufferCapacity);
+
+		this.evaluator = evaluator;
+		this.frames = frames;
+	}
+
+	/**
+	 * Runs the simulation on the calling thread, publishing its events to all
+	 * current subscribers, and closes the publisher once the score is
+	 * published.
+	 */
+	public void run() {
+		evaluator.setOutput(new PrintStream(OutputStream.nullOutputStream()));
+		evaluator.setRender(false);
+		evaluator.setPublisher(this, frames);
+
+		try {
+			evaluator.evaluate();
+			close();
+
+		} catch (RuntimeException e) {
+			closeExceptionally(e);
+			throw e;
+		}
+	}
+}
@@ -1,5 +1,10 @@
 package com.jonas.evaluator;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.SubmissionPublisher;
+
 /**
  * This class is the entry point for the mine clearing evaluator program. Usage:
  * $ java Evaluator <field-file> <script-file>
@@ -15,7 +20,7 @@ public class Evaluator {
 	private Field field;
 
 	/** Holds the instructions of a mine clearing script. */
-	private Script script;
+	private InstructionSource script;
 
 	/** The current simulation step. */
 	int step;
@@ -23,37 +28,304 @@ public class Evaluator {
 	/** Holds the current position of the script-instructed vessel. */
 	private Position vessel;
 
+	/** The position at which a firing pattern's volley is aimed. */
+	private Position probe = new Position(0, 0);
+
 	/** Stats for the scoring function. */
 	private int initialMines = 0, kmsMoved = 0, volleysFired = 0;
 
+	/** The stream to which the simulation and score are printed. */
+	private PrintStream out;
+
+	/** Whether or not the state of the field is printed at each step. */
+	private boolean render = true;
+
+	/** The number of mines destroyed during the current step. */
+	private int stepMinesDestroyed = 0;
+
+	/** Collects evaluation metrics, or null if metrics are disabled. */
+	private Metrics metrics;
+
+	/** Publishes the simulation's events, or null. */
+	private SubmissionPublisher<SimulationEvent> publisher;
+
+	/** Whether or not published step events hold rendered frames. */
+	private boolean publishFrames;
+
+	/** The mines destroyed during the current step, collected if published. */
+	private List<Position> stepDestroyedMines;
+
+	/** The rendered field before the current step, if published. */
+	private String stepPreFrame;
+
+	/** The budget bounding the evaluation, or null. */
+	private Budget budget;
+
+	/** Counts the printed bytes if the output is budgeted, or null. */
+	private CountingOutputStream budgetedOutput;
+
+	/** The reason for which the evaluation ended. */
+	private TerminationReason terminationReason;
+
 	public Evaluator(String fieldFile, String scriptFile) {
-		field = new Field(fieldFile);
-		script = new Script(scriptFile);
+		this(new Field(fieldFile), openScript(scriptFile, null));
+	}
+
+	public Evaluator(String fieldFile, String scriptFile, Budget budget) {
+		this(new Field(fieldFile, budget), openScript(scriptFile, budget));
+
+		this.budget = budget;
+	}
+
+	public Evaluator(Field field, InstructionSource script) {
+		this.field = field;
+		this.script = script;
+
+		out = System.out;
+	}
+
+	public void setOutput(PrintStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Sets whether or not the steps of the simulation are printed. A headless
+	 * (non-rendering) evaluation only prints the score.
+	 * 
+	 * @param render
+	 *            true to print each step, false otherwise
+	 */
+	public void setRender(boolean render) {
+		this.render = render;
+	}
+
+	/**
+	 * Sets a publisher to which the events of the simulation are submitted
+	 * (see {@link EvaluationPublisher}). Submission blocks while the buffer of
+	 * any of the publisher's subscribers is full.
+	 * 
+	 * @param publisher
+	 *            a publisher of simulation events
+	 * @param frames
+	 *            whether or not step events hold the rendered field
+	 */
+	public void setPublisher(SubmissionPublisher<SimulationEvent> publisher,
+			boolean frames) {
+		this.publisher = publisher;
+		this.publishFrames = frames;
+	}
+
+	/**
+	 * Sets a budget bounding the evaluation. The budget's limits are checked
+	 * before each step.
+	 * 
+	 * @param budget
+	 *            a budget
+	 */
+	public void setBudget(Budget budget) {
+		this.budget = budget;
+	}
+
+	public int getStep() {
+		return step;
+	}
+
+	/**
+	 * Returns the number of mines in the field before the first step.
+	 * 
+	 * @return the initial number of mines
+	 */
+	public int getInitialMines() {
+		return initialMines;
+	}
+
+	public int getVolleysFired() {
+		return volleysFired;
+	}
+
+	public int getKmsMoved() {
+		return kmsMoved;
+	}
+
+	/**
+	 * Returns the reason for which the evaluation ended.
+	 * 
+	 * @return the termination reason or null if not yet evaluated
+	 */
+	public TerminationReason getTerminationReason() {
+		return terminationReason;
 	}
 
 	/**
 	 * Simulates the actions of a mine clearing vessel driven by the
 	 * instructions in the input script file as it falls through the cuboid
-	 * space defined by the input field file.
+	 * space defined by the input field file. The script's instruction source
+	 * is closed once the evaluation ends, however it ends.
 	 */
 	public void evaluate() {
+		try {
+			simulate();
+		} finally {
+			script.close();
+		}
+	}
+
+	/**
+	 * Runs the simulation and prints the score.
+	 */
+	private void simulate() {
 		// initializations
 		initialMines = field.getNumMines();
 		step = 1;
 		vessel = field.getCenter();
 		vessel.setZ(Settings.STARTING_DEPTH);
 
-		while (!completed()) {
-			printPreStep();
-			performStep();
-			printPostStep();
+		if (Metrics.isEnabled())
+			startMetrics();
+		long start = metrics == null ? 0 : System.nanoTime();
+
+		if (budget != null
+				&& budget.getMaxOutputBytes() != Budget.UNLIMITED) {
+			budgetedOutput = new CountingOutputStream(out);
+			out = new PrintStream(budgetedOutput);
+		}
+
+		// mines are only ever destroyed, so the index budget is checked once
+		if (budget != null && budget.isIndexExceeded(initialMines))
+			terminationReason = TerminationReason.MEMORY_BUDGET;
+
+		while (terminationReason == null && !completed()) {
+			if (budget != null && (terminationReason = checkBudget()) != null)
+				break;
+
+			if (publisher != null)
+				beginPublishedStep();
+
+			if (metrics != null) {
+				performMeasuredStep();
+			} else {
+				if (render)
+					printPreStep();
+
+				performStep();
+
+				if (render)
+					printPostStep();
+			}
+
+			if (publisher != null)
+				endPublishedStep();
 
 			// increment step count
 			step++;
 		}
 
+		if (terminationReason != null)
+			Logger.printWarning(Evaluator.class,
+					"Evaluation ended at step {}: {}", step, terminationReason);
+		else
+			terminationReason = field.getNumMines() == 0 ? TerminationReason.MINES_CLEARED
+					: !script.hasInstructions(step) ? TerminationReason.SCRIPT_COMPLETED
+							: TerminationReason.MINE_PASSED;
+
 		// score the script's mine clearing performance
 		printScore();
+		out.flush();
+
+		if (publisher != null)
+			publisher.submit(new ScoreEvent(step, calculateScore()));
+
+		if (metrics != null) {
+			out.flush();
+			metrics.finish(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Checks whether the evaluation has exceeded its budget.
+	 * 
+	 * @return the exceeded budget's termination reason or null if within
+	 *         budget
+	 */
+	private TerminationReason checkBudget() {
+		if (step > budget.getMaxSteps())
+			return TerminationReason.STEP_BUDGET;
+		if (budget.isTimeExceeded())
+			return TerminationReason.TIME_BUDGET;
+		if (budgetedOutput != null
+				&& budgetedOutput.getCount() > budget.getMaxOutputBytes())
+			return TerminationReason.OUTPUT_BUDGET;
+
+		return null;
+	}
+
+	/**
+	 * Starts collecting metrics by recording the load times of the field and
+	 * script and instrumenting the evaluation's output and mine index.
+	 */
+	private void startMetrics() {
+		metrics = new Metrics();
+		metrics.recordLoad(field, script);
+
+		CountingOutputStream output = new CountingOutputStream(out);
+		out = new PrintStream(output);
+		metrics.setOutput(output);
+
+		if (field.getMineIndex() != null) {
+			CountingMineIndex indexCalls = CountingMineIndex.of(
+					field.getMineIndex());
+			field.setMineIndex(indexCalls);
+			metrics.setIndexCalls(indexCalls);
+		}
+	}
+
+	/**
+	 * Prepares the published event of the current step.
+	 */
+	private void beginPublishedStep() {
+		stepDestroyedMines = new ArrayList<Position>();
+		stepPreFrame = publishFrames ? field.toString(vessel) : null;
+	}
+
+	/**
+	 * Publishes the event of the current step.
+	 */
+	private void endPublishedStep() {
+		publisher.submit(new StepEvent(step, script.getInstructions(step),
+				new Position(vessel.getX(), vessel.getY(), vessel.getZ()),
+				stepDestroyedMines, stepPreFrame,
+				publishFrames ? field.toString(vessel) : null));
+	}
+
+	/**
+	 * Performs and prints the current step while recording its metrics.
+	 */
+	private void performMeasuredStep() {
+		Metrics.StepEvent event = new Metrics.StepEvent();
+		event.begin();
+
+		long stepStart = System.nanoTime(), renderStart;
+		if (render) {
+			renderStart = System.nanoTime();
+			printPreStep();
+			metrics.recordRender(System.nanoTime() - renderStart);
+		}
+
+		performStep();
+
+		if (render) {
+			renderStart = System.nanoTime();
+			printPostStep();
+			metrics.recordRender(System.nanoTime() - renderStart);
+		}
+		metrics.recordStep(System.nanoTime() - stepStart);
+
+		event.end();
+		if (event.shouldCommit()) {
+			event.step = step;
+			event.minesDestroyed = stepMinesDestroyed;
+			event.commit();
+		}
 	}
 
 	/**
@@ -65,7 +337,7 @@ public class Evaluator {
 	 */
 	public boolean completed() {
 		return field.getNumMines() == 0 // no mines remaining
-				|| step > script.getNumInstructions() // script completed
+				|| !script.hasInstructions(step) // script completed
 				|| field.minesAbove(vessel.getZ()); // passed mines
 	}
 
@@ -74,14 +346,9 @@ public class Evaluator {
 	 * instruction.
 	 */
 	public void printPreStep() {
-		// print the step number
-		System.out.println("Step " + step
-				+ System.getProperty("line.separator"));
-
-		Logger.printDebug(Evaluator.class, vessel.toString());
+		Logger.printDebug(Evaluator.class, "{}", vessel);
 
-		// print the state of the field
-		System.out.println(field.toString(vessel));
+		printPreStep(out, step, field.toString(vessel));
 	}
 
 	/**
@@ -89,14 +356,50 @@ public class Evaluator {
 	 * instruction.
 	 */
 	public void printPostStep() {
-		// print the instruction executed at this step
-		System.out.println(script.getInstructions(step)
-				+ System.getProperty("line.separator"));
+		Logger.printDebug(Evaluator.class, "{}", vessel);
+
+		printPostStep(out, script.getInstructions(step), field.toString(vessel));
+	}
+
+	/**
+	 * Prints a step's number and the rendered field prior to executing the
+	 * step's instructions. This and the other static printing methods define
+	 * the evaluator's text format, which a {@link TextOutputSubscriber} prints
+	 * as well.
+	 * 
+	 * @param out
+	 *            the output stream
+	 * @param step
+	 *            the step number
+	 * @param frame
+	 *            the rendered field
+	 */
+	static void printPreStep(PrintStream out, int step, String frame) {
+		// print the step number
+		out.println("Step " + step + System.getProperty("line.separator"));
 
-		Logger.printDebug(Evaluator.class, vessel.toString());
+		// print the state of the field
+		out.println(frame);
+	}
+
+	/**
+	 * Prints a step's instructions and the rendered field after executing
+	 * them.
+	 * 
+	 * @param out
+	 *            the output stream
+	 * @param instructions
+	 *            the step's instructions
+	 * @param frame
+	 *            the rendered field
+	 */
+	static void printPostStep(PrintStream out, StepInstructions instructions,
+			String frame) {
+		// print the instruction executed at this step
+		out.println(instructions + System.getProperty("line.separator"));
 
 		// print the state of the field
-		System.out.println(field.toString(vessel));
+		out.println(frame);
 	}
 
 	/**
@@ -105,6 +408,7 @@ public class Evaluator {
 	 */
 	public void performStep() {
 		StepInstructions stepInstrunctions = script.getInstructions(step);
+		stepMinesDestroyed = 0;
 		for (String instruction : stepInstrunctions.getInstructions()) {
 			if (StepInstructions.isFiringPattern(instruction))
 				performFiringPattern(instruction); // fire
@@ -123,11 +427,28 @@ public class Evaluator {
 	 *            a firing pattern instruction
 	 */
 	private void performFiringPattern(String pattern) {
-		for (Position position : StepInstructions.FIRING_PATTERN_MAP
-				.get(pattern))
-			field.destroyMines(vessel.relativePosition(position));
+		FiringPattern firingPattern = StepInstructions.FIRING_PATTERNS
+				.get(pattern);
+
+		int destroyed = 0;
+		Position mine;
+		for (int i = 0; i < firingPattern.size(); i++) {
+			// aim the probe rather than allocating a position per offset
+			probe.setX(vessel.getX() + firingPattern.getDx(i));
+			probe.setY(vessel.getY() + firingPattern.getDy(i));
+			if ((mine = field.destroyMines(probe)) != null) {
+				destroyed++;
+
+				if (publisher != null)
+					stepDestroyedMines.add(mine);
+			}
+		}
 
+		stepMinesDestroyed += destroyed;
 		volleysFired++;
+
+		if (metrics != null)
+			metrics.recordVolley(destroyed);
 	}
 
 	/**
@@ -147,11 +468,22 @@ public class Evaluator {
 	 * Prints the score of the script's execution performance.
 	 */
 	public void printScore() {
-		int score = calculateScore();
+		printScore(out, calculateScore());
+	}
+
+	/**
+	 * Prints a score.
+	 * 
+	 * @param out
+	 *            the output stream
+	 * @param score
+	 *            the score of a script's execution
+	 */
+	static void printScore(PrintStream out, int score) {
 		if (score > 0)
-			System.out.println("pass (" + score + ")");
+			out.println("pass (" + score + ")");
 		else
-			System.out.println("fail (0)");
+			out.println("fail (0)");
 	}
 
 	/**
@@ -162,11 +494,15 @@ public class Evaluator {
 	public int calculateScore() {
 		int score = 0;
 
-		if (field.getNumMines() > 0) {
+		if (terminationReason != null && terminationReason.isBudget()) {
+			// the evaluation exceeded its budget
+			score = 0;
+
+		} else if (field.getNumMines() > 0) {
 			// mine(s) passed or mine(s) remaining
 			score = 0;
 
-		} else if ((step - 1) < script.getNumInstructions()) {
+		} else if (script.hasInstructions(step)) {
 			// mines cleared, but script instructions remaining
 			score = 1;
 
@@ -180,7 +516,27 @@ public class Evaluator {
 		return score;
 	}
 
+	/**
+	 * Opens a script file, streaming it if requested by the
+	 * "evaluator.script" property (e.g., -Devaluator.script=streaming).
+	 * 
+	 * @param scriptFile
+	 *            the path of a script file
+	 * @param budget
+	 *            a budget or null
+	 * @return the script's instruction source
+	 */
+	private static InstructionSource openScript(String scriptFile,
+			Budget budget) {
+		if ("streaming".equals(System.getProperty("evaluator.script")))
+			return new StreamingScript(scriptFile, budget);
+
+		return new Script(scriptFile, budget);
+	}
+
 	public static void main(String[] args) {
+		StepInstructions.loadPatterns();
+
 		// validate command line arguments
 		if (args.length != 2) {
 			Logger.printHelp();
@@ -188,8 +544,23 @@ public class Evaluator {
 					"Invalid number of command line arguments");
 		}
 
+		// bound the evaluation if a budget is given, e.g.,
+		// -Devaluator.budget=steps=1000,millis=500
+		String budget = System.getProperty("evaluator.budget");
+
 		// kick off evaluation
-		new Evaluator(args[0], args[1]).evaluate();
+		if (budget == null) {
+			new Evaluator(args[0], args[1]).evaluate();
+		} else {
+			try {
+				new Evaluator(args[0], args[1], Budget.parse(budget))
+						.evaluate();
+			} catch (BudgetExceededException e) {
+				Logger.printWarning(Evaluator.class, "Evaluation ended: {}",
+						e.getReason());
+				System.out.println("fail (0)");
+			}
+		}
 	}
 
 }
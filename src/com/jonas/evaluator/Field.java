@@ -1,5 +1,12 @@
 package com.jonas.evaluator;
 
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
 /**
  * This class represents the current state of the mine field cuboid space, which
  * is initially provided by an input field file. The Field class delegates
@@ -15,28 +22,131 @@ public class Field extends InputFileModel {
 	/** Holds the currently active mines. */
 	private MineIndex mineIndex;
 
+	/** The number of mines parsed from the field file. */
+	private int numParsedMines;
+
+	/** Whether or not the field file holds numeric depths. */
+	private boolean numericDepths;
+
+	/** The time taken to build the mine index in nanoseconds. */
+	private long indexBuildNanos;
+
+	/** Receives the mines of the parsed rows, created by the first row. */
+	private FieldRowParser.MineSink mineSink;
+
 	public Field(String fieldFile) {
 		super(fieldFile);
 
 		// Note: the mine index will be initialized during parsing
 	}
 
+	public Field(String fieldFile, Budget budget) {
+		super(fieldFile, budget);
+	}
+
+	public Field(Reader reader, String name) {
+		super(reader, name);
+	}
+
+	public Field(Reader reader, String name, Budget budget) {
+		super(reader, name, budget);
+	}
+
+	/**
+	 * Creates a copy of a field. Mines destroyed in the copy remain in the
+	 * original field.
+	 * 
+	 * @param field
+	 *            the field to copy
+	 */
+	public Field(Field field) {
+		xDimension = field.xDimension;
+		yDimension = field.yDimension;
+		mineIndex = field.mineIndex == null ? null : field.mineIndex.copy();
+	}
+
+	/**
+	 * Creates a field holding the mines of a parsed field grid.
+	 * 
+	 * @param grid
+	 *            a field grid
+	 */
+	public Field(FieldGrid grid) {
+		xDimension = grid.getXDimension();
+		yDimension = grid.getYDimension();
+
+		if (grid.getNumMines() > 0) {
+			mineIndex = (grid.hasNumericDepths() ? Settings.DEEP_MINE_INDEX_TYPE
+					: Settings.MINE_INDEX_TYPE).newMineIndex();
+			for (int mine = 0; mine < grid.getNumMines(); mine++)
+				mineIndex.addMine(new Position(grid.getX(mine),
+						grid.getY(mine), grid.getZ(mine)));
+
+			mineIndex.build();
+		}
+	}
+
+	/**
+	 * Creates a field of given dimensions holding the mines of a built index.
+	 */
+	Field(int xDimension, int yDimension, MineIndex mineIndex) {
+		this.xDimension = xDimension;
+		this.yDimension = yDimension;
+		this.mineIndex = mineIndex;
+	}
+
 	@Override
 	public void processLine(String line) {
-		Logger.printDebug(Field.class, "processing line " + line);
+		Logger.printDebug(Field.class, "processing line {}", line);
+
+		if (yDimension == 0 && !numericDepths
+				&& NumericFieldFormat.isTextHeader(line)) {
+			numericDepths = true;
+			return;
+		}
+
+		if (mineSink == null)
+			mineSink = new FieldRowParser.MineSink() {
 
-		// tokenize and parse the line
-		line = line.trim().replace(" ", "");
-		parseLine(line, yDimension);
+				@Override
+				public void addMine(int x, int y, int z) {
+					Field.this.addMine(x, y, z);
+				}
+
+			};
+
+		int length = FieldRowParser.parseRow(line, yDimension, numericDepths,
+				mineSink);
+
+		checkIndexBudget(yDimension);
 
 		// update the field's x dimension
-		if (line.length() > xDimension)
-			xDimension = line.length();
+		if (length > xDimension)
+			xDimension = length;
 
 		// update the field's y dimension
 		yDimension++;
 	}
 
+	@Override
+	protected void processBinary(DataInputStream in) throws IOException {
+		numericDepths = true;
+
+		int xDimension = in.readInt(), yDimension = in.readInt();
+		for (int y = 0; y < yDimension; y++) {
+			for (int x = 0; x < xDimension; x++) {
+				int depth = in.readUnsignedShort();
+				if (depth > 0)
+					addMine(x, y, depth);
+			}
+
+			checkIndexBudget(y);
+		}
+
+		this.xDimension = xDimension;
+		this.yDimension = yDimension;
+	}
+
 	@Override
 	public void validate() {
 		Logger.printDebug(Field.class, "Validating field model");
@@ -46,7 +156,9 @@ public class Field extends InputFileModel {
 					"Please provide a non-empty field file");
 
 		// build the mine index
+		long start = System.nanoTime();
 		mineIndex.build();
+		indexBuildNanos = System.nanoTime() - start;
 	}
 
 	public int getXDimension() {
@@ -57,6 +169,18 @@ public class Field extends InputFileModel {
 		return yDimension;
 	}
 
+	public long getIndexBuildNanos() {
+		return indexBuildNanos;
+	}
+
+	MineIndex getMineIndex() {
+		return mineIndex;
+	}
+
+	void setMineIndex(MineIndex mineIndex) {
+		this.mineIndex = mineIndex;
+	}
+
 	/**
 	 * Returns a position indicating the center of the XY-plane of the field.
 	 * The center of an even dimension will be the lower of the two middle most
@@ -92,27 +216,26 @@ public class Field extends InputFileModel {
 		return mineIndex.getNumMinesAtOrAbove(depth) > 0;
 	}
 
+	private void addMine(int x, int y, int z) {
+		if (mineIndex == null)
+			mineIndex = (numericDepths ? Settings.DEEP_MINE_INDEX_TYPE
+					: Settings.MINE_INDEX_TYPE).newMineIndex();
+
+		mineIndex.addMine(new Position(x, y, z));
+		numParsedMines++;
+	}
+
 	/**
-	 * Parses a single line of a field file.
+	 * Enforces the budget of the mine index's estimated heap footprint.
 	 * 
-	 * @param lineTokens
-	 *            a slice of the x dimension of a field
 	 * @param y
-	 *            the y value of the x slice
+	 *            the last parsed row
 	 */
-	private void parseLine(String line, int y) {
-		char c;
-		for (int x = 0; x < line.length(); x++) {
-			c = line.charAt(x);
-			if (c == Settings.EMPTY_POSITION_CHARACTER)
-				continue;
-
-			// add the mine at the appropriate depth
-			if (mineIndex == null)
-				mineIndex = new CustomMineIndex();
-
-			mineIndex.addMine(new Position(x, y, Util.translateToRange(c)));
-		}
+	private void checkIndexBudget(int y) {
+		Budget budget = getBudget();
+		if (budget != null && budget.isIndexExceeded(numParsedMines))
+			throw new BudgetExceededException(TerminationReason.MEMORY_BUDGET,
+					"Mine index budget exceeded at line " + (y + 1));
 	}
 
 	/**
@@ -120,22 +243,25 @@ public class Field extends InputFileModel {
 	 * 
 	 * @param position
 	 *            xy-coordinates to destroy field mines
+	 * @return the position of the destroyed mine or null if none existed
 	 */
-	public void destroyMines(Position position) {
-		mineIndex.removeMineAtXY(position);
+	public Position destroyMines(Position position) {
+		return mineIndex.removeMineAtXY(position);
 	}
 
 	/**
 	 * Generates a string representing the current state of the mine field
-	 * centered at a particular position within the field.
+	 * centered at a particular position within the field. Large fields (see
+	 * {@link Settings#PARALLEL_RENDER_ROWS}) are rendered in bands of rows
+	 * over the common {@link ForkJoinPool}. An index answering range queries
+	 * (see {@link RangeMineIndex}) renders each band from a single query
+	 * rather than a lookup of each position.
 	 * 
 	 * @param viewPosition
 	 *            the position from which to view the field
 	 * @return a string representing the current state of the field
 	 */
 	public String toString(Position viewPosition) {
-		StringBuilder sb = new StringBuilder();
-
 		// retrieve the maximum x- and y-axis distances of mines from the
 		// viewing position
 		int maxX = mineIndex.getMaxXDistance(viewPosition);
@@ -147,32 +273,150 @@ public class Field extends InputFileModel {
 		Position stop = new Position(viewPosition.getX() + maxX,
 				viewPosition.getY() + maxY);
 
+		RenderTask task = new RenderTask(viewPosition, start.getX(),
+				stop.getX(), start.getY(), stop.getY() + 1);
+		if (stop.getY() - start.getY() < Settings.PARALLEL_RENDER_ROWS)
+			return task.compute();
+
+		return ForkJoinPool.commonPool().invoke(task);
+	}
+
+	/**
+	 * Renders a range of rows of the field.
+	 * 
+	 * @param sb
+	 *            the builder to append the rows to
+	 * @param viewPosition
+	 *            the position from which to view the field
+	 * @param startX
+	 *            the first column
+	 * @param stopX
+	 *            the last column
+	 * @param startY
+	 *            the first row
+	 * @param stopY
+	 *            the row after the last row
+	 */
+	private void renderRows(StringBuilder sb, Position viewPosition,
+			int startX, int stopX, int startY, int stopY) {
+		if (mineIndex instanceof RangeMineIndex) {
+			renderRange(sb, viewPosition, startX, stopX, startY, stopY);
+			return;
+		}
+
 		// build the string representing the state of the XY-plane of the field
-		Position fieldPosition, minePosition;
-		int mineRange;
-		for (int y = start.getY(); y <= stop.getY(); y++) {
-			for (int x = start.getX(); x <= stop.getX(); x++) {
+		Position minePosition;
+		for (int y = startY; y < stopY; y++) {
+			for (int x = startX; x <= stopX; x++) {
 				// evaluate this (x,y) position
-				fieldPosition = new Position(x, y);
-				if ((minePosition = mineIndex.getMineAtXY(fieldPosition)) != null) {
-					// mined field position
-					mineRange = minePosition.getZ() - viewPosition.getZ();
-					if (mineRange <= 0) {
-						// missed mine
-						sb.append(Settings.MISSED_MINE_CHARACTER);
-
-					} else {
-						// active mine
-						sb.append(Util.translateToLetter(mineRange));
-					}
-				} else {
-					// empty field position
+				minePosition = mineIndex.getMineAtXY(new Position(x, y));
+				if (minePosition != null)
+					sb.append(render(minePosition, viewPosition));
+				else
 					sb.append(Settings.EMPTY_POSITION_CHARACTER);
-				}
 			}
 			sb.append(System.getProperty("line.separator"));
 		}
+	}
+
+	/**
+	 * Renders a range of rows of the field from a single range query, which
+	 * visits only the rows' mines rather than every position of the rows.
+	 * 
+	 * @param sb
+	 *            the builder to append the rows to
+	 * @param viewPosition
+	 *            the position from which to view the field
+	 * @param startX
+	 *            the first column
+	 * @param stopX
+	 *            the last column
+	 * @param startY
+	 *            the first row
+	 * @param stopY
+	 *            the row after the last row
+	 */
+	private void renderRange(StringBuilder sb, Position viewPosition,
+			int startX, int stopX, int startY, int stopY) {
+		int width = stopX - startX + 1;
+		char[] rows = new char[width * (stopY - startY)];
+		Arrays.fill(rows, Settings.EMPTY_POSITION_CHARACTER);
+
+		for (Position mine : ((RangeMineIndex) mineIndex).getMinesInRange(
+				startX, startY, stopX, stopY - 1))
+			rows[(mine.getY() - startY) * width + mine.getX() - startX] = render(
+					mine, viewPosition);
 
-		return sb.toString();
+		String ls = System.getProperty("line.separator");
+		for (int row = 0; row < rows.length; row += width)
+			sb.append(rows, row, width).append(ls);
+	}
+
+	/**
+	 * Returns the character of a mine as seen from a position.
+	 * 
+	 * @param minePosition
+	 *            the position of a mine
+	 * @param viewPosition
+	 *            the position from which to view the field
+	 * @return the mine's character
+	 */
+	private static char render(Position minePosition, Position viewPosition) {
+		int mineRange = minePosition.getZ() - viewPosition.getZ();
+		if (mineRange <= 0) {
+			// missed mine
+			return Settings.MISSED_MINE_CHARACTER;
+
+		} else if (mineRange > Util.MAX_LETTER_RANGE) {
+			// active mine beyond the range of letters
+			return Settings.DEEP_MINE_CHARACTER;
+
+		} else {
+			// active mine
+			return Util.translateToLetter(mineRange);
+		}
+	}
+
+	/**
+	 * An inner class that renders a range of rows of the field, splitting the
+	 * range in half until it is small enough.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	private class RenderTask extends RecursiveTask<String> {
+		private static final long serialVersionUID = 1L;
+
+		private final Position viewPosition;
+
+		private final int startX, stopX, startY, stopY;
+
+		public RenderTask(Position viewPosition, int startX, int stopX,
+				int startY, int stopY) {
+			this.viewPosition = viewPosition;
+			this.startX = startX;
+			this.stopX = stopX;
+			this.startY = startY;
+			this.stopY = stopY;
+		}
+
+		@Override
+		protected String compute() {
+			if (stopY - startY <= Settings.PARALLEL_RENDER_ROWS) {
+				StringBuilder sb = new StringBuilder();
+				renderRows(sb, viewPosition, startX, stopX, startY, stopY);
+				return sb.toString();
+			}
+
+			int midY = startY + (stopY - startY) / 2;
+			RenderTask top = new RenderTask(viewPosition, startX, stopX,
+					startY, midY);
+			RenderTask bottom = new RenderTask(viewPosition, startX, stopX,
+					midY, stopY);
+			top.fork();
+
+			String bottomRows = bottom.compute();
+			return top.join() + bottomRows;
+		}
 	}
 }
@@ -0,0 +1,326 @@
+package com.jonas.evaluator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * This class caches parsed {@link Field}s for processes that evaluate many
+ * scripts against the same field files. Cached fields are keyed by their
+ * canonical file path and are invalidated whenever the file's modification time
+ * or length changes.
+ * 
+ * The cached fields are never handed out directly. Instead, each lookup returns
+ * a private copy (see {@link Field#Field(Field)}) that may be destroyed by an
+ * evaluation without affecting the cached field. A copy duplicates the whole
+ * mine index, so a hit still costs time and memory linear in the number of
+ * mines; it only saves the reading and tokenizing of the field file. Copies
+ * are not taken as copy-on-write overlays (see {@link OverlayMineIndex})
+ * because an overlay's extents include the mines it destroyed, which would
+ * change the rendered output of a cached field. Cached fields are weighted by
+ * their estimated heap footprint and the least recently used fields are
+ * evicted once the cache exceeds its memory budget. Concurrent lookups of a
+ * field that is not yet cached wait on a single load of the field file.
+ * 
+ * A lookup may be bounded by a {@link Budget}. A miss then parses the field
+ * file under the budget, so a field exceeding the index or time budget fails
+ * while it is parsed and is never cached; lookups waiting on that load share
+ * its outcome. A hit, or a field loaded incrementally or through a shared
+ * index, is checked against the index budget once it is loaded, before it is
+ * copied.
+ * 
+ * When enabled by {@link Settings#INCREMENTAL_FIELD_RELOAD}, each entry keeps
+ * the {@link IncrementalFieldLoader} that loaded it, so when a cached field
+ * file changes, the new entry only re-parses the rows that changed rather than
+ * the whole file. The loader patches its field in place, so copies of such
+ * fields are taken through the loader.
+ * 
+ * Given a shared directory (see {@link #setSharedDirectory(File)}), the cache
+ * instead attaches to the fields' {@link SharedMineIndex} files, which hold
+ * the mines off the heap and are shared by all processes on the host. Their
+ * entries are weighted by the size of the mapped file, which stays mapped until
+ * the entry is evicted.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class FieldCache {
+	/** The maximum estimated weight of the cached fields in bytes. */
+	private final long budget;
+
+	/** The current estimated weight of the cached fields in bytes. */
+	private long weight = 0;
+
+	/** Holds the cache entries in least to most recently used order. */
+	private final LinkedHashMap<String, Entry> entries;
+
+	/** The directory of shared mine index files, or null. */
+	private volatile File sharedDirectory;
+
+	/** The number of field files loaded. */
+	private long numLoads = 0;
+
+	public FieldCache() {
+		this(Settings.FIELD_CACHE_BUDGET);
+	}
+
+	public FieldCache(long budget) {
+		this.budget = budget;
+
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	}
+
+	public File getSharedDirectory() {
+		return sharedDirectory;
+	}
+
+	/**
+	 * Sets the directory of the shared mine index files through which fields
+	 * are loaded (see {@link SharedMineIndex#load(String, File)}).
+	 * 
+	 * @param sharedDirectory
+	 *            a directory, typically in /dev/shm, or null to parse fields
+	 *            into the heap
+	 */
+	public void setSharedDirectory(File sharedDirectory) {
+		this.sharedDirectory = sharedDirectory;
+	}
+
+	/**
+	 * Returns a private copy of the field parsed from a field file, loading the
+	 * field file if it is not cached or has changed since it was cached.
+	 * 
+	 * @param fieldFile
+	 *            the path of a field file
+	 * @return a copy of the parsed field
+	 */
+	public Field get(String fieldFile) {
+		return get(fieldFile, null);
+	}
+
+	/**
+	 * Returns a private copy of the field parsed from a field file within a
+	 * budget, loading the field file if it is not cached or has changed since
+	 * it was cached.
+	 * 
+	 * @param fieldFile
+	 *            the path of a field file
+	 * @param budget
+	 *            the budget bounding the lookup or null
+	 * @return a copy of the parsed field
+	 * @throws BudgetExceededException
+	 *             if the field exceeds the budget
+	 */
+	public Field get(final String fieldFile, final Budget budget) {
+		File file = new File(fieldFile);
+		String path = canonicalPath(file);
+		long lastModified = file.lastModified();
+		long length = file.length();
+
+		Entry entry;
+		boolean loader = false;
+		synchronized (this) {
+			entry = entries.get(path);
+			IncrementalFieldLoader fieldLoader = null;
+			if (entry != null
+					&& (entry.lastModified != lastModified || entry.length != length)) {
+				// the field file changed since it was cached, so keep its
+				// loader for re-parsing only the changed rows
+				fieldLoader = entry.fieldLoader;
+				remove(path);
+				entry = null;
+			}
+
+			if (entry == null) {
+				final File directory = sharedDirectory;
+				if (directory != null)
+					fieldLoader = null;
+				else if (fieldLoader == null
+						&& Settings.INCREMENTAL_FIELD_RELOAD)
+					fieldLoader = new IncrementalFieldLoader(fieldFile);
+
+				final IncrementalFieldLoader incrementalLoader = fieldLoader;
+				entry = new Entry(lastModified, length, incrementalLoader,
+						new FutureTask<Field>(new Callable<Field>() {
+
+							@Override
+							public Field call() throws Exception {
+								if (directory != null)
+									return SharedMineIndex.load(fieldFile,
+											directory);
+
+								return incrementalLoader != null ? incrementalLoader
+										.load() : new Field(fieldFile, budget);
+							}
+
+						}));
+				entries.put(path, entry);
+				loader = true;
+				numLoads++;
+			}
+		}
+
+		// only the thread that created the entry loads the field, all others
+		// wait for the load to complete
+		if (loader)
+			entry.task.run();
+
+		Field field;
+		try {
+			field = entry.task.get();
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while loading "
+					+ fieldFile, e);
+
+		} catch (ExecutionException e) {
+			synchronized (this) {
+				if (entries.get(path) == entry)
+					remove(path);
+			}
+
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException("Could not load " + fieldFile,
+					e.getCause());
+		}
+
+		if (loader) {
+			synchronized (this) {
+				if (entries.get(path) == entry) {
+					// a shared index keeps its mines off the heap, but its
+					// mapping still holds memory until the entry is evicted
+					if (field.getMineIndex() instanceof SharedMineIndex)
+						entry.weight = ((SharedMineIndex) field.getMineIndex())
+								.getSharedSize();
+					else
+						entry.weight = (long) field.getNumMines()
+								* Settings.ESTIMATED_MINE_BYTES;
+					weight += entry.weight;
+
+					evict(entry);
+				}
+			}
+		}
+
+		if (budget != null && budget.isIndexExceeded(field.getNumMines()))
+			throw new BudgetExceededException(TerminationReason.MEMORY_BUDGET,
+					"Mine index budget exceeded by " + fieldFile);
+
+		// a later reload patches the loader's field in place, so copy it under
+		// the loader's lock
+		return entry.fieldLoader != null ? entry.fieldLoader.copyField()
+				: new Field(field);
+	}
+
+	/**
+	 * Removes any cached field parsed from a field file.
+	 * 
+	 * @param fieldFile
+	 *            the path of a field file
+	 */
+	public synchronized void invalidate(String fieldFile) {
+		remove(canonicalPath(new File(fieldFile)));
+	}
+
+	/**
+	 * Removes all cached fields.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		weight = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	/**
+	 * Returns the number of field files loaded by the cache, including loads
+	 * that failed, so that the number of lookups that missed the cache is
+	 * known.
+	 * 
+	 * @return the number of loads
+	 */
+	public synchronized long getNumLoads() {
+		return numLoads;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Evicts the least recently used fields until the cache is within its
+	 * budget. Entries that are still loading and the most recently loaded
+	 * entry are never evicted.
+	 * 
+	 * @param loaded
+	 *            the most recently loaded entry
+	 */
+	private void evict(Entry loaded) {
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (weight > budget && it.hasNext()) {
+			Entry entry = it.next().getValue();
+			if (entry == loaded || !entry.task.isDone())
+				continue;
+
+			Logger.printDebug(FieldCache.class, "Evicting cached field");
+
+			it.remove();
+			weight -= entry.weight;
+		}
+	}
+
+	private void remove(String path) {
+		Entry entry = entries.remove(path);
+		if (entry != null)
+			weight -= entry.weight;
+	}
+
+	private static String canonicalPath(File file) {
+		try {
+			return file.getCanonicalPath();
+
+		} catch (IOException e) {
+			return file.getAbsolutePath();
+		}
+	}
+
+	/**
+	 * An inner class holding a cached field and the file attributes it was
+	 * loaded from.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	private static class Entry {
+		private final long lastModified, length;
+
+		/** The loader of the field, or null if reloads parse the whole file. */
+		private final IncrementalFieldLoader fieldLoader;
+
+		private final FutureTask<Field> task;
+
+		/** The estimated weight of the field, known once loaded. */
+		private long weight = 0;
+
+		public Entry(long lastModified, long length,
+				IncrementalFieldLoader fieldLoader, FutureTask<Field> task) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.fieldLoader = fieldLoader;
+			this.task = task;
+		}
+	}
+}
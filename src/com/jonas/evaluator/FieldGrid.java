@@ -0,0 +1,153 @@
+package com.jonas.evaluator;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * This class holds a field read from a field file as plain arrays: the field's
+ * dimensions and the x-, y- and z-coordinates of its mines, stored as parallel
+ * arrays. Unlike a {@link Field}, it builds no {@link MineIndex} and cannot be
+ * simulated on its own; it is the input of a {@link LockstepEvaluator}.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class FieldGrid extends InputFileModel {
+	/** The field's x and y dimensions. */
+	private int xDimension, yDimension;
+
+	/** The coordinates of the field's mines. */
+	private int[] xs, ys, zs;
+
+	private int numMines;
+
+	/** Whether or not the field file holds numeric depths. */
+	private boolean numericDepths;
+
+	/** Receives the mines of the parsed rows, created by the first row. */
+	private FieldRowParser.MineSink mineSink;
+
+	public FieldGrid(String fieldFile) {
+		super(fieldFile);
+	}
+
+	public FieldGrid(Reader reader, String name) {
+		super(reader, name);
+	}
+
+	@Override
+	public void processLine(String line) {
+		if (yDimension == 0 && !numericDepths
+				&& NumericFieldFormat.isTextHeader(line)) {
+			numericDepths = true;
+			return;
+		}
+
+		if (mineSink == null)
+			mineSink = new FieldRowParser.MineSink() {
+
+				@Override
+				public void addMine(int x, int y, int z) {
+					FieldGrid.this.addMine(x, y, z);
+				}
+
+			};
+
+		int length = FieldRowParser.parseRow(line, yDimension, numericDepths,
+				mineSink);
+
+		if (length > xDimension)
+			xDimension = length;
+
+		yDimension++;
+	}
+
+	@Override
+	protected void processBinary(DataInputStream in) throws IOException {
+		numericDepths = true;
+
+		xDimension = in.readInt();
+		yDimension = in.readInt();
+		for (int y = 0; y < yDimension; y++) {
+			for (int x = 0; x < xDimension; x++) {
+				int depth = in.readUnsignedShort();
+				if (depth > 0)
+					addMine(x, y, depth);
+			}
+		}
+	}
+
+	private void addMine(int x, int y, int z) {
+		if (xs == null) {
+			xs = new int[64];
+			ys = new int[64];
+			zs = new int[64];
+
+		} else if (numMines == xs.length) {
+			xs = Arrays.copyOf(xs, numMines * 2);
+			ys = Arrays.copyOf(ys, numMines * 2);
+			zs = Arrays.copyOf(zs, numMines * 2);
+		}
+
+		xs[numMines] = x;
+		ys[numMines] = y;
+		zs[numMines] = z;
+		numMines++;
+	}
+
+	@Override
+	public void validate() {
+		if (xDimension == 0 || yDimension == 0)
+			Logger.printErrorAndExit(FieldGrid.class,
+					"Please provide a non-empty field file");
+	}
+
+	public int getXDimension() {
+		return xDimension;
+	}
+
+	public int getYDimension() {
+		return yDimension;
+	}
+
+	public int getNumMines() {
+		return numMines;
+	}
+
+	/**
+	 * Returns whether or not the field file holds numeric depths (see
+	 * {@link NumericFieldFormat}).
+	 * 
+	 * @return true if the depths are numeric, false if they are letters
+	 */
+	public boolean hasNumericDepths() {
+		return numericDepths;
+	}
+
+	public int getX(int mine) {
+		return xs[mine];
+	}
+
+	public int getY(int mine) {
+		return ys[mine];
+	}
+
+	public int getZ(int mine) {
+		return zs[mine];
+	}
+
+	/**
+	 * Returns a position indicating the center of the XY-plane of the field,
+	 * the same as {@link Field#getCenter()}.
+	 * 
+	 * @return the center position of the field's XY-plane.
+	 */
+	public Position getCenter() {
+		int centerX = (int) (Math.ceil((double) xDimension) / 2);
+		int centerY = (int) (Math.ceil((double) yDimension) / 2);
+
+		return new Position(centerX, centerY);
+	}
+}
@@ -0,0 +1,79 @@
+package com.jonas.evaluator;
+
+/**
+ * This class parses the rows of a field file in the text formats: rows of
+ * letters (see {@link Util#translateToRange(char)}), in which spaces are
+ * ignored, or rows of whitespace-separated numeric depths (see
+ * {@link NumericFieldFormat}). It is the one parser of field rows shared by
+ * {@link Field}, {@link FieldGrid} and {@link IncrementalFieldLoader}, which
+ * receive the parsed mines through a {@link MineSink}.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+final class FieldRowParser {
+	private FieldRowParser() {
+	}
+
+	/**
+	 * Parses a row of a field file.
+	 * 
+	 * @param line
+	 *            the row's line
+	 * @param y
+	 *            the row's y-coordinate
+	 * @param numericDepths
+	 *            whether or not the field file holds numeric depths
+	 * @param sink
+	 *            the receiver of the row's mines
+	 * @return the length of the row, the x dimension it spans
+	 */
+	static int parseRow(String line, int y, boolean numericDepths,
+			MineSink sink) {
+		if (numericDepths) {
+			// tokenize and parse the line's depths
+			String[] cells = NumericFieldFormat.tokenize(line);
+			for (int x = 0; x < cells.length; x++) {
+				int depth = NumericFieldFormat.parseDepth(cells[x]);
+				if (depth > 0)
+					sink.addMine(x, y, depth);
+			}
+
+			return cells.length;
+		}
+
+		// tokenize and parse the line
+		line = line.trim().replace(" ", "");
+		char c;
+		for (int x = 0; x < line.length(); x++) {
+			c = line.charAt(x);
+			if (c == Settings.EMPTY_POSITION_CHARACTER)
+				continue;
+
+			// add the mine at the appropriate depth
+			sink.addMine(x, y, Util.translateToRange(c));
+		}
+
+		return line.length();
+	}
+
+	/**
+	 * This interface receives the mines parsed from the rows of a field file.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	interface MineSink {
+		/**
+		 * Adds a parsed mine.
+		 * 
+		 * @param x
+		 *            the mine's x-coordinate
+		 * @param y
+		 *            the mine's y-coordinate
+		 * @param z
+		 *            the mine's depth
+		 */
+		void addMine(int x, int y, int z);
+	}
+}
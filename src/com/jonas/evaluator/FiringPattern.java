@@ -0,0 +1,211 @@
+package com.jonas.evaluator;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a firing pattern compiled from a stencil: rows of
+ * {@value #FIRE_CHARACTER} for a position that is fired at and
+ * {@value #EMPTY_CHARACTER} for one that is not. A stencil has an odd number
+ * of rows and columns and is centered at the vessel, so the 3 by 3 stencil
+ * "x.x", "...", "x.x" fires at the four diagonal neighbors of the vessel.
+ * 
+ * A compiled pattern holds its offsets in flat x and y arrays, so firing a
+ * pattern of any size is a loop over primitives. Stencils are at most
+ * {@value #MAX_SIZE} columns wide.
+ * 
+ * A pattern definition file (see {@link #load(String)}) holds any number of
+ * stencils, each following a "pattern &lt;name&gt;" line. Blank lines and
+ * lines starting with '#' are ignored. Patterns defined in the file named by
+ * the "evaluator.patterns" system property are loaded at startup (see
+ * {@link StepInstructions#loadPatterns()}) and are available to scripts in
+ * addition to the built-in patterns.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class FiringPattern {
+	/** The largest width of a stencil. */
+	public static final int MAX_SIZE = 64;
+
+	public static final char FIRE_CHARACTER = 'x', EMPTY_CHARACTER = '.';
+
+	/** The keyword preceding the name of a pattern in a definition file. */
+	private static final String PATTERN_KEYWORD = "pattern";
+
+	private final String name;
+
+	/** The x- and y-offsets fired at, ordered by x- and then y-offset. */
+	private final int[] dx, dy;
+
+	/**
+	 * Compiles a stencil.
+	 * 
+	 * @param name
+	 *            the pattern's name
+	 * @param rows
+	 *            the rows of the stencil
+	 */
+	public FiringPattern(String name, String... rows) {
+		this.name = name;
+
+		int width = rows.length == 0 ? 0 : rows[0].length();
+		for (String row : rows)
+			if (row.length() != width)
+				Logger.printErrorAndExit(FiringPattern.class, "Firing pattern "
+						+ name + " has rows of different lengths");
+
+		if (rows.length % 2 == 0 || width % 2 == 0)
+			Logger.printErrorAndExit(FiringPattern.class, "Firing pattern "
+					+ name + " must have an odd number of rows and columns");
+
+		if (width > MAX_SIZE)
+			Logger.printErrorAndExit(FiringPattern.class, "Firing pattern "
+					+ name + " is wider than " + MAX_SIZE + " columns");
+
+		// the offset of the stencil's first row and first column
+		int minDy = -(rows.length / 2), minDx = -(width / 2);
+
+		// the bitmask of the fired columns of each row
+		int size = 0;
+		long[] rowMasks = new long[rows.length];
+		for (int row = 0; row < rows.length; row++) {
+			for (int column = 0; column < width; column++) {
+				char c = rows[row].charAt(column);
+				if (c == FIRE_CHARACTER) {
+					rowMasks[row] |= 1L << column;
+					size++;
+
+				} else if (c != EMPTY_CHARACTER) {
+					Logger.printErrorAndExit(FiringPattern.class,
+							"Invalid character " + c + " in firing pattern "
+									+ name);
+				}
+			}
+		}
+
+		if (size == 0)
+			Logger.printErrorAndExit(FiringPattern.class, "Firing pattern "
+					+ name + " does not fire at any position");
+
+		// lay the offsets out column by column
+		dx = new int[size];
+		dy = new int[size];
+		int i = 0;
+		for (int column = 0; column < width; column++) {
+			for (int row = 0; row < rows.length; row++) {
+				if ((rowMasks[row] & 1L << column) != 0) {
+					dx[i] = minDx + column;
+					dy[i] = minDy + row;
+					i++;
+				}
+			}
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the number of positions fired at.
+	 * 
+	 * @return the pattern's size
+	 */
+	public int size() {
+		return dx.length;
+	}
+
+	/**
+	 * Returns the x-offset of a position fired at.
+	 * 
+	 * @param i
+	 *            the index of the position, less than {@link #size()}
+	 * @return the position's x-offset from the vessel
+	 */
+	public int getDx(int i) {
+		return dx[i];
+	}
+
+	/**
+	 * Returns the y-offset of a position fired at.
+	 * 
+	 * @param i
+	 *            the index of the position, less than {@link #size()}
+	 * @return the position's y-offset from the vessel
+	 */
+	public int getDy(int i) {
+		return dy[i];
+	}
+
+	/**
+	 * Loads the patterns of a pattern definition file.
+	 * 
+	 * @param patternFile
+	 *            the path of a pattern definition file, which may be
+	 *            compressed (see {@link Compression})
+	 * @return the file's patterns in the order of their definition
+	 */
+	public static List<FiringPattern> load(String patternFile) {
+		List<FiringPattern> patterns = new ArrayList<FiringPattern>();
+
+		try {
+			BufferedReader reader = InputFileModel.open(patternFile);
+			try {
+				String name = null;
+				List<String> rows = new ArrayList<String>();
+				for (String line; (line = reader.readLine()) != null;) {
+					line = line.trim();
+					if (line.isEmpty() || line.startsWith("#"))
+						continue;
+
+					String[] tokens = line.split("\\s+");
+					if (tokens[0].equals(PATTERN_KEYWORD)) {
+						if (name != null)
+							patterns.add(new FiringPattern(name, rows
+									.toArray(new String[rows.size()])));
+
+						if (tokens.length != 2)
+							Logger.printErrorAndExit(FiringPattern.class,
+									"Invalid pattern definition " + line);
+
+						name = tokens[1].toLowerCase();
+						rows.clear();
+
+					} else if (name == null) {
+						Logger.printErrorAndExit(FiringPattern.class,
+								"Missing pattern name before " + line);
+
+					} else {
+						rows.add(line);
+					}
+				}
+
+				if (name != null)
+					patterns.add(new FiringPattern(name, rows
+							.toArray(new String[rows.size()])));
+
+			} finally {
+				reader.close();
+			}
+
+		} catch (FileNotFoundException e) {
+			Logger.printErrorAndExit(FiringPattern.class, "File not found "
+					+ patternFile);
+
+		} catch (IOException e) {
+			Logger.printErrorAndExit(FiringPattern.class, "Could not read file "
+					+ patternFile + ": " + e.getMessage());
+		}
+
+		return patterns;
+	}
+
+	@Override
+	public String toString() {
+		return name + " (" + size() + " positions)";
+	}
+}
@@ -0,0 +1,176 @@
+package com.jonas.evaluator;
+
+/**
+ * This class records a distribution of non-negative values in a fixed number of
+ * log-linear buckets. Each power of two is split into 16 equally sized buckets,
+ * so that any recorded value is known within about 6% of its true value while
+ * the memory footprint stays constant regardless of the number of recorded
+ * values. Histograms recorded separately (e.g., by different threads) can be
+ * merged into one.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class Histogram {
+	/** The number of bits used to split each power of two into buckets. */
+	private static final int SUB_BUCKET_BITS = 4;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/** The number of buckets needed to cover every non-negative long. */
+	private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	/** Holds the number of recorded values in each bucket. */
+	private final long[] counts = new long[NUM_BUCKETS];
+
+	/** Summary statistics of the recorded values. */
+	private long count = 0, sum = 0, min = Long.MAX_VALUE, max = 0;
+
+	/**
+	 * Records a value. Negative values are recorded as zero.
+	 * 
+	 * @param value
+	 *            a value
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+
+		counts[bucket(value)]++;
+
+		count++;
+		sum += value;
+		if (value < min)
+			min = value;
+		if (value > max)
+			max = value;
+	}
+
+	/**
+	 * Adds all values recorded by another histogram to this histogram.
+	 * 
+	 * @param histogram
+	 *            another histogram
+	 */
+	public void merge(Histogram histogram) {
+		for (int i = 0; i < NUM_BUCKETS; i++)
+			counts[i] += histogram.counts[i];
+
+		count += histogram.count;
+		sum += histogram.sum;
+		min = Math.min(min, histogram.min);
+		max = Math.max(max, histogram.max);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	public long getMin() {
+		return count == 0 ? 0 : min;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * Returns an estimate of the value at a quantile of the recorded values.
+	 * 
+	 * @param quantile
+	 *            a quantile in the range [0, 1]
+	 * @return the estimated value at the quantile
+	 */
+	public long getValueAtQuantile(double quantile) {
+		if (count == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(Math.max(0, Math.min(1, quantile))
+				* count);
+		if (rank < 1)
+			rank = 1;
+
+		long seen = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.max(getMin(), Math.min(max, upperBound(i)));
+		}
+
+		return max;
+	}
+
+	/**
+	 * Returns the index of the bucket holding a value.
+	 * 
+	 * @param value
+	 *            a non-negative value
+	 * @return the value's bucket index
+	 */
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the largest value held by a bucket.
+	 * 
+	 * @param bucket
+	 *            a bucket index
+	 * @return the bucket's largest value
+	 */
+	private static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+
+		return lower + (1L << shift) - 1;
+	}
+
+	/**
+	 * Returns a JSON object summarizing the recorded values.
+	 * 
+	 * @return a JSON string
+	 */
+	public String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"count\":").append(count);
+		sb.append(",\"min\":").append(getMin());
+		sb.append(",\"mean\":").append(getMean());
+		sb.append(",\"p50\":").append(getValueAtQuantile(0.5));
+		sb.append(",\"p90\":").append(getValueAtQuantile(0.9));
+		sb.append(",\"p99\":").append(getValueAtQuantile(0.99));
+		sb.append(",\"max\":").append(max);
+		sb.append('}');
+
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("count=").append(count).append(", min=")
+				.append(getMin()).append(", mean=")
+				.append(String.format("%.1f", getMean())).append(", p50=")
+				.append(getValueAtQuantile(0.5)).append(", p90=")
+				.append(getValueAtQuantile(0.9)).append(", p99=")
+				.append(getValueAtQuantile(0.99)).append(", max=").append(max);
+		return builder.toString();
+	}
+}
@@ -0,0 +1,244 @@
+package com.jonas.evaluator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class loads a field file that is repeatedly edited in place, re-parsing
+ * only the rows that changed since the previous load. The loader keeps the
+ * field's mines in a {@link QuadTreeMineIndex}, which accepts insertions and
+ * removals after it is built and keeps its counts and extents up to date, and
+ * a 64-bit hash of the content of each row. A reload hashes every row of the
+ * file, and only the rows whose hash changed have their previous mines
+ * removed (found by a range query over the row) and their new mines parsed
+ * and inserted. Rows added or removed at the end of the file are handled the
+ * same way; a row inserted or deleted elsewhere changes every following row.
+ * 
+ * Reading and hashing the file still takes time proportional to its size, but
+ * that is a small fraction of a full parse and index build. Binary field files
+ * (see {@link NumericFieldFormat}) are always loaded in full.
+ * 
+ * The loader hands out its live field rather than a copy of it, so a reload
+ * costs no more than the changed rows, and the next load patches that field in
+ * place. Callers that destroy mines take a private copy with
+ * {@link #copyField()}, which is synchronized with the loads, so a loader may
+ * be shared between threads.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class IncrementalFieldLoader {
+	/** The FNV-1a 64-bit offset basis and prime. */
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L,
+			FNV_PRIME = 0x100000001b3L;
+
+	private final String fieldFile;
+
+	/** The index of the field's mines, or null before the first load. */
+	private QuadTreeMineIndex mineIndex;
+
+	/** The field of the previous load, or null before the first load. */
+	private Field field;
+
+	/** The hash and the length of each row of the previous load. */
+	private long[] rowHashes = new long[0];
+
+	private int[] rowLengths = new int[0];
+
+	private int numRows = 0;
+
+	/** Whether or not the previous load held numeric depths. */
+	private boolean numericDepths;
+
+	/** The number of rows re-parsed by the previous load. */
+	private int numChangedRows;
+
+	/** Inserts the mines of the re-parsed rows into the index. */
+	private final FieldRowParser.MineSink mineSink;
+
+	public IncrementalFieldLoader(String fieldFile) {
+		this.fieldFile = fieldFile;
+
+		mineSink = new FieldRowParser.MineSink() {
+
+			@Override
+			public void addMine(int x, int y, int z) {
+				mineIndex.insertMine(new Position(x, y, z));
+			}
+
+		};
+	}
+
+	public String getFieldFile() {
+		return fieldFile;
+	}
+
+	/**
+	 * Returns the number of rows re-parsed by the previous load, all rows
+	 * after a full load.
+	 * 
+	 * @return the number of changed rows
+	 */
+	public synchronized int getNumChangedRows() {
+		return numChangedRows;
+	}
+
+	/**
+	 * Loads the field file, re-parsing only the rows that changed since the
+	 * previous load.
+	 * 
+	 * @return the loader's field, which is patched in place by later loads
+	 *         and must not be destroyed (see {@link #copyField()})
+	 */
+	public synchronized Field load() {
+		long start = System.nanoTime();
+
+		try {
+			BufferedInputStream in = InputFileModel.openStream(fieldFile);
+			if (NumericFieldFormat.isBinary(in)) {
+				in.close();
+				return loadInFull();
+			}
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					in), Settings.INPUT_BUFFER_SIZE);
+			try {
+				update(reader);
+			} catch (RuntimeException e) {
+				// the index is partially patched, so start over next time
+				mineIndex = null;
+				throw e;
+			} finally {
+				reader.close();
+			}
+
+		} catch (FileNotFoundException e) {
+			Logger.printErrorAndExit(IncrementalFieldLoader.class,
+					"File not found " + fieldFile);
+
+		} catch (IOException e) {
+			Logger.printErrorAndExit(IncrementalFieldLoader.class,
+					"Could not read file " + fieldFile + ": " + e.getMessage());
+		}
+
+		int xDimension = 0;
+		for (int y = 0; y < numRows; y++)
+			xDimension = Math.max(xDimension, rowLengths[y]);
+
+		if (xDimension == 0 || numRows == 0)
+			Logger.printErrorAndExit(IncrementalFieldLoader.class,
+					"Please provide a non-empty field file");
+
+		Logger.printDebug(IncrementalFieldLoader.class,
+				"Re-parsed {} rows in {} us", numChangedRows,
+				(System.nanoTime() - start) / 1000);
+
+		field = new Field(xDimension, numRows, mineIndex);
+		return field;
+	}
+
+	/**
+	 * Returns a private copy of the field of the previous load, which may be
+	 * destroyed without affecting the loader.
+	 * 
+	 * @return a copy of the loaded field
+	 */
+	public synchronized Field copyField() {
+		if (field == null)
+			throw new IllegalStateException("No field loaded from "
+					+ fieldFile);
+
+		return new Field(field);
+	}
+
+	/**
+	 * Patches the index with the rows that changed since the previous load.
+	 */
+	private void update(BufferedReader reader) throws IOException {
+		String line = reader.readLine();
+		boolean numeric = line != null && NumericFieldFormat.isTextHeader(line);
+		if (mineIndex == null || numeric != numericDepths) {
+			// the format changed, so start from an empty field
+			mineIndex = new QuadTreeMineIndex();
+			mineIndex.build();
+			numRows = 0;
+			numericDepths = numeric;
+		}
+
+		if (numeric)
+			line = reader.readLine();
+
+		numChangedRows = 0;
+		int y = 0;
+		for (; line != null; line = reader.readLine(), y++) {
+			long hash = hash(line);
+			if (y < numRows && rowHashes[y] == hash)
+				continue;
+
+			if (y == rowHashes.length) {
+				rowHashes = Arrays.copyOf(rowHashes, Math.max(64, 2 * y));
+				rowLengths = Arrays.copyOf(rowLengths, rowHashes.length);
+			}
+
+			if (y < numRows)
+				clearRow(y);
+
+			rowHashes[y] = hash;
+			rowLengths[y] = FieldRowParser.parseRow(line, y, numericDepths,
+					mineSink);
+			numChangedRows++;
+		}
+
+		// remove the rows past the end of the file
+		for (int removed = y; removed < numRows; removed++) {
+			clearRow(removed);
+			numChangedRows++;
+		}
+
+		numRows = y;
+	}
+
+	/**
+	 * Removes the mines of a row from the index.
+	 */
+	private void clearRow(int y) {
+		List<Position> mines = mineIndex.getMinesInRange(0, y,
+				rowLengths[y] - 1, y);
+		for (Position mine : mines)
+			mineIndex.removeMineAtXY(mine);
+	}
+
+	/**
+	 * Loads a field file that cannot be loaded row by row in full and forgets
+	 * the rows of the previous load.
+	 */
+	private Field loadInFull() {
+		mineIndex = null;
+		field = null;
+		numRows = 0;
+		numChangedRows = 0;
+
+		field = new Field(fieldFile);
+		numChangedRows = field.getYDimension();
+
+		return field;
+	}
+
+	/**
+	 * Returns the FNV-1a hash of a row's characters.
+	 */
+	private static long hash(String line) {
+		long hash = FNV_OFFSET;
+		for (int i = 0; i < line.length(); i++) {
+			hash ^= line.charAt(i);
+			hash *= FNV_PRIME;
+		}
+
+		return hash;
+	}
+}
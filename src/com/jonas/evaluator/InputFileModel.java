@@ -1,29 +1,68 @@
 package com.jonas.evaluator;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 
 /**
  * This is an abstract class that represents a data model read line-by-line from
- * an input file.
+ * an input file. Compressed input files (see {@link Compression}) are decoded
+ * while they are read. Models may also accept input files in a binary format
+ * (see {@link NumericFieldFormat}), which are read as a whole by
+ * {@link #processBinary(DataInputStream)}.
  * 
  * @author Jonas Michel, jonas.r.michel@gmail.com
  * 
  */
 public abstract class InputFileModel {
+	/** The number of lines read between checks of the time budget. */
+	static final int BUDGET_CHECK_INTERVAL = 1024;
+
+	/** The time taken to read and validate the input file in nanoseconds. */
+	private long loadNanos = 0;
+
+	/** The budget bounding the model's loading, or null. */
+	private Budget budget;
+
+	/**
+	 * Creates a model that is not backed by an input file (e.g., a copy of an
+	 * existing model).
+	 */
+	protected InputFileModel() {
+	}
 
 	public InputFileModel(String filePath) {
-		Logger.printDebug(InputFileModel.class, "Processing file " + filePath);
+		this(filePath, null);
+	}
 
-		try {
-			// process each line of the input file
-			BufferedReader br = new BufferedReader(new FileReader(filePath));
-			for (String line; (line = br.readLine()) != null;)
-				processLine(line);
+	/**
+	 * Creates a model from an input file while enforcing a budget.
+	 * 
+	 * @param filePath
+	 *            the path of the input file
+	 * @param budget
+	 *            a budget or null
+	 */
+	public InputFileModel(String filePath, Budget budget) {
+		this.budget = budget;
 
-			br.close();
+		Logger.printDebug(InputFileModel.class, "Processing file {}",
+				filePath);
+
+		try {
+			BufferedInputStream in = openStream(filePath);
+			if (NumericFieldFormat.isBinary(in)) {
+				NumericFieldFormat.skipMagic(in);
+				readBinary(new DataInputStream(in), filePath);
+			} else {
+				read(new BufferedReader(new InputStreamReader(in),
+						Settings.INPUT_BUFFER_SIZE), filePath);
+			}
 
 		} catch (FileNotFoundException e) {
 			Logger.printErrorAndExit(InputFileModel.class, "File not found "
@@ -31,11 +70,153 @@ public abstract class InputFileModel {
 
 		} catch (IOException e) {
 			Logger.printErrorAndExit(InputFileModel.class,
-					"Could not close file " + filePath);
+					"Could not read file " + filePath + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Creates a model from input file content that is not stored in a file
+	 * (e.g., content received over a network connection).
+	 * 
+	 * @param reader
+	 *            a reader of the input file content
+	 * @param name
+	 *            a name identifying the content in error messages
+	 */
+	public InputFileModel(Reader reader, String name) {
+		this(reader, name, null);
+	}
+
+	public InputFileModel(Reader reader, String name, Budget budget) {
+		this.budget = budget;
+
+		Logger.printDebug(InputFileModel.class, "Processing {}", name);
+
+		read(new BufferedReader(reader), name);
+	}
+
+	/**
+	 * Opens an input file, decoding its content if it is compressed.
+	 * 
+	 * @param filePath
+	 *            the path of the input file
+	 * @return a reader of the decoded content
+	 * @throws IOException
+	 */
+	protected static BufferedReader open(String filePath) throws IOException {
+		return new BufferedReader(new InputStreamReader(openStream(filePath)),
+				Settings.INPUT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Opens an input file as a stream of bytes, decoding its content if it is
+	 * compressed.
+	 * 
+	 * @param filePath
+	 *            the path of the input file
+	 * @return a stream of the decoded content, which supports marks
+	 * @throws IOException
+	 */
+	protected static BufferedInputStream openStream(String filePath)
+			throws IOException {
+		BufferedInputStream in = new BufferedInputStream(new FileInputStream(
+				filePath), Settings.INPUT_BUFFER_SIZE);
+
+		try {
+			Compression compression = Compression.detect(in);
+			if (compression == Compression.NONE)
+				return in;
+
+			Logger.printDebug(InputFileModel.class, "Decoding {} input {}",
+					compression, filePath);
+
+			return new BufferedInputStream(compression.decode(in),
+					Settings.INPUT_BUFFER_SIZE);
+
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Processes each line of the input and validates the model.
+	 * 
+	 * @param br
+	 *            a reader of the input, which is closed once read
+	 * @param name
+	 *            the name of the input
+	 */
+	private void read(BufferedReader br, String name) {
+		long start = System.nanoTime();
+
+		// the reader is closed however processing ends, including invalid
+		// lines in server and worker mode, where errors are thrown
+		try (BufferedReader reader = br) {
+			// process each line of the input file
+			int lines = 0;
+			for (String line; (line = reader.readLine()) != null;) {
+				processLine(line);
+
+				if (budget != null && ++lines % BUDGET_CHECK_INTERVAL == 0
+						&& budget.isTimeExceeded())
+					throw new BudgetExceededException(
+							TerminationReason.TIME_BUDGET,
+							"Time budget exceeded while reading " + name);
+			}
+
+		} catch (IOException e) {
+			Logger.printErrorAndExit(InputFileModel.class,
+					"Could not read file " + name);
 		}
 
 		// validate the model
 		validate();
+
+		loadNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * Processes binary input and validates the model.
+	 * 
+	 * @param in
+	 *            a stream of the input after its magic bytes, which is closed
+	 *            once read
+	 * @param name
+	 *            the name of the input
+	 * @throws IOException
+	 */
+	private void readBinary(DataInputStream in, String name) throws IOException {
+		long start = System.nanoTime();
+
+		try {
+			processBinary(in);
+		} finally {
+			in.close();
+		}
+
+		// validate the model
+		validate();
+
+		loadNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * Returns the budget bounding the model's loading.
+	 * 
+	 * @return the budget or null if unbounded
+	 */
+	public Budget getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Returns the time taken to read, parse and validate the input file.
+	 * 
+	 * @return the load time in nanoseconds
+	 */
+	public long getLoadNanos() {
+		return loadNanos;
 	}
 
 	/**
@@ -45,6 +226,19 @@ public abstract class InputFileModel {
 	 */
 	public abstract void processLine(String line);
 
+	/**
+	 * Processes an input file in the binary format of
+	 * {@link NumericFieldFormat}. Models without a binary format reject such
+	 * files.
+	 * 
+	 * @param in
+	 *            a stream of the input after its magic bytes
+	 * @throws IOException
+	 */
+	protected void processBinary(DataInputStream in) throws IOException {
+		throw new IOException("Binary input is not supported");
+	}
+
 	/**
 	 * Validates the model after the input file is read.
 	 */
@@ -0,0 +1,43 @@
+package com.jonas.evaluator;
+
+import java.io.Closeable;
+
+/**
+ * This interface defines the methods of a source of the instructions that
+ * drive the mine clearing vessel, employed by an {@link Evaluator}. Steps are
+ * numbered from 1 and a source's steps are contiguous: the script is completed
+ * at the first step for which the source has no instructions. A source that
+ * holds resources, such as an open file, releases them when it is closed; an
+ * {@link Evaluator} closes its source once the evaluation ends.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public interface InstructionSource extends Closeable {
+	/**
+	 * Returns whether or not the source has instructions for a particular
+	 * step.
+	 * 
+	 * @param step
+	 *            the step number
+	 * @return true if the step has instructions, false if the script is
+	 *         completed before the step
+	 */
+	public boolean hasInstructions(int step);
+
+	/**
+	 * Returns the instructions for a particular step.
+	 * 
+	 * @param step
+	 *            the step number
+	 * @return the step's instruction
+	 */
+	public StepInstructions getInstructions(int step);
+
+	/**
+	 * Releases any resources held by the source. Sources held entirely in
+	 * memory remain usable, so they may be shared by several evaluations.
+	 */
+	@Override
+	public void close();
+}
@@ -0,0 +1,358 @@
+package com.jonas.evaluator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class evaluates a single script on many fields at once. Usage: $ java
+ * LockstepEvaluator <script-file> <field-file>...
+ * 
+ * Since the vessel starts at the center of every field and follows the same
+ * instructions, its trajectory relative to the center is the same on every
+ * field. The evaluator therefore decodes each step's instructions once and
+ * advances all fields in lockstep. The fields' mines are stored
+ * structure-of-arrays style, by the vessel-relative cell they occupy: each
+ * mined cell holds a bit mask with one bit per field. A volley clears a cell
+ * on every running field with a few long-word operations, and the fields that
+ * pass a mine are found by masking the running fields with a bit mask of the
+ * fields holding mines at each newly reached depth. The per-step work hence
+ * grows with the number of fields divided by the word width, plus the number
+ * of destroyed mines.
+ * 
+ * The result of each field (see {@link #getScore(int)}) equals the result of
+ * an {@link Evaluator} run on the field alone. Nothing is printed.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class LockstepEvaluator {
+	/** The script driving the vessel on every field. */
+	private InstructionSource script;
+
+	/** The evaluated fields. */
+	private List<FieldGrid> fields = new ArrayList<FieldGrid>();
+
+	/** The results of each field. */
+	private int[] scores;
+
+	private TerminationReason[] reasons;
+
+	public LockstepEvaluator(InstructionSource script) {
+		this.script = script;
+	}
+
+	/**
+	 * Adds a field to evaluate.
+	 * 
+	 * @param field
+	 *            a field
+	 * @return the field's index
+	 */
+	public int addField(FieldGrid field) {
+		fields.add(field);
+		return fields.size() - 1;
+	}
+
+	public int getNumFields() {
+		return fields.size();
+	}
+
+	/**
+	 * Returns the score of a field, the same as
+	 * {@link Evaluator#calculateScore()} would after evaluating the field
+	 * alone.
+	 * 
+	 * @param field
+	 *            the field's index
+	 * @return the field's score
+	 */
+	public int getScore(int field) {
+		return scores[field];
+	}
+
+	public TerminationReason getTerminationReason(int field) {
+		return reasons[field];
+	}
+
+	/**
+	 * Simulates the script on every field.
+	 */
+	public void evaluate() {
+		State state = new State();
+
+		int step = 1, vesselX = 0, vesselY = 0;
+		int vesselZ = Settings.STARTING_DEPTH, checkedDepth = -1;
+		while (true) {
+			// retire the completed fields in the order of Evaluator#completed
+			state.retire(state.cleared, TerminationReason.MINES_CLEARED, step);
+
+			if (!script.hasInstructions(step)) {
+				state.retire(null, TerminationReason.SCRIPT_COMPLETED, step);
+				break;
+			}
+
+			// mines above the depths checked before were passed or destroyed
+			for (int depth = checkedDepth + 1; depth <= Math.min(vesselZ,
+					state.maxDepth); depth++)
+				state.retire(state.depthMasks[depth],
+						TerminationReason.MINE_PASSED, step);
+			checkedDepth = Math.max(checkedDepth, vesselZ);
+
+			if (state.isDone())
+				break;
+
+			// perform the step on every running field
+			for (String instruction : script.getInstructions(step)
+					.getInstructions()) {
+				if (StepInstructions.isFiringPattern(instruction)) {
+					FiringPattern pattern = StepInstructions.FIRING_PATTERNS
+							.get(instruction);
+					for (int i = 0; i < pattern.size(); i++)
+						state.clear(vesselX + pattern.getDx(i),
+								vesselY + pattern.getDy(i));
+
+					state.volleysFired++;
+
+				} else {
+					Position move = StepInstructions.MOVE_MAP.get(instruction);
+					vesselX += move.getX() * Settings.MOVE_RATE;
+					vesselY += move.getY() * Settings.MOVE_RATE;
+
+					state.kmsMoved += Settings.MOVE_RATE;
+				}
+			}
+
+			// dive!
+			vesselZ += Settings.DIVE_RATE;
+			step++;
+		}
+	}
+
+	public static void main(String[] args) {
+		StepInstructions.loadPatterns();
+
+		if (args.length < 2) {
+			System.err.println("Invalid command line arguments");
+			System.err
+					.println("Usage: java LockstepEvaluator <script-file> <field-file>...");
+
+			System.exit(1);
+		}
+
+		LockstepEvaluator evaluator = new LockstepEvaluator(new Script(args[0]));
+		for (int i = 1; i < args.length; i++)
+			evaluator.addField(new FieldGrid(args[i]));
+
+		evaluator.evaluate();
+
+		for (int i = 1; i < args.length; i++)
+			System.out.println(args[i] + "\t" + evaluator.getScore(i - 1) + "\t"
+					+ evaluator.getTerminationReason(i - 1));
+	}
+
+	/**
+	 * Returns the key of a vessel-relative cell.
+	 */
+	private static long key(int x, int y) {
+		return ((long) x << 32) | (y & 0xffffffffL);
+	}
+
+	/**
+	 * An inner class holding the state of all fields during an evaluation.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	private class State {
+		/** The number of long words of a bit mask over the fields. */
+		private final int numWords;
+
+		/** The mined cells by vessel-relative cell key. */
+		private final Map<Long, Cell> cells = new HashMap<Long, Cell>();
+
+		/** The fields still being simulated. */
+		private final long[] running;
+
+		/** The fields whose mines are all destroyed. */
+		private final long[] cleared;
+
+		/** The fields holding mines at each depth. */
+		private final long[][] depthMasks;
+
+		/** The number of mines of each field at each depth. */
+		private final int[] depthCounts;
+
+		/** The initial and remaining number of mines of each field. */
+		private final int[] initialMines, remainingMines;
+
+		private final int maxDepth;
+
+		private int volleysFired, kmsMoved;
+
+		public State() {
+			int numFields = fields.size();
+			numWords = (numFields + 63) >>> 6;
+
+			running = new long[numWords];
+			for (int field = 0; field < numFields; field++)
+				running[field >>> 6] |= 1L << field;
+
+			int depth = 0;
+			for (FieldGrid field : fields)
+				for (int mine = 0; mine < field.getNumMines(); mine++)
+					depth = Math.max(depth, field.getZ(mine));
+			maxDepth = depth;
+
+			cleared = new long[numWords];
+			depthMasks = new long[maxDepth + 1][numWords];
+			depthCounts = new int[numFields * (maxDepth + 1)];
+			initialMines = new int[numFields];
+			remainingMines = new int[numFields];
+
+			// lay the fields' mines out by vessel-relative cell
+			for (int k = 0; k < numFields; k++) {
+				FieldGrid field = fields.get(k);
+				Position center = field.getCenter();
+				for (int mine = 0; mine < field.getNumMines(); mine++) {
+					long key = key(field.getX(mine) - center.getX(),
+							field.getY(mine) - center.getY());
+					Cell cell = cells.get(key);
+					if (cell == null)
+						cells.put(key, cell = new Cell(numWords));
+
+					int z = field.getZ(mine);
+					cell.add(k, z);
+					depthMasks[z][k >>> 6] |= 1L << k;
+					depthCounts[k * (maxDepth + 1) + z]++;
+				}
+
+				initialMines[k] = remainingMines[k] = field.getNumMines();
+				if (initialMines[k] == 0)
+					cleared[k >>> 6] |= 1L << k;
+			}
+
+			scores = new int[numFields];
+			reasons = new TerminationReason[numFields];
+		}
+
+		public boolean isDone() {
+			for (long word : running)
+				if (word != 0)
+					return false;
+
+			return true;
+		}
+
+		/**
+		 * Destroys the mines of the running fields at a vessel-relative cell.
+		 */
+		public void clear(int x, int y) {
+			Cell cell = cells.get(key(x, y));
+			if (cell == null)
+				return;
+
+			for (int w = 0; w < numWords; w++) {
+				long hit = cell.mask[w] & running[w];
+				if (hit == 0)
+					continue;
+
+				cell.mask[w] &= ~hit;
+				for (; hit != 0; hit &= hit - 1) {
+					int k = (w << 6) + Long.numberOfTrailingZeros(hit);
+					int z = cell.getDepth(k);
+
+					if (--remainingMines[k] == 0)
+						cleared[w] |= 1L << k;
+					if (--depthCounts[k * (maxDepth + 1) + z] == 0)
+						depthMasks[z][w] &= ~(1L << k);
+				}
+			}
+		}
+
+		/**
+		 * Ends the simulation of the running fields in a mask and scores them.
+		 * 
+		 * @param mask
+		 *            a mask over the fields or null for all fields
+		 * @param reason
+		 *            the reason for which the fields' simulations ended
+		 * @param step
+		 *            the step at which the simulations ended
+		 */
+		public void retire(long[] mask, TerminationReason reason, int step) {
+			for (int w = 0; w < numWords; w++) {
+				long retired = mask == null ? running[w] : running[w]
+						& mask[w];
+				running[w] &= ~retired;
+
+				for (; retired != 0; retired &= retired - 1) {
+					int k = (w << 6) + Long.numberOfTrailingZeros(retired);
+					reasons[k] = reason;
+					scores[k] = score(k, step);
+				}
+			}
+		}
+
+		/**
+		 * Scores a field as {@link Evaluator#calculateScore()} does.
+		 */
+		private int score(int k, int step) {
+			if (remainingMines[k] > 0) {
+				// mine(s) passed or mine(s) remaining
+				return 0;
+
+			} else if (script.hasInstructions(step)) {
+				// mines cleared, but script instructions remaining
+				return 1;
+
+			} else {
+				// mines cleared, no script instructions remaining
+				return 10 * initialMines[k]
+						- Math.min(5 * volleysFired, 5 * initialMines[k])
+						- Math.min(2 * kmsMoved, 3 * initialMines[k]);
+			}
+		}
+	}
+
+	/**
+	 * An inner class holding the mines of all fields at a single
+	 * vessel-relative cell.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	private static class Cell {
+		/** The fields with an active mine at the cell. */
+		private final long[] mask;
+
+		/** The fields with a mine at the cell, in ascending order. */
+		private int[] fields = new int[2];
+
+		/** The depth of each field's mine. */
+		private int[] depths = new int[2];
+
+		private int size;
+
+		public Cell(int numWords) {
+			mask = new long[numWords];
+		}
+
+		public void add(int field, int depth) {
+			if (size == fields.length) {
+				fields = Arrays.copyOf(fields, size * 2);
+				depths = Arrays.copyOf(depths, size * 2);
+			}
+
+			fields[size] = field;
+			depths[size++] = depth;
+			mask[field >>> 6] |= 1L << field;
+		}
+
+		public int getDepth(int field) {
+			return depths[Arrays.binarySearch(fields, 0, size, field)];
+		}
+	}
+}
@@ -4,10 +4,75 @@ package com.jonas.evaluator;
  * This is a utility class containing helpful CLI output methods for debug and
  * error handling purposes.
  * 
+ * Log messages below the current {@link Level} are discarded. The level is
+ * DEBUG in {@link Settings#DEBUG_MODE} and may otherwise be set at runtime with
+ * {@link #setLevel(Level)} or by running the JVM with
+ * -Devaluator.log.level=error|warn|info|debug (an unknown level falls back to
+ * INFO with a warning). Messages may be parameterized with "{}" placeholders,
+ * which are only formatted (and their arguments only converted to strings) if
+ * the message's level is enabled.
+ * 
  * @author Jonas Michel, jonas.r.michel@gmail.com
  * 
  */
 public class Logger {
+	/** The levels of log messages in order of increasing verbosity. */
+	public enum Level {
+		ERROR, WARN, INFO, DEBUG
+	}
+
+	/** The placeholder of a message parameter. */
+	private static final String PLACEHOLDER = "{}";
+
+	/** Whether or not errors exit the JVM (see {@link #printErrorAndExit}). */
+	private static volatile boolean exitOnError = true;
+
+	/** The current log level. */
+	private static volatile Level level;
+	static {
+		String property = System.getProperty("evaluator.log.level");
+		level = Settings.DEBUG_MODE ? Level.DEBUG : Level.INFO;
+		if (!Settings.DEBUG_MODE && property != null
+				&& !property.trim().isEmpty()) {
+			try {
+				level = Level.valueOf(property.trim().toUpperCase());
+
+			} catch (IllegalArgumentException e) {
+				// an unknown level must not break every class that logs
+				printWarning(Logger.class,
+						"Unknown log level {}, expected error, warn, info "
+								+ "or debug; using {}", property, level);
+			}
+		}
+	}
+
+	public static Level getLevel() {
+		return level;
+	}
+
+	public static void setLevel(Level level) {
+		Logger.level = level;
+	}
+
+	/**
+	 * Sets whether or not errors exit the JVM. Long-running processes that
+	 * perform many evaluations disable exiting, in which case errors are
+	 * thrown as {@link EvaluationException}s instead.
+	 * 
+	 * @param exitOnError
+	 *            true to exit on errors, false to throw
+	 */
+	public static void setExitOnError(boolean exitOnError) {
+		Logger.exitOnError = exitOnError;
+	}
+
+	public static boolean isEnabled(Level level) {
+		return level.compareTo(Logger.level) <= 0;
+	}
+
+	public static boolean isDebugEnabled() {
+		return isEnabled(Level.DEBUG);
+	}
 
 	public static void printHelp() {
 		System.out
@@ -15,6 +80,10 @@ public class Logger {
 	}
 
 	public static void printErrorAndExit(Class<?> clazz, String err) {
+		if (!exitOnError)
+			throw new EvaluationException("Error (" + clazz.getName() + "): "
+					+ err);
+
 		System.err.println("Error (" + clazz.getName() + "): " + err);
 		System.err.println();
 		System.out.println("fail (0)");
@@ -22,10 +91,66 @@ public class Logger {
 		System.exit(1);
 	}
 
+	public static void printWarning(Class<?> clazz, String format,
+			Object... args) {
+		if (!isEnabled(Level.WARN))
+			return;
+
+		System.err.println("Warning (" + clazz.getName() + "): "
+				+ format(format, args));
+	}
+
+	public static void printInfo(Class<?> clazz, String format, Object... args) {
+		if (!isEnabled(Level.INFO))
+			return;
+
+		System.err.println(clazz.getName() + ": " + format(format, args));
+	}
+
 	public static void printDebug(Class<?> clazz, String str) {
-		if (!Settings.DEBUG_MODE)
+		if (!isDebugEnabled())
 			return;
 
 		System.out.println(clazz.getName() + ": " + str);
 	}
+
+	public static void printDebug(Class<?> clazz, String format, Object arg) {
+		if (!isDebugEnabled())
+			return;
+
+		System.out.println(clazz.getName() + ": " + format(format, arg));
+	}
+
+	public static void printDebug(Class<?> clazz, String format, Object arg1,
+			Object arg2) {
+		if (!isDebugEnabled())
+			return;
+
+		System.out.println(clazz.getName() + ": "
+				+ format(format, arg1, arg2));
+	}
+
+	/**
+	 * Replaces the placeholders of a message with its parameters, in order.
+	 * 
+	 * @param format
+	 *            a message containing "{}" placeholders
+	 * @param args
+	 *            the message parameters
+	 * @return the formatted message
+	 */
+	private static String format(String format, Object... args) {
+		StringBuilder sb = new StringBuilder();
+		int from = 0, at;
+		for (Object arg : args) {
+			if ((at = format.indexOf(PLACEHOLDER, from)) < 0)
+				break;
+
+			sb.append(format, from, at).append(String.valueOf(arg));
+			from = at + PLACEHOLDER.length();
+		}
+		sb.append(format, from, format.length());
+
+		return sb.toString();
+	}
 }
@@ -0,0 +1,244 @@
+package com.jonas.evaluator;
+
+import java.io.PrintStream;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * This class collects per-phase timings and counters of a single evaluation.
+ * Metrics are disabled by default, in which case an {@link Evaluator} never
+ * creates a Metrics instance and pays nothing but a null check per step. They
+ * are enabled by running the JVM with -Devaluator.metrics=summary|json|jfr.
+ * 
+ * A summary or JSON report is printed to standard error at the end of the
+ * evaluation (the jfr mode prints nothing). In every enabled mode the metrics
+ * are also emitted as custom JFR events, which are recorded by a running
+ * flight recording (e.g., -XX:StartFlightRecording).
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class Metrics {
+	/** The modes in which metrics are reported. */
+	public enum Mode {
+		SUMMARY, JSON, JFR
+	}
+
+	/** The enabled mode or null if metrics are disabled. */
+	public static final Mode MODE = parseMode(System
+			.getProperty("evaluator.metrics"));
+
+	/** Phase timings in nanoseconds. */
+	private long fieldParseNanos = 0, indexBuildNanos = 0,
+			scriptParseNanos = 0, renderNanos = 0, evaluateNanos = 0;
+
+	/** The latency of each simulation step in nanoseconds. */
+	private Histogram stepLatency = new Histogram();
+
+	/** The number of mines destroyed by each volley. */
+	private Histogram minesPerVolley = new Histogram();
+
+	/** Counts the bytes printed by the evaluation. */
+	private CountingOutputStream output;
+
+	/** Counts the calls made to the field's mine index. */
+	private CountingMineIndex indexCalls;
+
+	/**
+	 * Parses the metrics mode of the evaluator.metrics property, disabling
+	 * metrics with a warning rather than failing the class initialization if
+	 * the mode is unknown.
+	 * 
+	 * @param mode
+	 *            the property's value or null
+	 * @return the mode or null if metrics are disabled
+	 */
+	private static Mode parseMode(String mode) {
+		if (mode == null || mode.trim().isEmpty())
+			return null;
+
+		try {
+			return Mode.valueOf(mode.trim().toUpperCase());
+
+		} catch (IllegalArgumentException e) {
+			Logger.printWarning(Metrics.class,
+					"Unknown metrics mode {}, expected summary, json or jfr; "
+							+ "metrics are disabled", mode);
+			return null;
+		}
+	}
+
+	public static boolean isEnabled() {
+		return MODE != null;
+	}
+
+	/**
+	 * Records the load times of an evaluation's field and script.
+	 * 
+	 * @param field
+	 *            the evaluated field
+	 * @param script
+	 *            the evaluated script
+	 */
+	public void recordLoad(Field field, InstructionSource script) {
+		indexBuildNanos = field.getIndexBuildNanos();
+		fieldParseNanos = field.getLoadNanos() - indexBuildNanos;
+		scriptParseNanos = script instanceof InputFileModel ? ((InputFileModel) script)
+				.getLoadNanos() : 0;
+
+		emitPhase("field-parse", fieldParseNanos);
+		emitPhase("index-build", indexBuildNanos);
+		emitPhase("script-parse", scriptParseNanos);
+	}
+
+	public void setOutput(CountingOutputStream output) {
+		this.output = output;
+	}
+
+	public void setIndexCalls(CountingMineIndex indexCalls) {
+		this.indexCalls = indexCalls;
+	}
+
+	public void recordStep(long nanos) {
+		stepLatency.record(nanos);
+	}
+
+	public void recordRender(long nanos) {
+		renderNanos += nanos;
+	}
+
+	public void recordVolley(int minesDestroyed) {
+		minesPerVolley.record(minesDestroyed);
+	}
+
+	/**
+	 * Records the total evaluation time and reports the metrics.
+	 * 
+	 * @param nanos
+	 *            the evaluation time in nanoseconds
+	 */
+	public void finish(long nanos) {
+		evaluateNanos = nanos;
+
+		emitPhase("render", renderNanos);
+		emitPhase("evaluate", evaluateNanos);
+
+		if (MODE == Mode.SUMMARY)
+			report(System.err, false);
+		else if (MODE == Mode.JSON)
+			report(System.err, true);
+	}
+
+	/**
+	 * Prints the metrics.
+	 * 
+	 * @param out
+	 *            the stream to print to
+	 * @param json
+	 *            true to print a JSON object, false to print a summary
+	 */
+	public void report(PrintStream out, boolean json) {
+		out.println(json ? toJson() : toString());
+	}
+
+	private static void emitPhase(String phase, long nanos) {
+		PhaseEvent event = new PhaseEvent();
+		if (!event.shouldCommit())
+			return;
+
+		event.phase = phase;
+		event.nanos = nanos;
+		event.commit();
+	}
+
+	/**
+	 * Returns a JSON object holding all metrics.
+	 * 
+	 * @return a JSON string
+	 */
+	public String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"fieldParseNanos\":").append(fieldParseNanos);
+		sb.append(",\"indexBuildNanos\":").append(indexBuildNanos);
+		sb.append(",\"scriptParseNanos\":").append(scriptParseNanos);
+		sb.append(",\"renderNanos\":").append(renderNanos);
+		sb.append(",\"evaluateNanos\":").append(evaluateNanos);
+		sb.append(",\"stepNanos\":").append(stepLatency.toJson());
+		sb.append(",\"minesPerVolley\":").append(minesPerVolley.toJson());
+		sb.append(",\"bytesOutput\":").append(
+				output == null ? 0 : output.getCount());
+		sb.append(",\"mineIndexCalls\":").append(
+				indexCalls == null ? "{}" : indexCalls.toJson());
+		sb.append('}');
+
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		String ls = System.getProperty("line.separator");
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("Metrics").append(ls);
+		sb.append("  field parse:    ").append(fieldParseNanos / 1000)
+				.append(" us").append(ls);
+		sb.append("  index build:    ").append(indexBuildNanos / 1000)
+				.append(" us").append(ls);
+		sb.append("  script parse:   ").append(scriptParseNanos / 1000)
+				.append(" us").append(ls);
+		sb.append("  render:         ").append(renderNanos / 1000)
+				.append(" us").append(ls);
+		sb.append("  evaluate:       ").append(evaluateNanos / 1000)
+				.append(" us").append(ls);
+		sb.append("  step (ns):      ").append(stepLatency).append(ls);
+		sb.append("  mines/volley:   ").append(minesPerVolley).append(ls);
+		sb.append("  bytes output:   ")
+				.append(output == null ? 0 : output.getCount()).append(ls);
+		sb.append("  index calls:    ")
+				.append(indexCalls == null ? "{}" : indexCalls.toJson());
+
+		return sb.toString();
+	}
+
+	/**
+	 * A JFR event recording the duration of an evaluation phase.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	@Name("com.jonas.evaluator.Phase")
+	@Label("Evaluation Phase")
+	@Category("Mine Clearing Evaluator")
+	@Description("The duration of a phase of an evaluation")
+	static class PhaseEvent extends Event {
+		@Label("Phase")
+		String phase;
+
+		@Label("Duration")
+		@Timespan(Timespan.NANOSECONDS)
+		long nanos;
+	}
+
+	/**
+	 * A JFR event recording a single simulation step.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	@Name("com.jonas.evaluator.Step")
+	@Label("Simulation Step")
+	@Category("Mine Clearing Evaluator")
+	@Description("A single step of an evaluation")
+	static class StepEvent extends Event {
+		@Label("Step")
+		int step;
+
+		@Label("Mines Destroyed")
+		int minesDestroyed;
+	}
+}
@@ -37,8 +37,9 @@ public interface MineIndex {
 	 * 
 	 * @param position
 	 *            an XY-coordinate in the mine field
+	 * @return the position of the removed mine or null if none existed
 	 */
-	public void removeMineAtXY(Position position);
+	public Position removeMineAtXY(Position position);
 
 	/**
 	 * Returns the maximum distance along the x-axis at which a mine exists from
@@ -76,4 +77,12 @@ public interface MineIndex {
 	 * @return a list of mine positions or null if none exist
 	 */
 	public int getNumMinesAtOrAbove(int depth);
+
+	/**
+	 * Returns an independent copy of the built mine index. Mines removed from
+	 * the copy remain in this index and vice versa.
+	 * 
+	 * @return a copy of the mine index
+	 */
+	public MineIndex copy();
 }
@@ -0,0 +1,89 @@
+package com.jonas.evaluator;
+
+/**
+ * This enumeration lists the available {@link MineIndex} implementations. It
+ * allows the implementation employed by a {@link Field} to be selected (see
+ * {@link Settings#MINE_INDEX_TYPE}), also at runtime through a system
+ * property, and enables tools such as benchmarks to iterate over every
+ * implementation.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public enum MineIndexType {
+	/** See {@link CustomMineIndex}. */
+	CUSTOM {
+		@Override
+		public MineIndex newMineIndex() {
+			return new CustomMineIndex();
+		}
+	},
+
+	/** See {@link TiledMineIndex}. */
+	TILED {
+		@Override
+		public MineIndex newMineIndex() {
+			return new TiledMineIndex();
+		}
+	},
+
+	/** See {@link QuadTreeMineIndex}. */
+	QUADTREE {
+		@Override
+		public MineIndex newMineIndex() {
+			return new QuadTreeMineIndex();
+		}
+	},
+
+	/** See {@link PagedMineIndex}. */
+	PAGED {
+		@Override
+		public MineIndex newMineIndex() {
+			return new PagedMineIndex();
+		}
+	},
+
+	/** See {@link PackedMineIndex}. */
+	PACKED {
+		@Override
+		public MineIndex newMineIndex() {
+			return new PackedMineIndex();
+		}
+	};
+
+	/**
+	 * Creates a new, empty mine index of this type.
+	 * 
+	 * @return a new mine index
+	 */
+	public abstract MineIndex newMineIndex();
+
+	/**
+	 * Returns the type named by a system property (e.g., "quadtree"), or a
+	 * default type if the property is not set. An unknown name is reported as
+	 * a warning and also yields the default type.
+	 * 
+	 * @param property
+	 *            the name of a system property
+	 * @param defaultType
+	 *            the type used if the property names no type
+	 * @return the selected type
+	 */
+	public static MineIndexType fromProperty(String property,
+			MineIndexType defaultType) {
+		String name = System.getProperty(property);
+		if (name == null || name.isEmpty())
+			return defaultType;
+
+		try {
+			return valueOf(name.trim().toUpperCase());
+
+		} catch (IllegalArgumentException e) {
+			Logger.printWarning(MineIndexType.class,
+					"Unknown mine index type {} in {}, using {}", name,
+					property, defaultType.name().toLowerCase());
+
+			return defaultType;
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package com.jonas.evaluator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * This class reads and writes field files with numeric depths, which are not
+ * limited to the 52 depths of the letters a-Z. Usage: $ java NumericFieldFormat
+ * <field-file> <output-file> [text|binary]
+ * 
+ * The text format starts with the line {@value #TEXT_HEADER}, followed by a
+ * line per row of the field holding whitespace-separated cells: a depth or
+ * {@link Settings#EMPTY_POSITION_CHARACTER} for an empty position. The binary
+ * format starts with the bytes "MCFD" and the field's x and y dimensions,
+ * followed by each row of the field as unsigned 16-bit depths, 0 for an empty
+ * position. Both formats hold depths between 1 and {@value #MAX_DEPTH} and may
+ * be compressed (see {@link Compression}). Fields read in either format employ
+ * a {@link Settings#DEEP_MINE_INDEX_TYPE} mine index.
+ * 
+ * Running the class converts a field file in any format to one of the numeric
+ * formats (text by default).
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class NumericFieldFormat {
+	/** The first line of a field file in the text format. */
+	public static final String TEXT_HEADER = "#depths";
+
+	/** The largest depth of the numeric formats. */
+	public static final int MAX_DEPTH = 0xffff;
+
+	/** The first bytes of a field file in the binary format. */
+	private static final byte[] BINARY_MAGIC = { 'M', 'C', 'F', 'D' };
+
+	/**
+	 * Returns whether or not a line is the header of the text format.
+	 * 
+	 * @param line
+	 *            the first line of a field file
+	 * @return true if the field file is in the text format, false otherwise
+	 */
+	public static boolean isTextHeader(String line) {
+		return line.trim().equals(TEXT_HEADER);
+	}
+
+	/**
+	 * Detects the binary format by peeking at the first bytes of input. The
+	 * stream is reset to the start of the input.
+	 * 
+	 * @param in
+	 *            a stream of input
+	 * @return true if the input is in the binary format, false otherwise
+	 * @throws IOException
+	 */
+	public static boolean isBinary(BufferedInputStream in) throws IOException {
+		byte[] header = new byte[BINARY_MAGIC.length];
+		in.mark(header.length);
+		int length = in.readNBytes(header, 0, header.length);
+		in.reset();
+
+		if (length < header.length)
+			return false;
+
+		for (int i = 0; i < header.length; i++)
+			if (header[i] != BINARY_MAGIC[i])
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * Skips the magic bytes of input in the binary format.
+	 * 
+	 * @param in
+	 *            a stream of input in the binary format
+	 * @throws IOException
+	 */
+	public static void skipMagic(BufferedInputStream in) throws IOException {
+		in.skipNBytes(BINARY_MAGIC.length);
+	}
+
+	/**
+	 * Splits a line of the text format into its cells.
+	 * 
+	 * @param line
+	 *            a row of the field
+	 * @return the row's cells
+	 */
+	public static String[] tokenize(String line) {
+		line = line.trim();
+		return line.isEmpty() ? new String[0] : line.split("\\s+");
+	}
+
+	/**
+	 * Parses a cell of the text format.
+	 * 
+	 * @param cell
+	 *            a depth or an empty position
+	 * @return the cell's depth or 0 if the position is empty
+	 */
+	public static int parseDepth(String cell) {
+		if (cell.length() == 1
+				&& cell.charAt(0) == Settings.EMPTY_POSITION_CHARACTER)
+			return 0;
+
+		int depth = -1;
+		try {
+			depth = Integer.parseInt(cell);
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+
+		if (depth < 0 || depth > MAX_DEPTH)
+			Logger.printErrorAndExit(NumericFieldFormat.class, "Invalid depth "
+					+ cell);
+
+		return depth;
+	}
+
+	/**
+	 * Writes a field in the text format.
+	 * 
+	 * @param field
+	 *            a field
+	 * @param out
+	 *            a stream to write to
+	 */
+	public static void writeText(FieldGrid field, PrintStream out) {
+		int[][] rows = toRows(field);
+
+		out.println(TEXT_HEADER);
+		StringBuilder sb = new StringBuilder();
+		for (int[] row : rows) {
+			sb.setLength(0);
+			for (int x = 0; x < row.length; x++) {
+				if (x > 0)
+					sb.append(' ');
+
+				if (row[x] == 0)
+					sb.append(Settings.EMPTY_POSITION_CHARACTER);
+				else
+					sb.append(row[x]);
+			}
+
+			out.println(sb);
+		}
+
+		out.flush();
+	}
+
+	/**
+	 * Writes a field in the binary format.
+	 * 
+	 * @param field
+	 *            a field
+	 * @param out
+	 *            a stream to write to, which is flushed
+	 * @throws IOException
+	 */
+	public static void writeBinary(FieldGrid field, OutputStream out)
+			throws IOException {
+		int[][] rows = toRows(field);
+
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+				out, Settings.INPUT_BUFFER_SIZE));
+		data.write(BINARY_MAGIC);
+		data.writeInt(field.getXDimension());
+		data.writeInt(field.getYDimension());
+		for (int[] row : rows)
+			for (int depth : row)
+				data.writeShort(depth);
+
+		data.flush();
+	}
+
+	/**
+	 * Lays the mines of a field out as rows of depths.
+	 */
+	private static int[][] toRows(FieldGrid field) {
+		int[][] rows = new int[field.getYDimension()][field.getXDimension()];
+		for (int mine = 0; mine < field.getNumMines(); mine++) {
+			if (field.getZ(mine) > MAX_DEPTH)
+				Logger.printErrorAndExit(NumericFieldFormat.class,
+						"Invalid depth " + field.getZ(mine));
+
+			rows[field.getY(mine)][field.getX(mine)] = field.getZ(mine);
+		}
+
+		return rows;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2 || args.length > 3
+				|| (args.length == 3 && !args[2].equals("text") && !args[2]
+						.equals("binary"))) {
+			System.err.println("Invalid command line arguments");
+			System.err
+					.println("Usage: java NumericFieldFormat <field-file> <output-file> [text|binary]");
+
+			System.exit(1);
+		}
+
+		FieldGrid field = new FieldGrid(args[0]);
+
+		OutputStream out = new FileOutputStream(args[1]);
+		try {
+			if (args.length == 3 && args[2].equals("binary"))
+				writeBinary(field, out);
+			else
+				writeText(field, new PrintStream(new BufferedOutputStream(out,
+						Settings.INPUT_BUFFER_SIZE)));
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package com.jonas.evaluator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This is an implementation of a {@link MineIndex} that overlays a small set
+ * of changes on a shared, built base index: mines of the base that are hidden
+ * (i.e., removed from the overlay) and mines that are added on top of it. The
+ * base index is only ever queried, so any number of overlays on any number of
+ * threads may share it as long as its queries do not modify it (e.g., a
+ * {@link PackedMineIndex}). An overlay takes memory proportional to its
+ * changes rather than to the base's mines, so it is a cheap way of evaluating
+ * many variations of one field (see {@link RobustnessEvaluator}).
+ * 
+ * Depth queries subtract the hidden mines at or above a depth from the base's
+ * and add the added ones, both counted in Fenwick trees over the depths. The
+ * maximum x- and y-distances include hidden mines of the base, so a rendered
+ * overlay may show empty margins.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class OverlayMineIndex implements MineIndex {
+	/** The shared base index. */
+	private final MineIndex base;
+
+	/** The hidden mines of the base by xy-position. */
+	private Map<Position, Position> hidden;
+
+	/** The added mines by xy-position. */
+	private Map<Position, Position> added;
+
+	/** Fenwick trees counting the hidden and added mines at each depth. */
+	private int[] hiddenDepths, addedDepths;
+
+	private int count;
+
+	/**
+	 * Creates an overlay without changes.
+	 * 
+	 * @param base
+	 *            a built mine index, which is never modified
+	 * @param maxDepth
+	 *            the largest depth of any mine of the base or the overlay
+	 */
+	public OverlayMineIndex(MineIndex base, int maxDepth) {
+		this.base = base;
+		hidden = new HashMap<Position, Position>();
+		added = new HashMap<Position, Position>();
+		hiddenDepths = new int[maxDepth + 1];
+		addedDepths = new int[maxDepth + 1];
+		count = base.count();
+	}
+
+	public MineIndex getBase() {
+		return base;
+	}
+
+	@Override
+	public void build() {
+		// changes apply immediately
+	}
+
+	/**
+	 * Adds a mine on top of the base. As in other indexes, a mine added at the
+	 * XY-coordinate of an existing mine replaces it.
+	 */
+	@Override
+	public void addMine(Position position) {
+		if (position.getZ() < 1 || position.getZ() >= addedDepths.length)
+			Logger.printErrorAndExit(OverlayMineIndex.class, "Invalid depth "
+					+ position.getZ());
+
+		removeMineAtXY(position);
+
+		Position mine = new Position(position.getX(), position.getY(),
+				position.getZ());
+		added.put(mine, mine);
+		update(addedDepths, mine.getZ(), 1);
+		count++;
+	}
+
+	@Override
+	public Position getMineAtXY(Position position) {
+		Position mine = added.get(position);
+		if (mine != null)
+			return mine;
+
+		mine = base.getMineAtXY(position);
+		return mine == null || hidden.containsKey(mine) ? null : mine;
+	}
+
+	@Override
+	public Position removeMineAtXY(Position position) {
+		Position mine = added.remove(position);
+		if (mine != null) {
+			update(addedDepths, mine.getZ(), -1);
+			count--;
+			return mine;
+		}
+
+		mine = base.getMineAtXY(position);
+		if (mine == null || hidden.containsKey(mine))
+			return null;
+
+		hidden.put(mine, mine);
+		update(hiddenDepths, mine.getZ(), 1);
+		count--;
+		return mine;
+	}
+
+	@Override
+	public int getMaxXDistance(Position position) {
+		if (count == 0)
+			return 0;
+
+		int maxX = hidden.size() == base.count() ? 0 : base
+				.getMaxXDistance(position);
+		for (Position mine : added.values())
+			maxX = Math.max(maxX, Math.abs(position.getX() - mine.getX()));
+
+		return maxX;
+	}
+
+	@Override
+	public int getMaxYDistance(Position position) {
+		if (count == 0)
+			return 0;
+
+		int maxY = hidden.size() == base.count() ? 0 : base
+				.getMaxYDistance(position);
+		for (Position mine : added.values())
+			maxY = Math.max(maxY, Math.abs(position.getY() - mine.getY()));
+
+		return maxY;
+	}
+
+	@Override
+	public int count() {
+		return count;
+	}
+
+	@Override
+	public int getNumMinesAtOrAbove(int depth) {
+		return base.getNumMinesAtOrAbove(depth) - sum(hiddenDepths, depth)
+				+ sum(addedDepths, depth);
+	}
+
+	@Override
+	public MineIndex copy() {
+		OverlayMineIndex copy = new OverlayMineIndex(base,
+				addedDepths.length - 1);
+		copy.hidden.putAll(hidden);
+		copy.added.putAll(added);
+		copy.hiddenDepths = hiddenDepths.clone();
+		copy.addedDepths = addedDepths.clone();
+		copy.count = count;
+
+		return copy;
+	}
+
+	/**
+	 * Adds to the number of mines at a depth.
+	 */
+	private static void update(int[] tree, int depth, int delta) {
+		for (int z = depth; z < tree.length; z += z & -z)
+			tree[z] += delta;
+	}
+
+	/**
+	 * Returns the number of mines at or above a depth.
+	 */
+	private static int sum(int[] tree, int depth) {
+		int numMines = 0;
+		for (int z = Math.min(depth, tree.length - 1); z > 0; z &= z - 1)
+			numMines += tree[z];
+
+		return numMines;
+	}
+}
@@ -0,0 +1,239 @@
+package com.jonas.evaluator;
+
+import java.util.Arrays;
+
+/**
+ * This is an implementation of a {@link MineIndex} for densely mined fields
+ * with deep depth ranges (see {@link NumericFieldFormat}). The index packs the
+ * depth of every position within the bounding box of the mines into a grid of
+ * unsigned 16-bit cells, 0 for an empty position, so a mine takes two bytes
+ * and no objects and depths of up to {@value NumericFieldFormat#MAX_DEPTH} are
+ * supported.
+ * 
+ * Point lookups and removals index the grid directly. The number of mines of
+ * each row and column keeps the bounding box of the remaining mines, which
+ * only shrinks, so its maintenance takes amortized constant time. A Fenwick
+ * tree over the depths answers depth queries and is updated by removals in
+ * O(log d) time for d distinct depths.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class PackedMineIndex implements MineIndex {
+	/** The x-, y- and z-coordinates of the added mines until built. */
+	private int[] addedMines;
+
+	private int numAddedMines;
+
+	/** The coordinates of the grid's first cell and its dimensions. */
+	private int x0, y0, width, height;
+
+	/** The depth of each cell of the grid in row-major order. */
+	private short[] cells;
+
+	private int count;
+
+	/** The number of mines in each row and each column of the grid. */
+	private int[] rowCounts, columnCounts;
+
+	/** The bounding box of the remaining mines in grid coordinates. */
+	private int minRow, maxRow, minColumn, maxColumn;
+
+	/** A Fenwick tree counting the mines at each depth. */
+	private int[] depthTree;
+
+	public PackedMineIndex() {
+		addedMines = new int[3 * 64];
+	}
+
+	@Override
+	public void build() {
+		Logger.printDebug(PackedMineIndex.class, "Building packed mine index");
+
+		int minX = 0, minY = 0, maxX = -1, maxY = -1, maxZ = 0;
+		if (numAddedMines > 0) {
+			minX = minY = Integer.MAX_VALUE;
+			maxX = maxY = Integer.MIN_VALUE;
+			for (int i = 0; i < 3 * numAddedMines; i += 3) {
+				minX = Math.min(minX, addedMines[i]);
+				maxX = Math.max(maxX, addedMines[i]);
+				minY = Math.min(minY, addedMines[i + 1]);
+				maxY = Math.max(maxY, addedMines[i + 1]);
+				maxZ = Math.max(maxZ, addedMines[i + 2]);
+			}
+		}
+
+		x0 = minX;
+		y0 = minY;
+		width = maxX - minX + 1;
+		height = maxY - minY + 1;
+		if ((long) width * height > Integer.MAX_VALUE)
+			Logger.printErrorAndExit(PackedMineIndex.class, "A field of "
+					+ width + " by " + height
+					+ " positions is too large for a packed mine index");
+
+		cells = new short[width * height];
+		rowCounts = new int[height];
+		columnCounts = new int[width];
+		depthTree = new int[maxZ + 1];
+
+		for (int i = 0; i < 3 * numAddedMines; i += 3) {
+			int x = addedMines[i] - x0, y = addedMines[i + 1] - y0;
+			int cell = y * width + x;
+
+			// a later mine at the same position replaces an earlier one
+			int replaced = cells[cell] & 0xffff;
+			if (replaced != 0) {
+				updateDepth(replaced, -1);
+			} else {
+				count++;
+				rowCounts[y]++;
+				columnCounts[x]++;
+			}
+
+			cells[cell] = (short) addedMines[i + 2];
+			updateDepth(addedMines[i + 2], 1);
+		}
+
+		minRow = minColumn = 0;
+		maxRow = height - 1;
+		maxColumn = width - 1;
+
+		// we no longer need the added mines
+		addedMines = null;
+		numAddedMines = 0;
+
+		Logger.printDebug(PackedMineIndex.class, "{} mines in {} cells",
+				count, cells.length);
+	}
+
+	@Override
+	public void addMine(Position position) {
+		if (position.getZ() < 1
+				|| position.getZ() > NumericFieldFormat.MAX_DEPTH)
+			Logger.printErrorAndExit(PackedMineIndex.class, "Invalid depth "
+					+ position.getZ());
+
+		if (3 * numAddedMines == addedMines.length)
+			addedMines = Arrays.copyOf(addedMines, 2 * addedMines.length);
+
+		addedMines[3 * numAddedMines] = position.getX();
+		addedMines[3 * numAddedMines + 1] = position.getY();
+		addedMines[3 * numAddedMines + 2] = position.getZ();
+		numAddedMines++;
+	}
+
+	@Override
+	public Position getMineAtXY(Position position) {
+		int cell = cell(position);
+		if (cell < 0)
+			return null;
+
+		int z = cells[cell] & 0xffff;
+		return z == 0 ? null : new Position(position.getX(), position.getY(), z);
+	}
+
+	@Override
+	public Position removeMineAtXY(Position position) {
+		int cell = cell(position);
+		if (cell < 0)
+			return null;
+
+		int z = cells[cell] & 0xffff;
+		if (z == 0)
+			return null;
+
+		cells[cell] = 0;
+		count--;
+		updateDepth(z, -1);
+
+		// shrink the bounding box past emptied rows and columns
+		rowCounts[cell / width]--;
+		columnCounts[cell % width]--;
+		if (count > 0) {
+			while (rowCounts[minRow] == 0)
+				minRow++;
+			while (rowCounts[maxRow] == 0)
+				maxRow--;
+			while (columnCounts[minColumn] == 0)
+				minColumn++;
+			while (columnCounts[maxColumn] == 0)
+				maxColumn--;
+		}
+
+		return new Position(position.getX(), position.getY(), z);
+	}
+
+	@Override
+	public int getMaxXDistance(Position position) {
+		if (count == 0)
+			return 0;
+
+		return Math.max(Math.abs(position.getX() - (x0 + maxColumn)),
+				Math.abs(position.getX() - (x0 + minColumn)));
+	}
+
+	@Override
+	public int getMaxYDistance(Position position) {
+		if (count == 0)
+			return 0;
+
+		return Math.max(Math.abs(position.getY() - (y0 + maxRow)),
+				Math.abs(position.getY() - (y0 + minRow)));
+	}
+
+	@Override
+	public int count() {
+		return count;
+	}
+
+	@Override
+	public int getNumMinesAtOrAbove(int depth) {
+		int numMines = 0;
+		for (int z = Math.min(depth, depthTree.length - 1); z > 0; z &= z - 1)
+			numMines += depthTree[z];
+
+		return numMines;
+	}
+
+	@Override
+	public MineIndex copy() {
+		PackedMineIndex copy = new PackedMineIndex();
+		copy.addedMines = null;
+		copy.x0 = x0;
+		copy.y0 = y0;
+		copy.width = width;
+		copy.height = height;
+		copy.cells = cells.clone();
+		copy.count = count;
+		copy.rowCounts = rowCounts.clone();
+		copy.columnCounts = columnCounts.clone();
+		copy.minRow = minRow;
+		copy.maxRow = maxRow;
+		copy.minColumn = minColumn;
+		copy.maxColumn = maxColumn;
+		copy.depthTree = depthTree.clone();
+
+		return copy;
+	}
+
+	/**
+	 * Returns the grid cell of an XY-coordinate or -1 if it lies outside of
+	 * the grid.
+	 */
+	private int cell(Position position) {
+		long x = (long) position.getX() - x0, y = (long) position.getY() - y0;
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			return -1;
+
+		return (int) y * width + (int) x;
+	}
+
+	/**
+	 * Adds to the number of mines at a depth.
+	 */
+	private void updateDepth(int depth, int delta) {
+		for (int z = depth; z < depthTree.length; z += z & -z)
+			depthTree[z] += delta;
+	}
+}
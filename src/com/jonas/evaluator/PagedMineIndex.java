@@ -0,0 +1,523 @@
+package com.jonas.evaluator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This is an implementation of a {@link MineIndex} for fields larger than the
+ * heap. Mines are not kept in memory: as they are added, they are spooled to a
+ * temporary tile file in which the mines of each square tile (see
+ * {@link Settings#TILE_SIZE}) are stored contiguously. Only one band of tile
+ * rows is buffered at a time, so mines must be added in row-major order, as a
+ * {@link Field} does while parsing.
+ * 
+ * In memory, the index keeps a summary table holding each tile's file offset,
+ * mine count, per-depth counts and bounding box, from which global queries are
+ * answered. Point queries page a tile's mines into a bounded LRU cache (see
+ * {@link Settings#PAGED_CACHE_TILES}) of dense tile grids. The tile file is
+ * never written after the index is built; destroyed mines are recorded in a
+ * small in-memory delta that is applied whenever a tile is paged in. The
+ * memory used is therefore bounded by the cache, the summary table and the
+ * number of destroyed mines, regardless of the number of mines.
+ * 
+ * Point queries may be made concurrently (e.g., while a {@link Field} renders
+ * its rows in parallel), so the page cache is only accessed under the index's
+ * lock. The tile file is unlinked as soon as it is opened, where the file
+ * system allows it, and closed once the index and all of its copies are
+ * unreachable.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class PagedMineIndex implements MineIndex {
+	/** The number of bytes of a mine record in the tile file. */
+	private static final int MINE_BYTES = 12;
+
+	/** The tile file, shared by copies of the index. */
+	private TileFile tileFile;
+
+	/** The mines of the tile row band being spooled, by tile key. */
+	private Map<Long, List<Position>> band;
+
+	/** The tile row of the band being spooled. */
+	private long bandRow;
+
+	/** The summary of each non-empty tile. */
+	private Map<Long, Summary> summaries;
+
+	/** The cached tile pages in access order. */
+	private LinkedHashMap<Long, short[]> pages;
+
+	/** The local cells of destroyed mines of each tile. */
+	private Map<Long, Set<Integer>> destroyed;
+
+	/** The current number of mines. */
+	private int numMines;
+
+	/** The cached bounding box of all mines. */
+	private int minX, maxX, minY, maxY;
+
+	/** Whether or not the cached bounding box must be recombined. */
+	private boolean boundsChanged;
+
+	public PagedMineIndex() {
+		band = new HashMap<Long, List<Position>>();
+		summaries = new HashMap<Long, Summary>();
+		destroyed = new HashMap<Long, Set<Integer>>();
+		newPageCache();
+
+		try {
+			tileFile = new TileFile();
+		} catch (IOException e) {
+			Logger.printErrorAndExit(PagedMineIndex.class,
+					"Could not create tile file: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Creates an empty index sharing the tile file of another index.
+	 */
+	private PagedMineIndex(TileFile tileFile) {
+		this.tileFile = tileFile;
+
+		summaries = new HashMap<Long, Summary>();
+		destroyed = new HashMap<Long, Set<Integer>>();
+		newPageCache();
+	}
+
+	@Override
+	public void build() {
+		Logger.printDebug(PagedMineIndex.class, "Building paged mine index");
+
+		flushBand();
+		boundsChanged = true;
+
+		Logger.printDebug(PagedMineIndex.class, "{} mines in {} tiles",
+				numMines, summaries.size());
+	}
+
+	@Override
+	public void addMine(Position position) {
+		long row = Math.floorDiv(position.getY(), Settings.TILE_SIZE);
+		if (!band.isEmpty() && row != bandRow) {
+			if (row < bandRow)
+				Logger.printErrorAndExit(PagedMineIndex.class,
+						"Mines must be added in row-major order");
+
+			flushBand();
+		}
+
+		bandRow = row;
+		long key = key(position.getX(), position.getY());
+		List<Position> mines = band.get(key);
+		if (mines == null)
+			band.put(key, mines = new ArrayList<Position>());
+
+		mines.add(position);
+	}
+
+	@Override
+	public Position getMineAtXY(Position position) {
+		long key = key(position.getX(), position.getY());
+		if (!summaries.containsKey(key))
+			return null;
+
+		int z = page(key)[cell(position.getX(), position.getY())] & 0xffff;
+		return z == 0 ? null : new Position(position.getX(), position.getY(), z);
+	}
+
+	@Override
+	public Position removeMineAtXY(Position position) {
+		long key = key(position.getX(), position.getY());
+		Summary summary = summaries.get(key);
+		if (summary == null)
+			return null;
+
+		short[] page = page(key);
+		int cell = cell(position.getX(), position.getY());
+		int z = page[cell] & 0xffff;
+		if (z == 0)
+			return null;
+
+		// record the destroyed mine in the delta and the cached page
+		page[cell] = 0;
+		Set<Integer> cells = destroyed.get(key);
+		if (cells == null)
+			destroyed.put(key, cells = new HashSet<Integer>());
+		cells.add(cell);
+
+		numMines--;
+		if (summary.remove(key, page, position.getX(), position.getY(), z))
+			boundsChanged = true;
+
+		return new Position(position.getX(), position.getY(), z);
+	}
+
+	@Override
+	public int getMaxXDistance(Position position) {
+		if (numMines == 0)
+			return 0;
+
+		combineBounds();
+		return Math.max(Math.abs(position.getX() - maxX),
+				Math.abs(position.getX() - minX));
+	}
+
+	@Override
+	public int getMaxYDistance(Position position) {
+		if (numMines == 0)
+			return 0;
+
+		combineBounds();
+		return Math.max(Math.abs(position.getY() - maxY),
+				Math.abs(position.getY() - minY));
+	}
+
+	@Override
+	public int count() {
+		return numMines;
+	}
+
+	@Override
+	public int getNumMinesAtOrAbove(int depth) {
+		int numMines = 0;
+		for (Summary summary : summaries.values())
+			numMines += summary.countAtOrAbove(depth);
+
+		return numMines;
+	}
+
+	@Override
+	public MineIndex copy() {
+		PagedMineIndex copy = new PagedMineIndex(tileFile);
+
+		for (Map.Entry<Long, Summary> entry : summaries.entrySet())
+			copy.summaries.put(entry.getKey(), new Summary(entry.getValue()));
+		for (Map.Entry<Long, Set<Integer>> entry : destroyed.entrySet())
+			copy.destroyed.put(entry.getKey(),
+					new HashSet<Integer>(entry.getValue()));
+
+		copy.numMines = numMines;
+		copy.boundsChanged = true;
+
+		return copy;
+	}
+
+	/**
+	 * Returns the number of tile pages currently cached.
+	 * 
+	 * @return the number of cached pages
+	 */
+	public synchronized int getNumCachedPages() {
+		return pages.size();
+	}
+
+	private void newPageCache() {
+		pages = new LinkedHashMap<Long, short[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, short[]> eldest) {
+				return size() > Settings.PAGED_CACHE_TILES;
+			}
+
+		};
+	}
+
+	/**
+	 * Writes the spooled band of tiles to the tile file and summarizes them.
+	 */
+	private void flushBand() {
+		try {
+			for (Map.Entry<Long, List<Position>> entry : band.entrySet()) {
+				List<Position> mines = entry.getValue();
+				ByteBuffer buffer = ByteBuffer.allocate(mines.size()
+						* MINE_BYTES);
+				for (Position mine : mines) {
+					if (mine.getZ() <= 0
+							|| mine.getZ() > NumericFieldFormat.MAX_DEPTH)
+						Logger.printErrorAndExit(PagedMineIndex.class,
+								"Unsupported mine depth " + mine.getZ());
+
+					buffer.putInt(mine.getX()).putInt(mine.getY())
+							.putInt(mine.getZ());
+				}
+				buffer.flip();
+
+				Summary summary = new Summary(tileFile.append(buffer),
+						mines.size());
+				summary.summarize(mines);
+				summaries.put(entry.getKey(), summary);
+				numMines += mines.size();
+			}
+
+		} catch (IOException e) {
+			Logger.printErrorAndExit(PagedMineIndex.class,
+					"Could not write tile file: " + e.getMessage());
+		}
+
+		band.clear();
+	}
+
+	/**
+	 * Returns the page of a tile, reading it from the tile file and applying
+	 * the tile's destroyed mines if it is not cached.
+	 * 
+	 * @param key
+	 *            the key of a non-empty tile
+	 * @return the tile's page, holding the depth of each cell's mine or 0
+	 */
+	private synchronized short[] page(long key) {
+		short[] page = pages.get(key);
+		if (page != null)
+			return page;
+
+		Summary summary = summaries.get(key);
+		page = new short[Settings.TILE_SIZE * Settings.TILE_SIZE];
+		try {
+			ByteBuffer buffer = tileFile.read(summary.offset,
+					summary.numRecords * MINE_BYTES);
+			for (int i = 0; i < summary.numRecords; i++) {
+				int x = buffer.getInt(), y = buffer.getInt(), z = buffer
+						.getInt();
+				page[cell(x, y)] = (short) z;
+			}
+
+		} catch (IOException e) {
+			Logger.printErrorAndExit(PagedMineIndex.class,
+					"Could not read tile file: " + e.getMessage());
+		}
+
+		Set<Integer> cells = destroyed.get(key);
+		if (cells != null)
+			for (int cell : cells)
+				page[cell] = 0;
+
+		pages.put(key, page);
+		return page;
+	}
+
+	/**
+	 * Recombines the cached bounding box of all mines from the summary table
+	 * if any tile's bounding box changed.
+	 */
+	private void combineBounds() {
+		if (!boundsChanged)
+			return;
+
+		minX = minY = Integer.MAX_VALUE;
+		maxX = maxY = Integer.MIN_VALUE;
+		for (Summary summary : summaries.values()) {
+			if (summary.count == 0)
+				continue;
+
+			minX = Math.min(minX, summary.minX);
+			maxX = Math.max(maxX, summary.maxX);
+			minY = Math.min(minY, summary.minY);
+			maxY = Math.max(maxY, summary.maxY);
+		}
+
+		boundsChanged = false;
+	}
+
+	private static long key(int x, int y) {
+		long tx = Math.floorDiv(x, Settings.TILE_SIZE);
+		long ty = Math.floorDiv(y, Settings.TILE_SIZE);
+
+		return (tx << 32) | (ty & 0xffffffffL);
+	}
+
+	/**
+	 * Returns the index of an XY-coordinate's cell within its tile's page.
+	 */
+	private static int cell(int x, int y) {
+		return Math.floorMod(y, Settings.TILE_SIZE) * Settings.TILE_SIZE
+				+ Math.floorMod(x, Settings.TILE_SIZE);
+	}
+
+	/**
+	 * An inner class holding a tile's entry of the summary table.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	private static class Summary {
+		/** The location of the tile's mine records in the tile file. */
+		private final long offset;
+
+		private final int numRecords;
+
+		private int count, minZ, maxZ, minX, maxX, minY, maxY;
+
+		/** The number of mines at each depth from minZ to maxZ. */
+		private int[] depthCounts;
+
+		public Summary(long offset, int numRecords) {
+			this.offset = offset;
+			this.numRecords = numRecords;
+		}
+
+		public Summary(Summary summary) {
+			offset = summary.offset;
+			numRecords = summary.numRecords;
+			count = summary.count;
+			minZ = summary.minZ;
+			maxZ = summary.maxZ;
+			minX = summary.minX;
+			maxX = summary.maxX;
+			minY = summary.minY;
+			maxY = summary.maxY;
+			depthCounts = summary.depthCounts.clone();
+		}
+
+		public int countAtOrAbove(int depth) {
+			if (count == 0 || depth < minZ)
+				return 0;
+			if (depth >= maxZ)
+				return count;
+
+			int numMines = 0;
+			for (int z = minZ; z <= depth; z++)
+				numMines += depthCounts[z - minZ];
+
+			return numMines;
+		}
+
+		/**
+		 * Updates the summary after a mine was removed from the tile.
+		 * 
+		 * @return true if the tile's bounding box changed, false otherwise
+		 */
+		public boolean remove(long key, short[] page, int x, int y, int z) {
+			count--;
+			depthCounts[z - minZ]--;
+
+			if (x != minX && x != maxX && y != minY && y != maxY)
+				return false;
+
+			// recompute the bounding box from the tile's page
+			List<Position> mines = new ArrayList<Position>();
+			int x0 = (int) (key >> 32) * Settings.TILE_SIZE;
+			int y0 = (int) key * Settings.TILE_SIZE;
+			for (int cell = 0; cell < page.length; cell++)
+				if (page[cell] != 0)
+					mines.add(new Position(x0 + cell % Settings.TILE_SIZE, y0
+							+ cell / Settings.TILE_SIZE, page[cell] & 0xffff));
+			summarize(mines);
+
+			return true;
+		}
+
+		public void summarize(List<Position> mines) {
+			count = mines.size();
+			minZ = minX = minY = Integer.MAX_VALUE;
+			maxZ = maxX = maxY = Integer.MIN_VALUE;
+
+			for (Position mine : mines) {
+				minZ = Math.min(minZ, mine.getZ());
+				maxZ = Math.max(maxZ, mine.getZ());
+				minX = Math.min(minX, mine.getX());
+				maxX = Math.max(maxX, mine.getX());
+				minY = Math.min(minY, mine.getY());
+				maxY = Math.max(maxY, mine.getY());
+			}
+
+			depthCounts = new int[count == 0 ? 0 : maxZ - minZ + 1];
+			for (Position mine : mines)
+				depthCounts[mine.getZ() - minZ]++;
+		}
+	}
+
+	/**
+	 * An inner class wrapping the temporary file holding the tiles' mine
+	 * records. The file is closed and deleted once it is unreachable.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	private static class TileFile {
+		/** Closes the tile files that are no longer reachable. */
+		private static final Cleaner CLEANER = Cleaner.create();
+
+		private FileChannel channel;
+
+		private long length;
+
+		public TileFile() throws IOException {
+			File file = File.createTempFile("mines", ".tiles");
+			channel = new RandomAccessFile(file, "rw").getChannel();
+
+			// the open channel keeps an unlinked file readable, so only
+			// delete the file once it is closed if it cannot be deleted now
+			CLEANER.register(this, new Closer(channel, file.delete() ? null
+					: file));
+		}
+
+		/**
+		 * Appends records to the file.
+		 * 
+		 * @return the offset of the appended records
+		 */
+		public synchronized long append(ByteBuffer buffer) throws IOException {
+			long offset = length;
+			while (buffer.hasRemaining())
+				length += channel.write(buffer, length);
+
+			return offset;
+		}
+
+		public ByteBuffer read(long offset, int numBytes) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(numBytes);
+			while (buffer.hasRemaining())
+				if (channel.read(buffer, offset + buffer.position()) < 0)
+					throw new IOException("Unexpected end of tile file");
+
+			buffer.flip();
+			return buffer;
+		}
+	}
+
+	/**
+	 * An inner class closing the channel of an unreachable tile file and
+	 * deleting the file if it was not unlinked when it was opened. It holds no
+	 * reference to the tile file, which could otherwise never become
+	 * unreachable.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	private static class Closer implements Runnable {
+		private final FileChannel channel;
+
+		/** The file to delete or null if it was already deleted. */
+		private final File file;
+
+		public Closer(FileChannel channel, File file) {
+			this.channel = channel;
+			this.file = file;
+		}
+
+		@Override
+		public void run() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing left to do with the file
+			}
+
+			if (file != null)
+				file.delete();
+		}
+	}
+}
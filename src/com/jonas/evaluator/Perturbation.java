@@ -0,0 +1,226 @@
+package com.jonas.evaluator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class describes randomized survey errors applied to the mines of a
+ * field (see {@link RobustnessEvaluator}). Each mine is independently dropped
+ * with a probability, or else jittered with a probability by an x-, y- and
+ * z-offset, and for each mine a new mine is added at a uniformly random
+ * position and depth with a probability. Offsets are drawn either uniformly
+ * from [-max, max] or from a Gaussian distribution with the maximum as its
+ * standard deviation, rounded to the nearest integer.
+ * 
+ * Perturbed mines stay within the field's dimensions and its depth range. A
+ * mine jittered or added onto the position of another mine merges with that
+ * mine.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class Perturbation {
+	/** The distributions of jitter offsets. */
+	public enum Distribution {
+		UNIFORM, GAUSSIAN
+	}
+
+	/** The probabilities of dropping, jittering and adding mines. */
+	private double dropProbability = 0, jitterProbability = 0,
+			addProbability = 0;
+
+	/** The largest (or, if Gaussian, typical) xy- and z-jitter. */
+	private int maxXYJitter = 0, maxZJitter = 0;
+
+	private Distribution distribution = Distribution.UNIFORM;
+
+	public double getDropProbability() {
+		return dropProbability;
+	}
+
+	public void setDropProbability(double dropProbability) {
+		this.dropProbability = dropProbability;
+	}
+
+	public double getJitterProbability() {
+		return jitterProbability;
+	}
+
+	public void setJitterProbability(double jitterProbability) {
+		this.jitterProbability = jitterProbability;
+	}
+
+	public double getAddProbability() {
+		return addProbability;
+	}
+
+	public void setAddProbability(double addProbability) {
+		this.addProbability = addProbability;
+	}
+
+	public int getMaxXYJitter() {
+		return maxXYJitter;
+	}
+
+	public void setMaxXYJitter(int maxXYJitter) {
+		this.maxXYJitter = maxXYJitter;
+	}
+
+	public int getMaxZJitter() {
+		return maxZJitter;
+	}
+
+	public void setMaxZJitter(int maxZJitter) {
+		this.maxZJitter = maxZJitter;
+	}
+
+	public Distribution getDistribution() {
+		return distribution;
+	}
+
+	public void setDistribution(Distribution distribution) {
+		this.distribution = distribution;
+	}
+
+	/**
+	 * Applies a random perturbation to a field.
+	 * 
+	 * @param field
+	 *            the parsed mines of the field
+	 * @param base
+	 *            a built mine index holding the field's mines
+	 * @param maxDepth
+	 *            the largest depth of the field's mines
+	 * @param random
+	 *            the source of randomness
+	 * @return an overlay on the base index holding the perturbed mines
+	 */
+	public OverlayMineIndex apply(FieldGrid field, MineIndex base,
+			int maxDepth, Random random) {
+		OverlayMineIndex overlay = new OverlayMineIndex(base, maxDepth);
+
+		// hide the dropped and jittered mines before placing any mine, so a
+		// jittered mine never lands on a mine that is moved later
+		List<Position> placed = new ArrayList<Position>();
+		for (int mine = 0; mine < field.getNumMines(); mine++) {
+			int x = field.getX(mine), y = field.getY(mine), z = field
+					.getZ(mine);
+
+			// one draw decides between dropping, jittering and neither
+			double draw = random.nextDouble();
+			if (draw < dropProbability) {
+				overlay.removeMineAtXY(new Position(x, y));
+
+			} else if (draw - dropProbability < (1 - dropProbability)
+					* jitterProbability) {
+				overlay.removeMineAtXY(new Position(x, y));
+				placed.add(new Position(
+						clamp(x + offset(maxXYJitter, random), 0,
+								field.getXDimension() - 1),
+						clamp(y + offset(maxXYJitter, random), 0,
+								field.getYDimension() - 1),
+						clamp(z + offset(maxZJitter, random), 1, maxDepth)));
+			}
+
+			if (random.nextDouble() < addProbability)
+				placed.add(new Position(random.nextInt(field.getXDimension()),
+						random.nextInt(field.getYDimension()),
+						1 + random.nextInt(maxDepth)));
+		}
+
+		for (Position mine : placed)
+			if (overlay.getMineAtXY(mine) == null)
+				overlay.addMine(mine);
+
+		return overlay;
+	}
+
+	/**
+	 * Draws a jitter offset.
+	 */
+	private int offset(int max, Random random) {
+		if (max == 0)
+			return 0;
+
+		if (distribution == Distribution.GAUSSIAN)
+			return (int) Math.round(random.nextGaussian() * max);
+
+		return random.nextInt(2 * max + 1) - max;
+	}
+
+	private static int clamp(int value, int min, int max) {
+		return Math.max(min, Math.min(max, value));
+	}
+
+	/**
+	 * Parses a perturbation from a comma-separated list of parameters, e.g.,
+	 * "drop=0.05,jitter=0.1,xy=1,z=2,add=0.05,distribution=gaussian".
+	 * 
+	 * @param spec
+	 *            a perturbation specification
+	 * @return the perturbation
+	 */
+	public static Perturbation parse(String spec) {
+		Perturbation perturbation = new Perturbation();
+		for (String parameter : spec.split(",")) {
+			if (parameter.trim().isEmpty())
+				continue;
+
+			String[] keyValue = parameter.trim().split("=");
+			boolean valid = keyValue.length == 2;
+			try {
+				if (!valid) {
+					// reported below
+				} else if (keyValue[0].equals("drop")) {
+					perturbation.dropProbability = parseProbability(keyValue[1]);
+				} else if (keyValue[0].equals("jitter")) {
+					perturbation.jitterProbability = parseProbability(keyValue[1]);
+				} else if (keyValue[0].equals("add")) {
+					perturbation.addProbability = parseProbability(keyValue[1]);
+				} else if (keyValue[0].equals("xy")) {
+					perturbation.maxXYJitter = parseJitter(keyValue[1]);
+				} else if (keyValue[0].equals("z")) {
+					perturbation.maxZJitter = parseJitter(keyValue[1]);
+				} else if (keyValue[0].equals("distribution")) {
+					perturbation.distribution = Distribution.valueOf(keyValue[1]
+							.trim().toUpperCase());
+				} else {
+					valid = false;
+				}
+			} catch (IllegalArgumentException e) {
+				valid = false;
+			}
+
+			if (!valid)
+				Logger.printErrorAndExit(Perturbation.class,
+						"Invalid perturbation parameter " + parameter);
+		}
+
+		return perturbation;
+	}
+
+	private static double parseProbability(String value) {
+		double probability = Double.parseDouble(value.trim());
+		if (!(probability >= 0 && probability <= 1))
+			throw new IllegalArgumentException(value);
+
+		return probability;
+	}
+
+	private static int parseJitter(String value) {
+		int jitter = Integer.parseInt(value.trim());
+		if (jitter < 0)
+			throw new IllegalArgumentException(value);
+
+		return jitter;
+	}
+
+	@Override
+	public String toString() {
+		return "drop=" + dropProbability + ",jitter=" + jitterProbability
+				+ ",xy=" + maxXYJitter + ",z=" + maxZJitter + ",add="
+				+ addProbability + ",distribution="
+				+ distribution.name().toLowerCase();
+	}
+}
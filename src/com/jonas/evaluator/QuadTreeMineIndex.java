@@ -0,0 +1,449 @@
+package com.jonas.evaluator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is an implementation of a {@link MineIndex} for huge, sparsely mined
+ * fields. Mines are held in a region quadtree over a square, power-of-two
+ * sized region of the XY-plane. Leaves hold up to
+ * {@link Settings#QUADTREE_LEAF_CAPACITY} mines and split when they overflow;
+ * internal nodes whose mines fit into a single leaf again are collapsed. The
+ * index's memory is therefore proportional to the number of mines rather than
+ * to the field's dimensions or its number of distinct coordinates.
+ * 
+ * Every node keeps an aggregate of the mines below it: their count, their
+ * minimum and maximum depth and their bounding box. Point lookups, insertions
+ * and removals descend a single path and update the aggregates along it, so
+ * they take O(log n) time. Bounding box queries are answered by the root's
+ * aggregate; depth and range queries prune every subtree whose aggregate lies
+ * entirely inside or outside the queried depth or range.
+ * 
+ * Unlike the other indexes, mines may also be inserted after the index is
+ * built (see {@link #insertMine(Position)}), in which case the root grows to
+ * cover mines outside of its region.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class QuadTreeMineIndex implements RangeMineIndex {
+	/** A list for collecting unsorted mine positions. */
+	private List<Position> mineList;
+
+	/** The root of the quadtree, or null if not yet built. */
+	private Node root;
+
+	public QuadTreeMineIndex() {
+		mineList = new ArrayList<Position>();
+	}
+
+	@Override
+	public void build() {
+		Logger.printDebug(QuadTreeMineIndex.class,
+				"Building quadtree mine index");
+
+		// cover the bounding box of the mines with a power-of-two square
+		int minX = 0, minY = 0, extent = 1;
+		if (!mineList.isEmpty()) {
+			minX = minY = Integer.MAX_VALUE;
+			int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+			for (Position mine : mineList) {
+				minX = Math.min(minX, mine.getX());
+				maxX = Math.max(maxX, mine.getX());
+				minY = Math.min(minY, mine.getY());
+				maxY = Math.max(maxY, mine.getY());
+			}
+
+			extent = Math.max(maxX - minX, maxY - minY) + 1;
+		}
+
+		int size = Integer.highestOneBit(extent);
+		root = new Node(minX, minY, size == extent ? size : size << 1);
+		for (Position mine : mineList)
+			insertMine(mine);
+
+		// we no longer need the list of mine positions
+		mineList.clear();
+
+		Logger.printDebug(QuadTreeMineIndex.class, "{} mines in {} nodes",
+				root.count, root.getNumNodes());
+	}
+
+	@Override
+	public void addMine(Position position) {
+		mineList.add(position);
+	}
+
+	/**
+	 * Inserts a mine into the built index, replacing any mine at the same
+	 * XY-coordinate. The root grows if the mine lies outside of its region.
+	 * 
+	 * @param position
+	 *            a position in the mine field
+	 * @return the replaced mine or null if none existed
+	 */
+	public Position insertMine(Position position) {
+		while (!root.contains(position.getX(), position.getY())) {
+			// double the root's region towards the mine
+			int size = root.size;
+			Node grown = new Node(position.getX() < root.x0 ? root.x0 - size
+					: root.x0, position.getY() < root.y0 ? root.y0 - size
+					: root.y0, size * 2);
+
+			if (root.count > 0) {
+				grown.split();
+				grown.children[grown.quadrant(root.x0, root.y0)] = root;
+				grown.summarize();
+			}
+
+			root = grown;
+		}
+
+		return root.insert(position);
+	}
+
+	@Override
+	public Position getMineAtXY(Position position) {
+		Node node = root;
+		while (node != null && node.contains(position.getX(), position.getY())) {
+			if (node.isLeaf())
+				return node.find(position);
+
+			node = node.children[node.quadrant(position.getX(),
+					position.getY())];
+		}
+
+		return null;
+	}
+
+	@Override
+	public Position removeMineAtXY(Position position) {
+		if (!root.contains(position.getX(), position.getY()))
+			return null;
+
+		return root.remove(position);
+	}
+
+	@Override
+	public int getMaxXDistance(Position position) {
+		if (root.count == 0)
+			return 0;
+
+		return Math.max(Math.abs(position.getX() - root.maxX),
+				Math.abs(position.getX() - root.minX));
+	}
+
+	@Override
+	public int getMaxYDistance(Position position) {
+		if (root.count == 0)
+			return 0;
+
+		return Math.max(Math.abs(position.getY() - root.maxY),
+				Math.abs(position.getY() - root.minY));
+	}
+
+	@Override
+	public int count() {
+		return root.count;
+	}
+
+	@Override
+	public int getNumMinesAtOrAbove(int depth) {
+		return root.countAtOrAbove(depth);
+	}
+
+	@Override
+	public List<Position> getMinesInRange(int minX, int minY, int maxX,
+			int maxY) {
+		List<Position> mines = new ArrayList<Position>();
+		root.collect(minX, minY, maxX, maxY, mines);
+
+		return mines;
+	}
+
+	@Override
+	public MineIndex copy() {
+		QuadTreeMineIndex copy = new QuadTreeMineIndex();
+
+		// mine positions are never modified by the index, so they can be
+		// shared between copies
+		copy.root = new Node(root);
+
+		return copy;
+	}
+
+	/**
+	 * An inner class representing a node of the quadtree: either a leaf
+	 * holding mines or an internal node with up to four children covering the
+	 * quadrants of its region.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	private static class Node {
+		/** The node's region, a square with its lower corner at x0, y0. */
+		private final int x0, y0, size;
+
+		/** The node's children, or null if the node is a leaf. */
+		private Node[] children;
+
+		/** The mines of a leaf. */
+		private Position[] mines;
+
+		/** The aggregate of the mines below the node. */
+		private int count, minZ, maxZ, minX, maxX, minY, maxY;
+
+		public Node(int x0, int y0, int size) {
+			this.x0 = x0;
+			this.y0 = y0;
+			this.size = size;
+
+			mines = new Position[Settings.QUADTREE_LEAF_CAPACITY];
+			summarize();
+		}
+
+		public Node(Node node) {
+			x0 = node.x0;
+			y0 = node.y0;
+			size = node.size;
+
+			if (node.isLeaf()) {
+				mines = node.mines.clone();
+			} else {
+				children = new Node[4];
+				for (int i = 0; i < 4; i++)
+					if (node.children[i] != null)
+						children[i] = new Node(node.children[i]);
+			}
+
+			count = node.count;
+			minZ = node.minZ;
+			maxZ = node.maxZ;
+			minX = node.minX;
+			maxX = node.maxX;
+			minY = node.minY;
+			maxY = node.maxY;
+		}
+
+		public boolean isLeaf() {
+			return children == null;
+		}
+
+		public boolean contains(int x, int y) {
+			return (long) x - x0 >= 0 && (long) x - x0 < size
+					&& (long) y - y0 >= 0 && (long) y - y0 < size;
+		}
+
+		/**
+		 * Returns the index of the child quadrant containing an XY-coordinate.
+		 */
+		public int quadrant(int x, int y) {
+			int half = size / 2;
+			return ((long) x - x0 >= half ? 1 : 0)
+					+ ((long) y - y0 >= half ? 2 : 0);
+		}
+
+		public Position find(Position position) {
+			for (int i = 0; i < count; i++)
+				if (mines[i].equals(position))
+					return mines[i];
+
+			return null;
+		}
+
+		public Position insert(Position mine) {
+			Position replaced;
+			if (isLeaf()) {
+				for (int i = 0; i < count; i++) {
+					if (mines[i].equals(mine)) {
+						replaced = mines[i];
+						mines[i] = mine;
+						summarize();
+						return replaced;
+					}
+				}
+
+				if (count < mines.length) {
+					mines[count] = mine;
+					summarize();
+					return null;
+				}
+
+				// the leaf overflows, so push its mines down a level
+				split();
+			}
+
+			int i = quadrant(mine.getX(), mine.getY());
+			if (children[i] == null) {
+				int half = size / 2;
+				children[i] = new Node(x0 + (i & 1) * half, y0 + (i >> 1)
+						* half, half);
+			}
+
+			replaced = children[i].insert(mine);
+			summarize();
+			return replaced;
+		}
+
+		public Position remove(Position position) {
+			Position removed = null;
+			if (isLeaf()) {
+				for (int i = 0; i < count; i++) {
+					if (mines[i].equals(position)) {
+						removed = mines[i];
+						mines[i] = mines[count - 1];
+						mines[count - 1] = null;
+						break;
+					}
+				}
+
+				if (removed != null)
+					summarize();
+
+				return removed;
+			}
+
+			int i = quadrant(position.getX(), position.getY());
+			if (children[i] == null)
+				return null;
+
+			removed = children[i].remove(position);
+			if (removed == null)
+				return null;
+
+			if (children[i].count == 0)
+				children[i] = null;
+
+			summarize();
+			if (count <= Settings.QUADTREE_LEAF_CAPACITY)
+				collapse();
+
+			return removed;
+		}
+
+		/**
+		 * Turns the leaf into an internal node, moving its mines into
+		 * children.
+		 */
+		public void split() {
+			Position[] leafMines = mines;
+			int numLeafMines = count;
+
+			mines = null;
+			children = new Node[4];
+			count = 0;
+			for (int i = 0; i < numLeafMines; i++)
+				insert(leafMines[i]);
+		}
+
+		/**
+		 * Turns the internal node back into a leaf holding all of its mines.
+		 */
+		public void collapse() {
+			Position[] leafMines = new Position[Settings.QUADTREE_LEAF_CAPACITY];
+			gather(leafMines, 0);
+
+			children = null;
+			mines = leafMines;
+			summarize();
+		}
+
+		/**
+		 * Recomputes the node's aggregate from its mines or its children's
+		 * aggregates.
+		 */
+		public void summarize() {
+			count = 0;
+			minZ = minX = minY = Integer.MAX_VALUE;
+			maxZ = maxX = maxY = Integer.MIN_VALUE;
+
+			if (isLeaf()) {
+				while (count < mines.length && mines[count] != null) {
+					Position mine = mines[count++];
+					minZ = Math.min(minZ, mine.getZ());
+					maxZ = Math.max(maxZ, mine.getZ());
+					minX = Math.min(minX, mine.getX());
+					maxX = Math.max(maxX, mine.getX());
+					minY = Math.min(minY, mine.getY());
+					maxY = Math.max(maxY, mine.getY());
+				}
+
+			} else {
+				for (Node child : children) {
+					if (child == null || child.count == 0)
+						continue;
+
+					count += child.count;
+					minZ = Math.min(minZ, child.minZ);
+					maxZ = Math.max(maxZ, child.maxZ);
+					minX = Math.min(minX, child.minX);
+					maxX = Math.max(maxX, child.maxX);
+					minY = Math.min(minY, child.minY);
+					maxY = Math.max(maxY, child.maxY);
+				}
+			}
+		}
+
+		public int countAtOrAbove(int depth) {
+			if (count == 0 || minZ > depth)
+				return 0; // the node lies below the depth
+			if (maxZ <= depth)
+				return count; // the node lies above the depth
+
+			int numMines = 0;
+			if (isLeaf()) {
+				for (int i = 0; i < count; i++)
+					if (mines[i].getZ() <= depth)
+						numMines++;
+			} else {
+				for (Node child : children)
+					if (child != null)
+						numMines += child.countAtOrAbove(depth);
+			}
+
+			return numMines;
+		}
+
+		public void collect(int minX, int minY, int maxX, int maxY,
+				List<Position> result) {
+			if (count == 0 || this.maxX < minX || this.minX > maxX
+					|| this.maxY < minY || this.minY > maxY)
+				return; // the node lies outside of the range
+
+			if (isLeaf()) {
+				for (int i = 0; i < count; i++)
+					if (mines[i].getX() >= minX && mines[i].getX() <= maxX
+							&& mines[i].getY() >= minY
+							&& mines[i].getY() <= maxY)
+						result.add(mines[i]);
+			} else {
+				for (Node child : children)
+					if (child != null)
+						child.collect(minX, minY, maxX, maxY, result);
+			}
+		}
+
+		private int gather(Position[] result, int offset) {
+			if (isLeaf()) {
+				for (int i = 0; i < count; i++)
+					result[offset++] = mines[i];
+			} else {
+				for (Node child : children)
+					if (child != null)
+						offset = child.gather(result, offset);
+			}
+
+			return offset;
+		}
+
+		public int getNumNodes() {
+			int numNodes = 1;
+			if (!isLeaf())
+				for (Node child : children)
+					if (child != null)
+						numNodes += child.getNumNodes();
+
+			return numNodes;
+		}
+	}
+}
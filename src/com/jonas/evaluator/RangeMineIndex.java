@@ -0,0 +1,29 @@
+package com.jonas.evaluator;
+
+import java.util.List;
+
+/**
+ * This interface extends a {@link MineIndex} with range queries, which a
+ * {@link Field} uses to render its rows from the mines they hold rather than
+ * by looking up every position of the rows.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public interface RangeMineIndex extends MineIndex {
+	/**
+	 * Returns the mines located within a rectangular range of the XY-plane.
+	 * 
+	 * @param minX
+	 *            the range's minimum x-coordinate
+	 * @param minY
+	 *            the range's minimum y-coordinate
+	 * @param maxX
+	 *            the range's maximum x-coordinate
+	 * @param maxY
+	 *            the range's maximum y-coordinate
+	 * @return the mines in the range, in no particular order
+	 */
+	public List<Position> getMinesInRange(int minX, int minY, int maxX,
+			int maxY);
+}
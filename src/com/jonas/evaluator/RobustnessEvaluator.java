@@ -0,0 +1,216 @@
+package com.jonas.evaluator;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Run the RobustnessEvaluator to measure how robust a script is to survey
+ * errors in a field. Usage: $ java RobustnessEvaluator [-threads n] [-seed s]
+ * [-perturbation spec] [-json] <field-file> <script-file> <perturbations>
+ * 
+ * The evaluator scores the script on the given number of random
+ * {@link Perturbation}s of the field (by default, each mine is dropped with
+ * probability 0.05 and jittered by up to one kilometer in x and y and two in
+ * z with probability 0.1) and reports the distribution of the scores and
+ * termination reasons in a {@link ScoreAnalytics} report.
+ * 
+ * The field's mines are indexed once in a shared {@link PackedMineIndex},
+ * whose queries never modify it, and each perturbation is an
+ * {@link OverlayMineIndex} holding only the perturbation's changes and the
+ * mines destroyed by the evaluation. Perturbations are evaluated in parallel
+ * (one thread per available processor by default), each thread recording
+ * into its own analytics, which are merged at the end. Perturbation i draws
+ * from a random generator seeded with the seed and i, so the results do not
+ * depend on the number of threads.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class RobustnessEvaluator {
+	/** The default perturbation of a field. */
+	public static final String DEFAULT_PERTURBATION = "drop=0.05,jitter=0.1,xy=1,z=2";
+
+	/** The stream to which the perturbations' evaluations print. */
+	private static final PrintStream NULL_OUTPUT = new PrintStream(
+			OutputStream.nullOutputStream());
+
+	private FieldGrid field;
+
+	private InstructionSource script;
+
+	private Perturbation perturbation;
+
+	/** The shared index of the field's mines. */
+	private MineIndex base;
+
+	/** The deepest mine of the field. */
+	private int maxDepth = 1;
+
+	public RobustnessEvaluator(FieldGrid field, InstructionSource script,
+			Perturbation perturbation) {
+		this.field = field;
+		this.script = script;
+		this.perturbation = perturbation;
+
+		base = new PackedMineIndex();
+		for (int mine = 0; mine < field.getNumMines(); mine++) {
+			base.addMine(new Position(field.getX(mine), field.getY(mine),
+					field.getZ(mine)));
+			maxDepth = Math.max(maxDepth, field.getZ(mine));
+		}
+		base.build();
+	}
+
+	/**
+	 * Evaluates the script on the unperturbed field.
+	 * 
+	 * @return the evaluator, holding the score and termination reason
+	 */
+	public Evaluator evaluateBase() {
+		return evaluate(new OverlayMineIndex(base, maxDepth));
+	}
+
+	/**
+	 * Evaluates the script on one perturbation of the field.
+	 * 
+	 * @param seed
+	 *            the seed of the run
+	 * @param i
+	 *            the index of the perturbation
+	 * @return the evaluator, holding the score and termination reason
+	 */
+	public Evaluator evaluate(long seed, int i) {
+		Random random = new Random(seed * 0x9e3779b97f4a7c15L + i);
+		return evaluate(perturbation.apply(field, base, maxDepth, random));
+	}
+
+	private Evaluator evaluate(OverlayMineIndex overlay) {
+		Evaluator evaluator = new Evaluator(new Field(field.getXDimension(),
+				field.getYDimension(), overlay), script);
+		evaluator.setOutput(NULL_OUTPUT);
+		evaluator.setRender(false);
+		evaluator.evaluate();
+
+		return evaluator;
+	}
+
+	/**
+	 * Evaluates the script on many perturbations of the field in parallel.
+	 * 
+	 * @param numPerturbations
+	 *            the number of perturbations
+	 * @param numThreads
+	 *            the number of threads evaluating perturbations
+	 * @param seed
+	 *            the seed of the run
+	 * @return the analytics of the perturbations' results
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public ScoreAnalytics run(final int numPerturbations, int numThreads,
+			final long seed) throws InterruptedException, ExecutionException {
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+		try {
+			// each thread evaluates every numThreads-th perturbation
+			List<Future<ScoreAnalytics>> futures = new ArrayList<Future<ScoreAnalytics>>();
+			for (int t = 0; t < numThreads; t++) {
+				final int first = t, stride = numThreads;
+				futures.add(executor.submit(new Callable<ScoreAnalytics>() {
+
+					@Override
+					public ScoreAnalytics call() {
+						ScoreAnalytics analytics = new ScoreAnalytics();
+						for (int i = first; i < numPerturbations; i += stride) {
+							try {
+								analytics.record(evaluate(seed, i));
+							} catch (EvaluationException e) {
+								analytics.recordError();
+							}
+						}
+
+						return analytics;
+					}
+
+				}));
+			}
+
+			ScoreAnalytics analytics = new ScoreAnalytics();
+			for (Future<ScoreAnalytics> future : futures)
+				analytics.merge(future.get());
+
+			return analytics;
+
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		StepInstructions.loadPatterns();
+
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		long seed = 0;
+		String spec = DEFAULT_PERTURBATION;
+		boolean json = false;
+		List<String> operands = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threads") && i + 1 < args.length)
+				numThreads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-seed") && i + 1 < args.length)
+				seed = Long.parseLong(args[++i]);
+			else if (args[i].equals("-perturbation") && i + 1 < args.length)
+				spec = args[++i];
+			else if (args[i].equals("-json"))
+				json = true;
+			else
+				operands.add(args[i]);
+		}
+
+		if (operands.size() != 3) {
+			System.err.println("Invalid command line arguments");
+			System.err
+					.println("Usage: java RobustnessEvaluator [-threads n] [-seed s] [-perturbation spec] [-json] <field-file> <script-file> <perturbations>");
+
+			System.exit(1);
+		}
+
+		Perturbation perturbation = Perturbation.parse(spec);
+		RobustnessEvaluator evaluator = new RobustnessEvaluator(new FieldGrid(
+				operands.get(0)), new Script(operands.get(1)), perturbation);
+
+		// report errors of single perturbations rather than exiting
+		Logger.setExitOnError(false);
+
+		Evaluator base = evaluator.evaluateBase();
+		long start = System.nanoTime();
+		ScoreAnalytics analytics = evaluator.run(
+				Integer.parseInt(operands.get(2)), numThreads, seed);
+		long millis = (System.nanoTime() - start) / 1000000;
+
+		if (json) {
+			System.out.println("{\"perturbation\":\"" + perturbation
+					+ "\",\"baseScore\":" + base.calculateScore()
+					+ ",\"millis\":" + millis + ",\"analytics\":"
+					+ analytics.toJson() + "}");
+		} else {
+			System.out.println("Perturbation:   " + perturbation);
+			System.out.println("Base score:     " + base.calculateScore()
+					+ " (" + base.getTerminationReason() + ")");
+			System.out.println("Pass rate:      "
+					+ String.format("%.4f", analytics.getCount() == 0 ? 0
+							: (double) analytics.getNumPassed()
+									/ analytics.getCount()) + " in " + millis
+					+ " ms");
+			analytics.report(System.out, false);
+		}
+	}
+}
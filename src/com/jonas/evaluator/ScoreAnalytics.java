@@ -0,0 +1,230 @@
+package com.jonas.evaluator;
+
+import java.io.PrintStream;
+
+/**
+ * This class aggregates the results of many evaluations into distributions of
+ * the values that determine a score (see {@link Evaluator#calculateScore()}):
+ * the score itself, the steps taken, the volleys fired, the kilometers moved
+ * and the initial number of mines, as well as the number of passed, failed
+ * and errored evaluations by termination reason. Distributions are kept in
+ * {@link Histogram}s, so the memory footprint stays constant regardless of
+ * the number of recorded results.
+ * 
+ * An instance is not thread-safe. Threads recording results concurrently
+ * should each record into their own instance and merge the instances (see
+ * {@link #merge(ScoreAnalytics)}) once done, which keeps the aggregation free
+ * of contention.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class ScoreAnalytics {
+	private Histogram scores = new Histogram();
+
+	private Histogram steps = new Histogram();
+
+	private Histogram volleysFired = new Histogram();
+
+	private Histogram kmsMoved = new Histogram();
+
+	private Histogram initialMines = new Histogram();
+
+	/** The number of passed and failed results by termination reason. */
+	private long[] passed = new long[TerminationReason.values().length],
+			failed = new long[TerminationReason.values().length];
+
+	/** The number of evaluations that ended in an error. */
+	private long errors = 0;
+
+	/**
+	 * Records the result of an evaluation.
+	 * 
+	 * @param evaluator
+	 *            an evaluator that completed its evaluation
+	 */
+	public void record(Evaluator evaluator) {
+		record(evaluator.calculateScore(), evaluator.getTerminationReason(),
+				evaluator.getStep(), evaluator.getInitialMines(),
+				evaluator.getVolleysFired(), evaluator.getKmsMoved());
+	}
+
+	/**
+	 * Records the result of an evaluation.
+	 * 
+	 * @param score
+	 *            the evaluation's score
+	 * @param reason
+	 *            the reason for which the evaluation ended
+	 * @param step
+	 *            the step at which the evaluation ended
+	 * @param initialMines
+	 *            the initial number of mines
+	 * @param volleysFired
+	 *            the number of volleys fired
+	 * @param kmsMoved
+	 *            the number of kilometers moved
+	 */
+	public void record(int score, TerminationReason reason, int step,
+			int initialMines, int volleysFired, int kmsMoved) {
+		scores.record(score);
+		steps.record(step);
+		this.initialMines.record(initialMines);
+		this.volleysFired.record(volleysFired);
+		this.kmsMoved.record(kmsMoved);
+
+		if (score > 0)
+			passed[reason.ordinal()]++;
+		else
+			failed[reason.ordinal()]++;
+	}
+
+	/**
+	 * Records an evaluation that ended in an error.
+	 */
+	public void recordError() {
+		errors++;
+	}
+
+	/**
+	 * Adds all results recorded by another instance to this instance.
+	 * 
+	 * @param analytics
+	 *            another instance
+	 */
+	public void merge(ScoreAnalytics analytics) {
+		scores.merge(analytics.scores);
+		steps.merge(analytics.steps);
+		volleysFired.merge(analytics.volleysFired);
+		kmsMoved.merge(analytics.kmsMoved);
+		initialMines.merge(analytics.initialMines);
+
+		for (int i = 0; i < passed.length; i++) {
+			passed[i] += analytics.passed[i];
+			failed[i] += analytics.failed[i];
+		}
+
+		errors += analytics.errors;
+	}
+
+	/**
+	 * Returns the number of recorded results, excluding errors.
+	 * 
+	 * @return the number of results
+	 */
+	public long getCount() {
+		return scores.getCount();
+	}
+
+	public long getNumPassed() {
+		long numPassed = 0;
+		for (long count : passed)
+			numPassed += count;
+
+		return numPassed;
+	}
+
+	public long getNumFailed(TerminationReason reason) {
+		return failed[reason.ordinal()];
+	}
+
+	public long getNumErrors() {
+		return errors;
+	}
+
+	public Histogram getScores() {
+		return scores;
+	}
+
+	public Histogram getSteps() {
+		return steps;
+	}
+
+	public Histogram getVolleysFired() {
+		return volleysFired;
+	}
+
+	public Histogram getKmsMoved() {
+		return kmsMoved;
+	}
+
+	public Histogram getInitialMines() {
+		return initialMines;
+	}
+
+	/**
+	 * Prints a report of the recorded results.
+	 * 
+	 * @param out
+	 *            the stream to print to
+	 * @param json
+	 *            true to print a JSON object, false to print a summary
+	 */
+	public void report(PrintStream out, boolean json) {
+		out.println(json ? toJson() : toString());
+	}
+
+	/**
+	 * Returns a JSON object holding the report of the recorded results.
+	 * 
+	 * @return a JSON string
+	 */
+	public String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"count\":").append(getCount());
+		sb.append(",\"passed\":").append(getNumPassed());
+		sb.append(",\"errors\":").append(errors);
+		sb.append(",\"score\":").append(scores.toJson());
+		sb.append(",\"steps\":").append(steps.toJson());
+		sb.append(",\"volleysFired\":").append(volleysFired.toJson());
+		sb.append(",\"kmsMoved\":").append(kmsMoved.toJson());
+		sb.append(",\"initialMines\":").append(initialMines.toJson());
+
+		sb.append(",\"reasons\":{");
+		boolean first = true;
+		for (TerminationReason reason : TerminationReason.values()) {
+			int i = reason.ordinal();
+			if (passed[i] == 0 && failed[i] == 0)
+				continue;
+
+			if (!first)
+				sb.append(',');
+			first = false;
+
+			sb.append('"').append(reason).append("\":{\"passed\":")
+					.append(passed[i]).append(",\"failed\":")
+					.append(failed[i]).append('}');
+		}
+		sb.append("}}");
+
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		String ls = System.getProperty("line.separator");
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("Score analytics").append(ls);
+		sb.append("  results:        ").append(getCount()).append(" (")
+				.append(getNumPassed()).append(" passed, ").append(errors)
+				.append(" errors)").append(ls);
+		sb.append("  score:          ").append(scores).append(ls);
+		sb.append("  steps:          ").append(steps).append(ls);
+		sb.append("  volleys fired:  ").append(volleysFired).append(ls);
+		sb.append("  kms moved:      ").append(kmsMoved).append(ls);
+		sb.append("  initial mines:  ").append(initialMines);
+
+		for (TerminationReason reason : TerminationReason.values()) {
+			int i = reason.ordinal();
+			if (passed[i] == 0 && failed[i] == 0)
+				continue;
+
+			sb.append(ls).append("  ").append(reason).append(": ")
+					.append(passed[i]).append(" passed, ").append(failed[i])
+					.append(" failed");
+		}
+
+		return sb.toString();
+	}
+}
@@ -0,0 +1,30 @@
+package com.jonas.evaluator;
+
+/**
+ * This class is the final {@link SimulationEvent} of a simulation, holding the
+ * script's score.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class ScoreEvent extends SimulationEvent {
+	private final int score;
+
+	public ScoreEvent(int step, int score) {
+		super(step);
+
+		this.score = score;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("ScoreEvent [step=").append(getStep())
+				.append(", score=").append(score).append("]");
+		return builder.toString();
+	}
+}
@@ -1,17 +1,19 @@
 package com.jonas.evaluator;
 
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * This class holds the instructions that drive the actions of the mine clearing
  * vessel at each simulation step. The script's data is provided by an input
- * script file.
+ * script file, which is read entirely before the evaluation starts (see
+ * {@link StreamingScript} for a script read as the evaluation advances).
  * 
  * @author Jonas Michel, jonas.r.michel@gmail.com
  * 
  */
-public class Script extends InputFileModel {
+public class Script extends InputFileModel implements InstructionSource {
 	/** Holds the in-order script instructions. */
 	private List<StepInstructions> instructions;
 
@@ -21,13 +23,29 @@ public class Script extends InputFileModel {
 		// Note: the instructions list will be initialized during parsing
 	}
 
+	public Script(String scriptFile, Budget budget) {
+		super(scriptFile, budget);
+	}
+
+	public Script(Reader reader, String name) {
+		super(reader, name);
+	}
+
+	public Script(Reader reader, String name, Budget budget) {
+		super(reader, name, budget);
+	}
+
 	@Override
 	public void processLine(String line) {
-		Logger.printDebug(Script.class, "processing line " + line);
+		Logger.printDebug(Script.class, "processing line {}", line);
 
-		// tokenize and parse the line
-		String[] lineInstructions = line.trim().toLowerCase().split("\\s+");
-		parseLine(lineInstructions);
+		// store the parsed instruction pair
+		StepInstructions stepInstructions = parseLine(line);
+		if (instructions == null)
+			instructions = new ArrayList<StepInstructions>();
+
+		if (stepInstructions != null)
+			instructions.add(stepInstructions);
 	}
 
 	@Override
@@ -39,21 +57,26 @@ public class Script extends InputFileModel {
 			Logger.printErrorAndExit(Field.class,
 					"Please provide a non-empty script file");
 
-		for (StepInstructions instruction : instructions)
-			Logger.printDebug(Script.class, instruction.toString());
+		if (Logger.isDebugEnabled())
+			for (StepInstructions instruction : instructions)
+				Logger.printDebug(Script.class, "{}", instruction);
 	}
 
-	/**
-	 * Returns the instructions for a particular step.
-	 * 
-	 * @param step
-	 *            the step number
-	 * @return the step's instruction
-	 */
+	@Override
+	public boolean hasInstructions(int step) {
+		return step <= getNumInstructions();
+	}
+
+	@Override
 	public StepInstructions getInstructions(int step) {
 		return instructions.get(step - 1);
 	}
 
+	@Override
+	public void close() {
+		// the script was read entirely, so it holds no resources
+	}
+
 	public int getNumInstructions() {
 		return instructions == null ? 0 : instructions.size();
 	}
@@ -61,20 +84,20 @@ public class Script extends InputFileModel {
 	/**
 	 * Parses a single line of a script file.
 	 * 
-	 * @param lineInstructions
+	 * @param line
 	 *            move and/or firing instructions for a single simulation step
+	 * @return the step's instructions or null if the line is blank
 	 */
-	private void parseLine(String[] lineInstructions) {
+	public static StepInstructions parseLine(String line) {
+		// tokenize the line
+		String[] lineInstructions = line.trim().toLowerCase().split("\\s+");
+
 		// extract the optional firing pattern and move instructions
 		StepInstructions stepInstrunctions = new StepInstructions();
 		for (int i = 0; i < lineInstructions.length; i++)
 			stepInstrunctions.addInstruction(lineInstructions[i].trim());
 
-		// store the parsed instruction pair
-		if (instructions == null)
-			instructions = new ArrayList<StepInstructions>();
-
-		if (stepInstrunctions.getInstructions().size() > 0)
-			instructions.add(stepInstrunctions);
+		return stepInstrunctions.getInstructions().size() > 0 ? stepInstrunctions
+				: null;
 	}
 }
@@ -0,0 +1,432 @@
+package com.jonas.evaluator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Run the ScriptCompiler to validate and compile script files ahead of their
+ * evaluation. Usage: $ java ScriptCompiler [-threads n] [-cache directory]
+ * <script-file-or-directory>...
+ * 
+ * Scripts are compiled in parallel (one per available processor by default)
+ * into {@link CompiledScript}s, which are stored in a cache directory (see
+ * {@link Settings#SCRIPT_CACHE_DIRECTORY}) under the SHA-256 hash of the
+ * script file's content and the names of the known instructions, which may
+ * include custom firing patterns (see {@link FiringPattern}). Later loads of
+ * an unchanged script (see {@link #load(String)}) therefore read its compiled
+ * steps without parsing it, regardless of the script's path. Unlike a {@link Script}, a script is
+ * compiled to the end even if it is invalid, and every invalid line is
+ * reported with its line number.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class ScriptCompiler {
+	/** The first bytes of a compiled script file ("MCSC"). */
+	private static final int MAGIC = 0x4d435343;
+
+	private static final int VERSION = 2;
+
+	private static final String SUFFIX = ".mcs";
+
+	private File cacheDirectory;
+
+	public ScriptCompiler() {
+		this(new File(Settings.SCRIPT_CACHE_DIRECTORY));
+	}
+
+	public ScriptCompiler(File cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	/**
+	 * Loads the compiled form of a script file, compiling and caching the
+	 * script if it is not cached yet. An invalid script is reported as an
+	 * error.
+	 * 
+	 * @param scriptFile
+	 *            the path of a script file
+	 * @return the compiled script
+	 */
+	public CompiledScript load(String scriptFile) {
+		Result result = compile(new File(scriptFile));
+		if (!result.isValid())
+			Logger.printErrorAndExit(ScriptCompiler.class, "Invalid script "
+					+ scriptFile + ": " + Util.join("; ", result.getErrors()
+							.toArray(new String[result.getErrors().size()])));
+
+		return result.getScript();
+	}
+
+	/**
+	 * Compiles script files in parallel.
+	 * 
+	 * @param scriptFiles
+	 *            the script files
+	 * @param numThreads
+	 *            the number of threads compiling scripts
+	 * @return the result of each script file, in the same order
+	 * @throws InterruptedException
+	 */
+	public List<Result> compileAll(List<File> scriptFiles, int numThreads)
+			throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+		try {
+			List<Future<Result>> futures = new ArrayList<Future<Result>>();
+			for (final File scriptFile : scriptFiles) {
+				futures.add(executor.submit(new Callable<Result>() {
+
+					@Override
+					public Result call() {
+						return compile(scriptFile);
+					}
+
+				}));
+			}
+
+			List<Result> results = new ArrayList<Result>();
+			for (int i = 0; i < scriptFiles.size(); i++) {
+				try {
+					results.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					results.add(new Result(scriptFiles.get(i).getPath(), null,
+							false, Arrays.asList(String.valueOf(e.getCause()))));
+				}
+			}
+
+			return results;
+
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Compiles a script file unless its compiled form is cached, caching the
+	 * compiled form of a valid script.
+	 * 
+	 * @param scriptFile
+	 *            a script file
+	 * @return the script's result
+	 */
+	public Result compile(File scriptFile) {
+		String name = scriptFile.getPath();
+
+		byte[] content;
+		try {
+			content = Files.readAllBytes(scriptFile.toPath());
+		} catch (IOException e) {
+			String message = e instanceof FileNotFoundException
+					|| !scriptFile.exists() ? "File not found " + name
+					: "Could not read file " + name + ": " + e.getMessage();
+
+			return new Result(name, null, false, Arrays.asList(message));
+		}
+
+		File cached = new File(cacheDirectory, hash(content) + SUFFIX);
+		CompiledScript script = readCached(cached);
+		if (script != null)
+			return new Result(name, script, true, new ArrayList<String>());
+
+		Result result;
+		try {
+			BufferedInputStream in = new BufferedInputStream(
+					new ByteArrayInputStream(content));
+			result = compile(new BufferedReader(new InputStreamReader(
+					Compression.detect(in).decode(in))), name);
+
+		} catch (IOException e) {
+			return new Result(name, null, false,
+					Arrays.asList("Could not read file " + name + ": "
+							+ e.getMessage()));
+		}
+
+		if (result.isValid()) {
+			try {
+				writeCached(cached, result.getScript());
+			} catch (IOException e) {
+				Logger.printWarning(ScriptCompiler.class,
+						"Could not cache {}: {}", name, e.getMessage());
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Compiles the lines of a script, collecting the errors of every invalid
+	 * line.
+	 * 
+	 * @param reader
+	 *            a reader of the script, which is closed once read
+	 * @param name
+	 *            the name of the script
+	 * @return the script's result
+	 * @throws IOException
+	 */
+	public static Result compile(BufferedReader reader, String name)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream steps = new DataOutputStream(bytes);
+		List<String> errors = new ArrayList<String>();
+
+		try {
+			int lineNumber = 0;
+			for (String line; (line = reader.readLine()) != null;) {
+				lineNumber++;
+
+				// tokenize the line as a Script does
+				StepInstructions stepInstructions = new StepInstructions();
+				for (String instruction : line.trim().toLowerCase()
+						.split("\\s+")) {
+					if (instruction.isEmpty())
+						continue;
+
+					String error = stepInstructions
+							.checkInstruction(instruction);
+					if (error != null) {
+						errors.add("line " + lineNumber + ": " + error);
+						break;
+					}
+
+					stepInstructions.addInstruction(instruction);
+				}
+
+				if (!stepInstructions.getInstructions().isEmpty())
+					steps.writeShort(CompiledScript.encode(stepInstructions));
+			}
+
+		} finally {
+			reader.close();
+		}
+
+		if (steps.size() == 0 && errors.isEmpty())
+			errors.add("Please provide a non-empty script file");
+
+		return errors.isEmpty() ? new Result(name, new CompiledScript(
+				toSteps(bytes.toByteArray(), 0)), false, errors) : new Result(
+				name, null, false, errors);
+	}
+
+	/**
+	 * Reads a cached compiled script.
+	 * 
+	 * @return the compiled script or null if it is not cached or unreadable
+	 */
+	private static CompiledScript readCached(File cached) {
+		byte[] content;
+		try {
+			content = Files.readAllBytes(cached.toPath());
+		} catch (IOException e) {
+			return null;
+		}
+
+		if (content.length < 12 || readInt(content, 0) != MAGIC
+				|| readInt(content, 4) != VERSION
+				|| 2L * readInt(content, 8) != content.length - 12)
+			return null;
+
+		short[] steps = toSteps(content, 12);
+		for (short step : steps)
+			if (!CompiledScript.isValid(step))
+				return null;
+
+		return new CompiledScript(steps);
+	}
+
+	/**
+	 * Writes a compiled script to the cache. The file is written under a
+	 * temporary name and then renamed, so concurrent writers and readers never
+	 * see a partial file.
+	 */
+	private void writeCached(File cached, CompiledScript script)
+			throws IOException {
+		if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()
+				&& !cacheDirectory.isDirectory())
+			throw new IOException("Could not create " + cacheDirectory);
+
+		short[] steps = script.getSteps();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+				12 + 2 * steps.length);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(steps.length);
+		for (short step : steps)
+			out.writeShort(step);
+
+		File temp = File.createTempFile("script", ".tmp", cacheDirectory);
+		try {
+			Files.write(temp.toPath(), bytes.toByteArray());
+			Files.move(temp.toPath(), cached.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Reads the 16-bit steps following an offset of bytes.
+	 */
+	private static short[] toSteps(byte[] bytes, int offset) {
+		short[] steps = new short[(bytes.length - offset) / 2];
+		for (int i = 0; i < steps.length; i++)
+			steps[i] = (short) ((bytes[offset + 2 * i] & 0xff) << 8 | (bytes[offset
+					+ 2 * i + 1] & 0xff));
+
+		return steps;
+	}
+
+	private static int readInt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+				| (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+	}
+
+	/**
+	 * Returns the hexadecimal SHA-256 hash of content and the instruction
+	 * codes it is compiled to.
+	 */
+	private static String hash(byte[] content) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		for (String instruction : StepInstructions.INSTRUCTION_CODES)
+			digest.update((instruction + "\n").getBytes(StandardCharsets.UTF_8));
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest(content))
+			sb.append(String.format("%02x", b & 0xff));
+
+		return sb.toString();
+	}
+
+	public static void main(String[] args) throws Exception {
+		StepInstructions.loadPatterns();
+
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		File cacheDirectory = new File(Settings.SCRIPT_CACHE_DIRECTORY);
+		List<File> scriptFiles = new ArrayList<File>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threads") && i + 1 < args.length) {
+				numThreads = Integer.parseInt(args[++i]);
+
+			} else if (args[i].equals("-cache") && i + 1 < args.length) {
+				cacheDirectory = new File(args[++i]);
+
+			} else if (new File(args[i]).isDirectory()) {
+				File[] files = new File(args[i]).listFiles();
+				Arrays.sort(files);
+				for (File file : files)
+					if (file.isFile())
+						scriptFiles.add(file);
+
+			} else {
+				scriptFiles.add(new File(args[i]));
+			}
+		}
+
+		if (scriptFiles.isEmpty()) {
+			System.err.println("Invalid command line arguments");
+			System.err
+					.println("Usage: java ScriptCompiler [-threads n] [-cache directory] <script-file-or-directory>...");
+
+			System.exit(1);
+		}
+
+		long start = System.nanoTime();
+		List<Result> results = new ScriptCompiler(cacheDirectory).compileAll(
+				scriptFiles, numThreads);
+
+		int numInvalid = 0, numCached = 0;
+		for (Result result : results) {
+			if (result.isCached())
+				numCached++;
+
+			if (!result.isValid()) {
+				numInvalid++;
+				for (String error : result.getErrors())
+					System.out.println(result.getName() + ": " + error);
+			}
+		}
+
+		System.out.println((results.size() - numInvalid) + " of "
+				+ results.size() + " scripts compiled (" + numCached
+				+ " cached) in " + (System.nanoTime() - start) / 1000000
+				+ " ms");
+
+		if (numInvalid > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * An inner class holding the result of compiling a script: either the
+	 * compiled script or the errors of its invalid lines.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	public static class Result {
+		private final String name;
+
+		private final CompiledScript script;
+
+		/** Whether or not the script was loaded from the cache. */
+		private final boolean cached;
+
+		private final List<String> errors;
+
+		public Result(String name, CompiledScript script, boolean cached,
+				List<String> errors) {
+			this.name = name;
+			this.script = script;
+			this.cached = cached;
+			this.errors = errors;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public boolean isValid() {
+			return script != null;
+		}
+
+		public CompiledScript getScript() {
+			return script;
+		}
+
+		public boolean isCached() {
+			return cached;
+		}
+
+		public List<String> getErrors() {
+			return errors;
+		}
+	}
+}
@@ -28,6 +28,91 @@ public class Settings {
 	/** The character representing a position with a missed mine. */
 	public static final char MISSED_MINE_CHARACTER = '*';
 
+	/**
+	 * The character representing an active mine whose range is beyond the
+	 * letters a-Z.
+	 */
+	public static final char DEEP_MINE_CHARACTER = '+';
+
 	/** The maximum number of instructions per simulation step. */
 	public static final int MAX_STEP_INSTRUCTIONS = 2;
+
+	/**
+	 * The mine index implementation employed by fields, which may be selected
+	 * by running the JVM with
+	 * -Devaluator.index=custom|tiled|quadtree|paged|packed.
+	 */
+	public static final MineIndexType MINE_INDEX_TYPE = MineIndexType
+			.fromProperty("evaluator.index", MineIndexType.CUSTOM);
+
+	/**
+	 * The mine index implementation employed by fields with numeric depths,
+	 * which may be selected by running the JVM with -Devaluator.index.deep.
+	 */
+	public static final MineIndexType DEEP_MINE_INDEX_TYPE = MineIndexType
+			.fromProperty("evaluator.index.deep", MineIndexType.PACKED);
+
+	/** The side length of the square tiles of a {@link TiledMineIndex}. */
+	public static final int TILE_SIZE = 64;
+
+	/**
+	 * The number of tiles above which a {@link TiledMineIndex} combines tile
+	 * summaries in parallel.
+	 */
+	public static final int PARALLEL_TILES = 256;
+
+	/**
+	 * The number of field rows above which a {@link Field} renders its rows in
+	 * parallel.
+	 */
+	public static final int PARALLEL_RENDER_ROWS = 256;
+
+	/**
+	 * The maximum number of mines held by a leaf of a
+	 * {@link QuadTreeMineIndex}.
+	 */
+	public static final int QUADTREE_LEAF_CAPACITY = 8;
+
+	/** The number of tile pages cached by a {@link PagedMineIndex}. */
+	public static final int PAGED_CACHE_TILES = 64;
+
+	/** The size of the buffers used to read input files in bytes. */
+	public static final int INPUT_BUFFER_SIZE = 64 * 1024;
+
+	/** The number of recent steps retained by a {@link StreamingScript}. */
+	public static final int SCRIPT_WINDOW_STEPS = 16;
+
+	/**
+	 * The minimum number of steps between the keyframes of a recorded trace
+	 * (see {@link TraceRecorder}).
+	 */
+	public static final int TRACE_KEYFRAME_INTERVAL = 64;
+
+	/** The default directory of scripts compiled by a {@link ScriptCompiler}. */
+	public static final String SCRIPT_CACHE_DIRECTORY = "script-cache";
+
+	/** The default directory of {@link SharedMineIndex} files. */
+	public static final String SHARED_FIELD_DIRECTORY = "/dev/shm/evaluator";
+
+	/**
+	 * The maximum number of connections an evaluation server serves at once.
+	 * Further connections are refused.
+	 */
+	public static final int SERVER_MAX_CONNECTIONS = 64;
+
+	/** The default memory budget of a {@link FieldCache} in bytes. */
+	public static final long FIELD_CACHE_BUDGET = 256L * 1024 * 1024;
+
+	/**
+	 * Whether or not a {@link FieldCache} re-parses only the changed rows of a
+	 * changed field file (see {@link IncrementalFieldLoader}). Incrementally
+	 * loaded fields are held in a {@link QuadTreeMineIndex} rather than the
+	 * configured index type, so this is off unless enabled with
+	 * -Devaluator.incremental=true.
+	 */
+	public static final boolean INCREMENTAL_FIELD_RELOAD = Boolean
+			.getBoolean("evaluator.incremental");
+
+	/** The estimated heap footprint of a single indexed mine in bytes. */
+	public static final int ESTIMATED_MINE_BYTES = 128;
 }
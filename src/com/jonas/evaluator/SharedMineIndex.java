@@ -0,0 +1,626 @@
+package com.jonas.evaluator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This is an implementation of a {@link MineIndex} whose mines are shared by
+ * all processes on a host. A parsed field is published once (see
+ * {@link #publish(FieldGrid, File)}) into a file, typically in a memory-backed
+ * file system such as /dev/shm (see {@link Settings#SHARED_FIELD_DIRECTORY}),
+ * holding the depths of its mines' bounding box as a grid of unsigned 16-bit
+ * cells laid out as in a {@link PackedMineIndex}, along with the number of
+ * mines of each row, column and depth. Any number of processes then attach to
+ * the file (see {@link #attach(File)}), which maps it read-only rather than
+ * reading it, so the host holds a single copy of the field in its page cache
+ * and attaching takes time proportional to the field's depths only.
+ * 
+ * The mapped file is never modified after it is published. Each index (and
+ * each copy of it, see {@link #copy()}) keeps its destroyed mines as a private
+ * delta: the destroyed cells, the number of destroyed mines of each row and
+ * column, from which the bounding box of the remaining mines is maintained as
+ * in a {@link PackedMineIndex}, and a Fenwick tree of the destroyed depths. An
+ * index therefore takes heap memory proportional to its destroyed mines, and
+ * a {@link FieldCache} given a shared directory (see
+ * {@link FieldCache#setSharedDirectory(File)}) keeps its fields off the heap.
+ * 
+ * Run the SharedMineIndex to publish field files ahead of their evaluation.
+ * Usage: $ java SharedMineIndex [-directory directory] <field-file>...
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class SharedMineIndex implements MineIndex {
+	/** Identifies a shared mine index file ("MSHM"). */
+	private static final int MAGIC = 0x4d53484d;
+
+	private static final int VERSION = 1;
+
+	/** Separates the field file's version from its hash in file names. */
+	private static final char VERSION_SEPARATOR = '-';
+
+	/** The number of header ints preceding the depth counts. */
+	private static final int HEADER_INTS = 10;
+
+	/** The shared, read-only mines. */
+	private final Mapping mapping;
+
+	/** The cells of the destroyed mines. */
+	private Set<Integer> destroyed;
+
+	/** The number of destroyed mines of each row and column with any. */
+	private Map<Integer, Integer> destroyedRows, destroyedColumns;
+
+	/** A Fenwick tree counting the destroyed mines at each depth. */
+	private int[] destroyedDepths;
+
+	private int count;
+
+	/** The bounding box of the remaining mines in grid coordinates. */
+	private int minRow, maxRow, minColumn, maxColumn;
+
+	private SharedMineIndex(Mapping mapping) {
+		this.mapping = mapping;
+
+		destroyed = new HashSet<Integer>();
+		destroyedRows = new HashMap<Integer, Integer>();
+		destroyedColumns = new HashMap<Integer, Integer>();
+		destroyedDepths = new int[mapping.maxDepth + 1];
+		count = mapping.count;
+
+		minRow = minColumn = 0;
+		maxRow = mapping.height - 1;
+		maxColumn = mapping.width - 1;
+	}
+
+	/**
+	 * Returns the x dimension of the field the index was published from.
+	 * 
+	 * @return the field's x dimension
+	 */
+	public int getXDimension() {
+		return mapping.xDimension;
+	}
+
+	/**
+	 * Returns the y dimension of the field the index was published from.
+	 * 
+	 * @return the field's y dimension
+	 */
+	public int getYDimension() {
+		return mapping.yDimension;
+	}
+
+	/**
+	 * Returns the size of the mapped shared mine index file.
+	 * 
+	 * @return the size in bytes
+	 */
+	public long getSharedSize() {
+		return mapping.cellsOffset + 2L * mapping.width * mapping.height;
+	}
+
+	/**
+	 * Creates a field holding a copy of the index, so mines destroyed in the
+	 * field are private to it.
+	 * 
+	 * @return a new field
+	 */
+	public Field createField() {
+		return new Field(mapping.xDimension, mapping.yDimension, copy());
+	}
+
+	@Override
+	public void build() {
+		// the index is built when it is published
+	}
+
+	@Override
+	public void addMine(Position position) {
+		Logger.printErrorAndExit(SharedMineIndex.class,
+				"Cannot add a mine to a shared mine index");
+	}
+
+	@Override
+	public Position getMineAtXY(Position position) {
+		int cell = mapping.cell(position);
+		if (cell < 0)
+			return null;
+
+		int z = mapping.getDepth(cell);
+		if (z == 0 || destroyed.contains(cell))
+			return null;
+
+		return new Position(position.getX(), position.getY(), z);
+	}
+
+	@Override
+	public Position removeMineAtXY(Position position) {
+		int cell = mapping.cell(position);
+		if (cell < 0)
+			return null;
+
+		int z = mapping.getDepth(cell);
+		if (z == 0 || !destroyed.add(cell))
+			return null;
+
+		count--;
+		for (int depth = z; depth < destroyedDepths.length; depth += depth
+				& -depth)
+			destroyedDepths[depth]++;
+
+		int row = cell / mapping.width, column = cell % mapping.width;
+		increment(destroyedRows, row);
+		increment(destroyedColumns, column);
+
+		// shrink the bounding box past emptied rows and columns
+		if (count > 0) {
+			while (getRowCount(minRow) == 0)
+				minRow++;
+			while (getRowCount(maxRow) == 0)
+				maxRow--;
+			while (getColumnCount(minColumn) == 0)
+				minColumn++;
+			while (getColumnCount(maxColumn) == 0)
+				maxColumn--;
+		}
+
+		return new Position(position.getX(), position.getY(), z);
+	}
+
+	@Override
+	public int getMaxXDistance(Position position) {
+		if (count == 0)
+			return 0;
+
+		return Math.max(Math.abs(position.getX() - (mapping.x0 + maxColumn)),
+				Math.abs(position.getX() - (mapping.x0 + minColumn)));
+	}
+
+	@Override
+	public int getMaxYDistance(Position position) {
+		if (count == 0)
+			return 0;
+
+		return Math.max(Math.abs(position.getY() - (mapping.y0 + maxRow)),
+				Math.abs(position.getY() - (mapping.y0 + minRow)));
+	}
+
+	@Override
+	public int count() {
+		return count;
+	}
+
+	@Override
+	public int getNumMinesAtOrAbove(int depth) {
+		if (depth < 1)
+			return 0;
+
+		int numMines = mapping.minesAtOrAbove[Math.min(depth,
+				mapping.maxDepth)];
+		for (int z = Math.min(depth, destroyedDepths.length - 1); z > 0; z &= z - 1)
+			numMines -= destroyedDepths[z];
+
+		return numMines;
+	}
+
+	@Override
+	public MineIndex copy() {
+		SharedMineIndex copy = new SharedMineIndex(mapping);
+		copy.destroyed.addAll(destroyed);
+		copy.destroyedRows.putAll(destroyedRows);
+		copy.destroyedColumns.putAll(destroyedColumns);
+		copy.destroyedDepths = destroyedDepths.clone();
+		copy.count = count;
+		copy.minRow = minRow;
+		copy.maxRow = maxRow;
+		copy.minColumn = minColumn;
+		copy.maxColumn = maxColumn;
+
+		return copy;
+	}
+
+	/**
+	 * Returns the number of remaining mines of a row of the grid.
+	 */
+	private int getRowCount(int row) {
+		Integer numDestroyed = destroyedRows.get(row);
+		return mapping.getRowCount(row)
+				- (numDestroyed == null ? 0 : numDestroyed);
+	}
+
+	/**
+	 * Returns the number of remaining mines of a column of the grid.
+	 */
+	private int getColumnCount(int column) {
+		Integer numDestroyed = destroyedColumns.get(column);
+		return mapping.getColumnCount(column)
+				- (numDestroyed == null ? 0 : numDestroyed);
+	}
+
+	private static void increment(Map<Integer, Integer> counts, int key) {
+		Integer count = counts.get(key);
+		counts.put(key, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * Publishes the mines of a field into a shared mine index file. The file
+	 * is written under a temporary name and then renamed, so processes
+	 * attaching to it never see a partial file. Files published for earlier
+	 * versions of the same field file (see {@link #getSharedFile(File, File)})
+	 * are deleted; processes attached to them keep their mappings.
+	 * 
+	 * @param field
+	 *            the parsed mines of a field
+	 * @param sharedFile
+	 *            the file to publish the index to
+	 * @throws IOException
+	 */
+	public static void publish(FieldGrid field, File sharedFile)
+			throws IOException {
+		long start = System.nanoTime();
+
+		int minX = 0, minY = 0, maxX = -1, maxY = -1, maxZ = 0;
+		if (field.getNumMines() > 0) {
+			minX = minY = Integer.MAX_VALUE;
+			maxX = maxY = Integer.MIN_VALUE;
+			for (int mine = 0; mine < field.getNumMines(); mine++) {
+				minX = Math.min(minX, field.getX(mine));
+				maxX = Math.max(maxX, field.getX(mine));
+				minY = Math.min(minY, field.getY(mine));
+				maxY = Math.max(maxY, field.getY(mine));
+				maxZ = Math.max(maxZ, field.getZ(mine));
+			}
+		}
+
+		int width = maxX - minX + 1, height = maxY - minY + 1;
+		if ((long) width * height > Integer.MAX_VALUE)
+			Logger.printErrorAndExit(SharedMineIndex.class, "A field of "
+					+ width + " by " + height
+					+ " positions is too large for a shared mine index");
+
+		File directory = sharedFile.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()
+				&& !directory.isDirectory())
+			throw new IOException("Could not create " + directory);
+
+		File temp = File.createTempFile("mines", ".tmp", directory);
+		try {
+			RandomAccessFile file = new RandomAccessFile(temp, "rw");
+			try {
+				long cellsOffset = 4L * (HEADER_INTS + maxZ + 1 + height + width);
+				long length = cellsOffset + 2L * width * height;
+				file.setLength(length);
+
+				Mapping mapping = new Mapping(file.getChannel(), length,
+						FileChannel.MapMode.READ_WRITE);
+
+				// a later mine at the same position replaces an earlier one,
+				// as in the other indexes
+				int count = 0;
+				int[] depthCounts = new int[maxZ + 1];
+				int[] rowCounts = new int[height], columnCounts = new int[width];
+				for (int mine = 0; mine < field.getNumMines(); mine++) {
+					int x = field.getX(mine) - minX, y = field.getY(mine) - minY;
+					long offset = cellsOffset + 2L * ((long) y * width + x);
+
+					int replaced = mapping.getShort(offset) & 0xffff;
+					if (replaced != 0) {
+						depthCounts[replaced]--;
+					} else {
+						count++;
+						rowCounts[y]++;
+						columnCounts[x]++;
+					}
+
+					mapping.putShort(offset, (short) field.getZ(mine));
+					depthCounts[field.getZ(mine)]++;
+				}
+
+				int[] header = new int[] { MAGIC, VERSION,
+						field.getXDimension(), field.getYDimension(), minX,
+						minY, width, height, count, maxZ };
+				long offset = 0;
+				for (int value : header)
+					offset = mapping.putInt(offset, value);
+				for (int value : depthCounts)
+					offset = mapping.putInt(offset, value);
+				for (int value : rowCounts)
+					offset = mapping.putInt(offset, value);
+				for (int value : columnCounts)
+					offset = mapping.putInt(offset, value);
+
+				mapping.force();
+
+			} finally {
+				file.close();
+			}
+
+			Files.move(temp.toPath(), sharedFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+
+		deleteSuperseded(sharedFile);
+
+		Logger.printDebug(SharedMineIndex.class, "Published {} in {} ms",
+				sharedFile, (System.nanoTime() - start) / 1000000);
+	}
+
+	/**
+	 * Attaches to a shared mine index file.
+	 * 
+	 * @param sharedFile
+	 *            a file published by {@link #publish(FieldGrid, File)}
+	 * @return an index without destroyed mines
+	 * @throws IOException
+	 */
+	public static SharedMineIndex attach(File sharedFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(sharedFile, "r");
+		try {
+			Mapping mapping = new Mapping(file.getChannel(), file.length(),
+					FileChannel.MapMode.READ_ONLY);
+			if (file.length() < 4 * HEADER_INTS
+					|| mapping.getInt(0) != MAGIC
+					|| mapping.getInt(4) != VERSION)
+				throw new IOException(sharedFile
+						+ " is not a shared mine index");
+
+			mapping.readHeader();
+			if (mapping.cellsOffset + 2L * mapping.width * mapping.height != file
+					.length())
+				throw new IOException(sharedFile + " is truncated");
+
+			return new SharedMineIndex(mapping);
+
+		} finally {
+			// the mapping remains valid after the file is closed
+			file.close();
+		}
+	}
+
+	/**
+	 * Loads a field through a directory of shared mine index files, attaching
+	 * to the field file's published index or, if none was published since the
+	 * field file last changed, parsing and publishing it first.
+	 * 
+	 * @param fieldFile
+	 *            the path of a field file
+	 * @param directory
+	 *            the directory of the shared mine index files
+	 * @return a field holding a private copy of the shared index
+	 */
+	public static Field load(String fieldFile, File directory) {
+		File sharedFile = getSharedFile(new File(fieldFile), directory);
+
+		try {
+			if (!sharedFile.isFile()) {
+				publish(new FieldGrid(fieldFile), sharedFile);
+			} else {
+				Logger.printDebug(SharedMineIndex.class, "Attaching to {}",
+						sharedFile);
+			}
+
+			return attach(sharedFile).createField();
+
+		} catch (IOException e) {
+			Logger.printErrorAndExit(SharedMineIndex.class,
+					"Could not share field file " + fieldFile + ": "
+							+ e.getMessage());
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the shared mine index file of a field file: a file named after
+	 * the SHA-256 hash of the field file's canonical path followed by its
+	 * modification time and length, so an edited field file is published anew
+	 * and its earlier files are recognized by their common prefix.
+	 * 
+	 * @param fieldFile
+	 *            a field file
+	 * @param directory
+	 *            the directory of the shared mine index files
+	 * @return the shared mine index file
+	 */
+	public static File getSharedFile(File fieldFile, File directory) {
+		String path;
+		try {
+			path = fieldFile.getCanonicalPath();
+		} catch (IOException e) {
+			path = fieldFile.getAbsolutePath();
+		}
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest(path.getBytes(StandardCharsets.UTF_8)))
+			sb.append(String.format("%02x", b & 0xff));
+		sb.append(VERSION_SEPARATOR)
+				.append(Long.toHexString(fieldFile.lastModified()))
+				.append(VERSION_SEPARATOR)
+				.append(Long.toHexString(fieldFile.length()));
+
+		return new File(directory, sb.toString() + ".mines");
+	}
+
+	/**
+	 * Deletes the files published for earlier versions of the field file of a
+	 * shared mine index file, which share its name up to the first version
+	 * separator.
+	 */
+	private static void deleteSuperseded(File sharedFile) {
+		String name = sharedFile.getName();
+		int separator = name.indexOf(VERSION_SEPARATOR);
+		File[] files = sharedFile.getAbsoluteFile().getParentFile()
+				.listFiles();
+		if (separator < 0 || files == null)
+			return;
+
+		String prefix = name.substring(0, separator + 1);
+		for (File file : files)
+			if (file.getName().startsWith(prefix)
+					&& file.getName().endsWith(".mines")
+					&& !file.getName().equals(name) && file.delete())
+				Logger.printDebug(SharedMineIndex.class,
+						"Deleted superseded {}", file);
+	}
+
+	public static void main(String[] args) throws IOException {
+		File directory = new File(Settings.SHARED_FIELD_DIRECTORY);
+		List<String> fieldFiles = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-directory") && i + 1 < args.length)
+				directory = new File(args[++i]);
+			else
+				fieldFiles.add(args[i]);
+		}
+
+		if (fieldFiles.isEmpty()) {
+			System.err.println("Invalid command line arguments");
+			System.err
+					.println("Usage: java SharedMineIndex [-directory directory] <field-file>...");
+
+			System.exit(1);
+		}
+
+		for (String fieldFile : fieldFiles) {
+			File sharedFile = getSharedFile(new File(fieldFile), directory);
+			publish(new FieldGrid(fieldFile), sharedFile);
+			System.out.println(fieldFile + " -> " + sharedFile);
+		}
+	}
+
+	/**
+	 * An inner class holding a mapped shared mine index file. Files larger
+	 * than a single mapping are mapped in chunks, which are a multiple of four
+	 * bytes, so no aligned int or short spans two chunks.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	private static class Mapping {
+		private static final int CHUNK_SHIFT = 30;
+
+		private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+		private final MappedByteBuffer[] chunks;
+
+		/** The header of the file. */
+		private int xDimension, yDimension, x0, y0, width, height, count,
+				maxDepth;
+
+		/** The number of mines at or above each depth. */
+		private int[] minesAtOrAbove;
+
+		/** The offsets of the row counts, column counts and cells. */
+		private long rowsOffset, columnsOffset, cellsOffset;
+
+		public Mapping(FileChannel channel, long length,
+				FileChannel.MapMode mode) throws IOException {
+			chunks = new MappedByteBuffer[(int) ((length + CHUNK_MASK) >>> CHUNK_SHIFT)];
+			for (int chunk = 0; chunk < chunks.length; chunk++) {
+				long position = (long) chunk << CHUNK_SHIFT;
+				chunks[chunk] = channel.map(mode, position,
+						Math.min(length - position, CHUNK_MASK + 1));
+			}
+		}
+
+		public void readHeader() {
+			xDimension = getInt(8);
+			yDimension = getInt(12);
+			x0 = getInt(16);
+			y0 = getInt(20);
+			width = getInt(24);
+			height = getInt(28);
+			count = getInt(32);
+			maxDepth = getInt(36);
+
+			minesAtOrAbove = new int[maxDepth + 1];
+			for (int z = 1; z <= maxDepth; z++)
+				minesAtOrAbove[z] = minesAtOrAbove[z - 1]
+						+ getInt(4L * (HEADER_INTS + z));
+
+			rowsOffset = 4L * (HEADER_INTS + maxDepth + 1);
+			columnsOffset = rowsOffset + 4L * height;
+			cellsOffset = columnsOffset + 4L * width;
+		}
+
+		/**
+		 * Returns the grid cell of an XY-coordinate or -1 if it lies outside
+		 * of the grid.
+		 */
+		public int cell(Position position) {
+			long x = (long) position.getX() - x0, y = (long) position.getY()
+					- y0;
+			if (x < 0 || x >= width || y < 0 || y >= height)
+				return -1;
+
+			return (int) y * width + (int) x;
+		}
+
+		public int getDepth(int cell) {
+			return getShort(cellsOffset + 2L * cell) & 0xffff;
+		}
+
+		public int getRowCount(int row) {
+			return getInt(rowsOffset + 4L * row);
+		}
+
+		public int getColumnCount(int column) {
+			return getInt(columnsOffset + 4L * column);
+		}
+
+		public int getInt(long offset) {
+			return chunks[(int) (offset >>> CHUNK_SHIFT)]
+					.getInt((int) (offset & CHUNK_MASK));
+		}
+
+		public short getShort(long offset) {
+			return chunks[(int) (offset >>> CHUNK_SHIFT)]
+					.getShort((int) (offset & CHUNK_MASK));
+		}
+
+		/**
+		 * Writes an int and returns the offset following it.
+		 */
+		public long putInt(long offset, int value) {
+			chunks[(int) (offset >>> CHUNK_SHIFT)].putInt(
+					(int) (offset & CHUNK_MASK), value);
+
+			return offset + 4;
+		}
+
+		public void putShort(long offset, short value) {
+			chunks[(int) (offset >>> CHUNK_SHIFT)].putShort(
+					(int) (offset & CHUNK_MASK), value);
+		}
+
+		public void force() {
+			for (MappedByteBuffer chunk : chunks)
+				chunk.force();
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package com.jonas.evaluator;
+
+/**
+ * This is the base class of the events published by an {@link Evaluator} as it
+ * simulates a script (see {@link EvaluationPublisher}).
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public abstract class SimulationEvent {
+	/** The simulation step at which the event occurred. */
+	private final int step;
+
+	public SimulationEvent(int step) {
+		this.step = step;
+	}
+
+	public int getStep() {
+		return step;
+	}
+}
@@ -0,0 +1,84 @@
+package com.jonas.evaluator;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class is a {@link SimulationEvent} describing a single simulation step:
+ * the executed instructions, the position of the vessel after the step and the
+ * mines destroyed during the step. If requested, it also holds the rendered
+ * state of the field before and after the step.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class StepEvent extends SimulationEvent {
+	private final StepInstructions instructions;
+
+	/** The position of the vessel after the step. */
+	private final Position vessel;
+
+	/** The positions of the mines destroyed during the step. */
+	private final List<Position> destroyedMines;
+
+	/** The rendered field before and after the step, or null. */
+	private final String preFrame, postFrame;
+
+	public StepEvent(int step, StepInstructions instructions, Position vessel,
+			List<Position> destroyedMines, String preFrame, String postFrame) {
+		super(step);
+
+		this.instructions = instructions;
+		this.vessel = vessel;
+		this.destroyedMines = Collections.unmodifiableList(destroyedMines);
+		this.preFrame = preFrame;
+		this.postFrame = postFrame;
+	}
+
+	public StepInstructions getInstructions() {
+		return instructions;
+	}
+
+	public Position getVessel() {
+		return vessel;
+	}
+
+	public List<Position> getDestroyedMines() {
+		return destroyedMines;
+	}
+
+	public int getMinesDestroyed() {
+		return destroyedMines.size();
+	}
+
+	/**
+	 * Returns the state of the field before the step as printed by an
+	 * {@link Evaluator}.
+	 * 
+	 * @return the rendered field or null if frames were not requested
+	 */
+	public String getPreFrame() {
+		return preFrame;
+	}
+
+	/**
+	 * Returns the state of the field after the step as printed by an
+	 * {@link Evaluator}.
+	 * 
+	 * @return the rendered field or null if frames were not requested
+	 */
+	public String getPostFrame() {
+		return postFrame;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("StepEvent [step=").append(getStep())
+				.append(", instructions=").append(instructions)
+				.append(", vessel=").append(vessel)
+				.append(", minesDestroyed=").append(getMinesDestroyed())
+				.append("]");
+		return builder.toString();
+	}
+}
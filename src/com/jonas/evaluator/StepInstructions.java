@@ -1,6 +1,8 @@
 package com.jonas.evaluator;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -9,51 +11,13 @@ import java.util.Map;
 /**
  * This class holds instructions for a single simulation step. An instruction
  * may either be a "move" (see {@link MOVE_MAP}) or "firing pattern" (see
- * {@link FIRING_PATTERN_MAP}). A single step main contain, at most, one move
+ * {@link FIRING_PATTERNS}). A single step main contain, at most, one move
  * instruction and/or one firing pattern instruction.
  * 
  * @author Jonas Michel, jonas.r.michel@gmail.com
  * 
  */
 public class StepInstructions {
-	/** Holds mappings from firing pattern names to offest positions. */
-	public static final Map<String, List<Position>> FIRING_PATTERN_MAP;
-	static {
-		Map<String, List<Position>> fpMap = new HashMap<String, List<Position>>();
-		fpMap.put("alpha", new ArrayList<Position>() {
-			{
-				add(new Position(-1, -1));
-				add(new Position(-1, 1));
-				add(new Position(1, -1));
-				add(new Position(1, 1));
-			}
-		});
-		fpMap.put("beta", new ArrayList<Position>() {
-			{
-				add(new Position(-1, 0));
-				add(new Position(0, -1));
-				add(new Position(0, 1));
-				add(new Position(1, 0));
-			}
-		});
-		fpMap.put("gamma", new ArrayList<Position>() {
-			{
-				add(new Position(-1, 0));
-				add(new Position(0, 0));
-				add(new Position(1, 0));
-			}
-		});
-		fpMap.put("delta", new ArrayList<Position>() {
-			{
-				add(new Position(0, -1));
-				add(new Position(0, 0));
-				add(new Position(0, 1));
-			}
-		});
-
-		FIRING_PATTERN_MAP = Collections.unmodifiableMap(fpMap);
-	}
-
 	/** Holds mappings from move names to a position translation. */
 	public static final Map<String, Position> MOVE_MAP;
 	static {
@@ -66,6 +30,38 @@ public class StepInstructions {
 		MOVE_MAP = Collections.unmodifiableMap(mMap);
 	}
 
+	/**
+	 * Holds mappings from firing pattern names to compiled patterns: the
+	 * built-in patterns and those loaded at startup by
+	 * {@link #loadPatterns()} (see {@link FiringPattern}).
+	 */
+	public static final Map<String, FiringPattern> FIRING_PATTERNS;
+
+	/** The modifiable map backing {@link #FIRING_PATTERNS}. */
+	private static final Map<String, FiringPattern> fpMap;
+	static {
+		fpMap = new HashMap<String, FiringPattern>();
+		fpMap.put("alpha", new FiringPattern("alpha", "x.x", "...", "x.x"));
+		fpMap.put("beta", new FiringPattern("beta", ".x.", "x.x", ".x."));
+		fpMap.put("gamma", new FiringPattern("gamma", "...", "xxx", "..."));
+		fpMap.put("delta", new FiringPattern("delta", ".x.", ".x.", ".x."));
+
+		FIRING_PATTERNS = Collections.unmodifiableMap(fpMap);
+	}
+
+	/** Whether or not the custom firing patterns have been loaded. */
+	private static boolean patternsLoaded = false;
+
+	/** The largest number of instructions, so a code fits in a byte. */
+	static final int MAX_INSTRUCTION_CODES = 255;
+
+	/**
+	 * Holds the names of all instructions in ascending order, the index of a
+	 * name being the instruction's code in compact encodings.
+	 */
+	static volatile String[] INSTRUCTION_CODES = instructionCodes(fpMap
+			.keySet());
+
 	/** Holds the set of instructions. */
 	private List<String> instructions;
 
@@ -88,13 +84,74 @@ public class StepInstructions {
 	}
 
 	public static boolean isFiringPattern(String instruction) {
-		return FIRING_PATTERN_MAP.containsKey(instruction);
+		return FIRING_PATTERNS.containsKey(instruction);
 	}
 
 	public static boolean isMove(String instruction) {
 		return MOVE_MAP.containsKey(instruction);
 	}
 
+	/**
+	 * Loads the firing patterns defined in the pattern definition file named
+	 * by the "evaluator.patterns" system property, if any. Entry points call
+	 * this at startup, before any script is parsed or compiled, so that an
+	 * invalid pattern file is reported as an ordinary error rather than
+	 * failing the initialization of this class. Later calls do nothing.
+	 */
+	public static synchronized void loadPatterns() {
+		if (patternsLoaded)
+			return;
+		patternsLoaded = true;
+
+		String patternFile = System.getProperty("evaluator.patterns");
+		if (patternFile == null || patternFile.isEmpty())
+			return;
+
+		Map<String, FiringPattern> patterns = new HashMap<String, FiringPattern>(
+				fpMap);
+		for (FiringPattern pattern : FiringPattern.load(patternFile)) {
+			if (patterns.containsKey(pattern.getName())
+					|| MOVE_MAP.containsKey(pattern.getName()))
+				Logger.printErrorAndExit(StepInstructions.class,
+						"Duplicate instruction " + pattern.getName());
+
+			patterns.put(pattern.getName(), pattern);
+		}
+
+		String[] codes = instructionCodes(patterns.keySet());
+		fpMap.putAll(patterns);
+		INSTRUCTION_CODES = codes;
+	}
+
+	/**
+	 * Returns the names of the moves and of a set of firing patterns in
+	 * ascending order.
+	 */
+	private static String[] instructionCodes(Collection<String> patterns) {
+		List<String> names = new ArrayList<String>();
+		names.addAll(patterns);
+		names.addAll(MOVE_MAP.keySet());
+		if (names.size() > MAX_INSTRUCTION_CODES)
+			Logger.printErrorAndExit(StepInstructions.class,
+					"Too many firing patterns");
+
+		String[] codes = names.toArray(new String[names.size()]);
+		Arrays.sort(codes);
+
+		return codes;
+	}
+
+	/**
+	 * Returns the code of an instruction (see {@link #INSTRUCTION_CODES}).
+	 * 
+	 * @param instruction
+	 *            a valid instruction
+	 * @return the instruction's code
+	 */
+	static int getCode(String instruction) {
+		return Arrays.binarySearch(INSTRUCTION_CODES, instruction);
+	}
+
 	/**
 	 * Adds an instruction after performing some validation steps.
 	 * 
@@ -105,35 +162,49 @@ public class StepInstructions {
 		if (instruction.trim().isEmpty()) {
 			// blank instruction, ignore
 			return;
+		}
+
+		String error = checkInstruction(instruction);
+		if (error != null)
+			Logger.printErrorAndExit(Script.class, error);
+
+		// set appropriate validation flag
+		if (FIRING_PATTERNS.containsKey(instruction))
+			hasFire = true;
+		else
+			hasMove = true;
 
-		} else if (instructions.size() == Settings.MAX_STEP_INSTRUCTIONS) {
+		// the instruction is valid
+		instructions.add(instruction);
+	}
+
+	/**
+	 * Validates an instruction without adding it.
+	 * 
+	 * @param instruction
+	 *            a non-blank step instruction (move or fire)
+	 * @return a message describing why the instruction cannot be added or
+	 *         null if it is valid
+	 */
+	public String checkInstruction(String instruction) {
+		if (instructions.size() == Settings.MAX_STEP_INSTRUCTIONS) {
 			// too many instructions
-			Logger.printErrorAndExit(Script.class, "Too many instructions");
+			return "Too many instructions";
 
 		} else if (!isFiringPattern(instruction) && !isMove(instruction)) {
 			// invalid instruction
-			Logger.printErrorAndExit(Script.class, "Invalid instruction "
-					+ instruction);
+			return "Invalid instruction " + instruction;
 
 		} else if (hasFire && isFiringPattern(instruction)) {
 			// too many fire instructions
-			Logger.printErrorAndExit(Script.class,
-					"Too many firing pattern instructions");
+			return "Too many firing pattern instructions";
 
 		} else if (hasMove && isMove(instruction)) {
 			// too many move instructions
-			Logger.printErrorAndExit(Script.class, "Too many move instructions");
-
-		} else {
-			// set appropriate validation flag
-			if (FIRING_PATTERN_MAP.containsKey(instruction))
-				hasFire = true;
-			else
-				hasMove = true;
-
-			// the instruction is valid
-			instructions.add(instruction);
+			return "Too many move instructions";
 		}
+
+		return null;
 	}
 
 	@Override
@@ -0,0 +1,190 @@
+package com.jonas.evaluator;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * This class is a source of script instructions that reads a script file as
+ * the evaluation advances, instead of reading it entirely up front like a
+ * {@link Script}. Lines are parsed only when their step is requested, so the
+ * first step starts immediately and the memory used does not depend on the
+ * length of the script. A bounded window of the most recent steps (see
+ * {@link Settings#SCRIPT_WINDOW_STEPS}) is retained for steps that are
+ * requested again. The script is completed at the end of the file.
+ * 
+ * Since lines are parsed as the evaluation advances, an invalid line fails the
+ * evaluation at the step that reaches it rather than before the first step:
+ * the preceding steps have already been simulated and printed when the error
+ * exits the JVM or, in server and worker mode, is thrown as an
+ * {@link EvaluationException}. Likewise, a time budget exceeded while reading
+ * the script is thrown mid-run as a {@link BudgetExceededException}. The
+ * script file is closed at its end or when the script is closed (see
+ * {@link #close()}), whichever comes first.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class StreamingScript implements InstructionSource {
+	/** Reads the script's lines, or null once the script is read. */
+	private BufferedReader reader;
+
+	/** The name of the script in error messages. */
+	private String name;
+
+	/** The budget bounding the reading of the script, or null. */
+	private Budget budget;
+
+	/** The number of lines read so far. */
+	private long numLines;
+
+	/** Holds the most recently parsed steps. */
+	private ArrayDeque<StepInstructions> window;
+
+	/** The number of steps parsed so far. */
+	private int numParsedSteps;
+
+	public StreamingScript(String scriptFile) {
+		this(scriptFile, null);
+	}
+
+	public StreamingScript(String scriptFile, Budget budget) {
+		name = scriptFile;
+		this.budget = budget;
+
+		try {
+			open(InputFileModel.open(scriptFile));
+
+		} catch (FileNotFoundException e) {
+			Logger.printErrorAndExit(StreamingScript.class, "File not found "
+					+ scriptFile);
+
+		} catch (IOException e) {
+			Logger.printErrorAndExit(StreamingScript.class,
+					"Could not read file " + scriptFile + ": " + e.getMessage());
+		}
+	}
+
+	public StreamingScript(Reader reader, String name) {
+		this(reader, name, null);
+	}
+
+	public StreamingScript(Reader reader, String name, Budget budget) {
+		this.name = name;
+		this.budget = budget;
+
+		open(new BufferedReader(reader));
+	}
+
+	private void open(BufferedReader reader) {
+		this.reader = reader;
+
+		window = new ArrayDeque<StepInstructions>();
+
+		// read ahead the first step to validate the script
+		if (!hasInstructions(1))
+			Logger.printErrorAndExit(StreamingScript.class,
+					"Please provide a non-empty script file");
+	}
+
+	@Override
+	public boolean hasInstructions(int step) {
+		while (numParsedSteps < step && reader != null)
+			readStep();
+
+		return step <= numParsedSteps;
+	}
+
+	@Override
+	public StepInstructions getInstructions(int step) {
+		if (!hasInstructions(step))
+			throw new IndexOutOfBoundsException("Step " + step
+					+ " is beyond the end of " + name);
+
+		int age = numParsedSteps - step;
+		if (age >= window.size())
+			throw new IllegalStateException("Step " + step
+					+ " is no longer retained by " + name);
+
+		// the window's last step is the most recently parsed step
+		Iterator<StepInstructions> it = window.descendingIterator();
+		for (int i = 0; i < age; i++)
+			it.next();
+
+		return it.next();
+	}
+
+	/**
+	 * Returns whether or not the script file has been read entirely.
+	 * 
+	 * @return true if the end of the script was reached, false otherwise
+	 */
+	public boolean isCompleted() {
+		return reader == null;
+	}
+
+	/**
+	 * Closes the script file if it has not been read entirely. Steps parsed
+	 * before remain available, but the script is completed after them.
+	 */
+	@Override
+	public void close() {
+		if (reader == null)
+			return;
+
+		try {
+			reader.close();
+		} catch (IOException e) {
+			// nothing left to read
+		}
+
+		reader = null;
+	}
+
+	/**
+	 * Reads lines until the next step is parsed or the end of the script is
+	 * reached.
+	 */
+	private void readStep() {
+		try {
+			for (String line; (line = reader.readLine()) != null;) {
+				Logger.printDebug(StreamingScript.class, "processing line {}",
+						line);
+
+				if (budget != null
+						&& ++numLines % InputFileModel.BUDGET_CHECK_INTERVAL == 0
+						&& budget.isTimeExceeded())
+					throw new BudgetExceededException(
+							TerminationReason.TIME_BUDGET,
+							"Time budget exceeded while reading " + name);
+
+				StepInstructions stepInstructions = Script.parseLine(line);
+				if (stepInstructions == null)
+					continue;
+
+				window.addLast(stepInstructions);
+				if (window.size() > Settings.SCRIPT_WINDOW_STEPS)
+					window.removeFirst();
+
+				numParsedSteps++;
+				return;
+			}
+
+			// the end of the script
+			close();
+
+		} catch (IOException e) {
+			close();
+			Logger.printErrorAndExit(StreamingScript.class,
+					"Could not read file " + name);
+
+		} catch (RuntimeException e) {
+			// an invalid line or an exceeded budget ends the script
+			close();
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.jonas.evaluator;
+
+/**
+ * This enumeration lists the reasons for which an evaluation ends. The first
+ * three are the natural ends of a simulation (see
+ * {@link Evaluator#completed()}); the others mean that the evaluation exceeded
+ * its {@link Budget}.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public enum TerminationReason {
+	MINES_CLEARED(false), SCRIPT_COMPLETED(false), MINE_PASSED(false),
+	STEP_BUDGET(true), TIME_BUDGET(true), OUTPUT_BUDGET(true),
+	MEMORY_BUDGET(true);
+
+	/** Whether or not the evaluation was ended by its budget. */
+	private final boolean budget;
+
+	private TerminationReason(boolean budget) {
+		this.budget = budget;
+	}
+
+	public boolean isBudget() {
+		return budget;
+	}
+}
@@ -0,0 +1,81 @@
+package com.jonas.evaluator;
+
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+
+/**
+ * This class subscribes to a stream of {@link SimulationEvent}s and prints
+ * them in the text format of an {@link Evaluator}, using the evaluator's own
+ * printing methods. It is meant for consumers of a published simulation; an
+ * evaluator that is not published prints its output directly. The stream's
+ * step events must hold frames (see {@link EvaluationPublisher}) to print the
+ * state of the field. Events are requested one at a time, so a slow output
+ * stream slows down the simulation rather than growing its buffer.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class TextOutputSubscriber implements Flow.Subscriber<SimulationEvent> {
+	private PrintStream out;
+
+	private Flow.Subscription subscription;
+
+	/** Signaled once the stream completes. */
+	private CountDownLatch done = new CountDownLatch(1);
+
+	/** The error that terminated the stream, or null. */
+	private volatile Throwable error;
+
+	public TextOutputSubscriber(PrintStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		this.subscription = subscription;
+		subscription.request(1);
+	}
+
+	@Override
+	public void onNext(SimulationEvent event) {
+		if (event instanceof StepEvent) {
+			StepEvent stepEvent = (StepEvent) event;
+
+			Evaluator.printPreStep(out, stepEvent.getStep(),
+					stepEvent.getPreFrame());
+			Evaluator.printPostStep(out, stepEvent.getInstructions(),
+					stepEvent.getPostFrame());
+
+		} else if (event instanceof ScoreEvent) {
+			Evaluator.printScore(out, ((ScoreEvent) event).getScore());
+		}
+
+		subscription.request(1);
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		error = throwable;
+		done.countDown();
+	}
+
+	@Override
+	public void onComplete() {
+		out.flush();
+		done.countDown();
+	}
+
+	/**
+	 * Waits for the stream to complete.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void await() throws InterruptedException {
+		done.await();
+	}
+
+	public Throwable getError() {
+		return error;
+	}
+}
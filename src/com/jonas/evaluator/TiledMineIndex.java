@@ -0,0 +1,480 @@
+package com.jonas.evaluator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This is an implementation of a {@link MineIndex} for very large fields. The
+ * XY-plane is partitioned into square tiles (see {@link Settings#TILE_SIZE})
+ * and each tile holds its own mines along with a summary of them: their count
+ * and their bounding box.
+ * 
+ * Point lookups and removals only touch the tile containing the point; a
+ * removal recomputes the tile's summary only if the removed mine lay on its
+ * edge. The field's bounding box is combined from the tile summaries once, when
+ * the index is built; when a field has many tiles (see
+ * {@link Settings#PARALLEL_TILES}), the summaries are combined by fanning out
+ * over the common {@link ForkJoinPool}. From then on the index counts the mines
+ * in each column and row of the bounding box, and a removal that empties an
+ * edge column or row moves that edge inward past the empty ones. Since edges
+ * only ever move inward, keeping the bounding box costs amortized constant time
+ * per removal, and extent queries visit no tiles. Depth queries, which are made
+ * on every step, visit no tiles either: the index keeps a Fenwick tree of the
+ * number of mines at each depth, which a removal updates in logarithmic time.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class TiledMineIndex implements MineIndex {
+	/** A list for collecting unsorted mine positions. */
+	private List<Position> mineList;
+
+	/** Maps tile keys to tiles. */
+	private Map<Long, Tile> tileMap;
+
+	/** Holds every tile, including emptied ones. */
+	private Tile[] tiles;
+
+	/** The current number of mines. */
+	private int numMines;
+
+	/** A Fenwick tree counting the mines at each depth. */
+	private int[] depthCounts;
+
+	/** The bounding box of all mines. */
+	private int minX, maxX, minY, maxY;
+
+	/** The number of mines in each column and row of the bounding box. */
+	private int[] columnCounts, rowCounts;
+
+	/** The x- and y-coordinate of the first column and row counted. */
+	private int originX, originY;
+
+	public TiledMineIndex() {
+		mineList = new ArrayList<Position>();
+	}
+
+	@Override
+	public void build() {
+		Logger.printDebug(TiledMineIndex.class, "Building tiled mine index");
+
+		tileMap = new HashMap<Long, Tile>();
+		for (Position mine : mineList) {
+			long key = key(mine);
+			Tile tile = tileMap.get(key);
+			if (tile == null)
+				tileMap.put(key, tile = new Tile());
+
+			tile.mines.put(mine, mine);
+		}
+
+		tiles = tileMap.values().toArray(new Tile[tileMap.size()]);
+		for (Tile tile : tiles)
+			tile.summarize();
+
+		int maxDepth = 0;
+		for (Position mine : mineList)
+			maxDepth = Math.max(maxDepth, mine.getZ());
+
+		depthCounts = new int[maxDepth + 1];
+		for (Position mine : mineList)
+			updateDepthCount(mine.getZ(), 1);
+
+		numMines = mineList.size();
+		combineBounds();
+
+		columnCounts = new int[numMines == 0 ? 0 : maxX - minX + 1];
+		rowCounts = new int[numMines == 0 ? 0 : maxY - minY + 1];
+		originX = minX;
+		originY = minY;
+		for (Position mine : mineList) {
+			columnCounts[mine.getX() - originX]++;
+			rowCounts[mine.getY() - originY]++;
+		}
+
+		// we no longer need the list of mine positions
+		mineList.clear();
+
+		Logger.printDebug(TiledMineIndex.class, "{} mines in {} tiles",
+				numMines, tiles.length);
+	}
+
+	@Override
+	public void addMine(Position position) {
+		mineList.add(position);
+	}
+
+	@Override
+	public Position getMineAtXY(Position position) {
+		Tile tile = tileMap.get(key(position));
+		return tile == null ? null : tile.mines.get(position);
+	}
+
+	@Override
+	public Position removeMineAtXY(Position position) {
+		Tile tile = tileMap.get(key(position));
+		if (tile == null)
+			return null;
+
+		Position mine = tile.mines.remove(position);
+		if (mine == null)
+			return null;
+
+		numMines--;
+		updateDepthCount(mine.getZ(), -1);
+		tile.remove(mine);
+		shrinkBounds(mine);
+
+		return mine;
+	}
+
+	@Override
+	public int getMaxXDistance(Position position) {
+		if (numMines == 0)
+			return 0;
+
+		return Math.max(Math.abs(position.getX() - maxX),
+				Math.abs(position.getX() - minX));
+	}
+
+	@Override
+	public int getMaxYDistance(Position position) {
+		if (numMines == 0)
+			return 0;
+
+		return Math.max(Math.abs(position.getY() - maxY),
+				Math.abs(position.getY() - minY));
+	}
+
+	@Override
+	public int count() {
+		return numMines;
+	}
+
+	@Override
+	public int getNumMinesAtOrAbove(int depth) {
+		int numMines = 0;
+		for (int z = Math.min(depth, depthCounts.length - 1); z > 0; z &= z - 1)
+			numMines += depthCounts[z];
+
+		return numMines;
+	}
+
+	@Override
+	public MineIndex copy() {
+		TiledMineIndex copy = new TiledMineIndex();
+
+		// mine positions are never modified by the index, so they can be
+		// shared between copies
+		copy.tileMap = new HashMap<Long, Tile>();
+		copy.tiles = new Tile[tiles.length];
+		int i = 0;
+		for (Map.Entry<Long, Tile> entry : tileMap.entrySet()) {
+			Tile tile = new Tile(entry.getValue());
+			copy.tileMap.put(entry.getKey(), tile);
+			copy.tiles[i++] = tile;
+		}
+
+		copy.numMines = numMines;
+		copy.depthCounts = depthCounts.clone();
+		copy.minX = minX;
+		copy.maxX = maxX;
+		copy.minY = minY;
+		copy.maxY = maxY;
+		copy.columnCounts = columnCounts.clone();
+		copy.rowCounts = rowCounts.clone();
+		copy.originX = originX;
+		copy.originY = originY;
+
+		return copy;
+	}
+
+	/**
+	 * Returns the number of tiles holding at least one mine.
+	 * 
+	 * @return the number of non-empty tiles
+	 */
+	public int getNumTiles() {
+		int numTiles = 0;
+		for (Tile tile : tiles)
+			if (tile.count > 0)
+				numTiles++;
+
+		return numTiles;
+	}
+
+	/**
+	 * Moves the edges of the bounding box inward past the columns and rows
+	 * that a removal emptied.
+	 * 
+	 * @param mine
+	 *            the removed mine
+	 */
+	private void shrinkBounds(Position mine) {
+		int column = --columnCounts[mine.getX() - originX];
+		int row = --rowCounts[mine.getY() - originY];
+		if (numMines == 0)
+			return;
+
+		if (column == 0) {
+			while (columnCounts[minX - originX] == 0)
+				minX++;
+			while (columnCounts[maxX - originX] == 0)
+				maxX--;
+		}
+
+		if (row == 0) {
+			while (rowCounts[minY - originY] == 0)
+				minY++;
+			while (rowCounts[maxY - originY] == 0)
+				maxY--;
+		}
+	}
+
+	/**
+	 * Combines the bounding box of all mines from the tile summaries.
+	 */
+	private void combineBounds() {
+		minX = invoke(new TileTask(tiles, 0, tiles.length) {
+
+			@Override
+			protected int summarize(Tile tile) {
+				return tile.count == 0 ? Integer.MAX_VALUE : tile.minX;
+			}
+
+			@Override
+			protected int combine(int a, int b) {
+				return Math.min(a, b);
+			}
+
+		});
+		maxX = invoke(new TileTask(tiles, 0, tiles.length) {
+
+			@Override
+			protected int summarize(Tile tile) {
+				return tile.count == 0 ? Integer.MIN_VALUE : tile.maxX;
+			}
+
+			@Override
+			protected int combine(int a, int b) {
+				return Math.max(a, b);
+			}
+
+		});
+		minY = invoke(new TileTask(tiles, 0, tiles.length) {
+
+			@Override
+			protected int summarize(Tile tile) {
+				return tile.count == 0 ? Integer.MAX_VALUE : tile.minY;
+			}
+
+			@Override
+			protected int combine(int a, int b) {
+				return Math.min(a, b);
+			}
+
+		});
+		maxY = invoke(new TileTask(tiles, 0, tiles.length) {
+
+			@Override
+			protected int summarize(Tile tile) {
+				return tile.count == 0 ? Integer.MIN_VALUE : tile.maxY;
+			}
+
+			@Override
+			protected int combine(int a, int b) {
+				return Math.max(a, b);
+			}
+
+		});
+	}
+
+	/**
+	 * Combines the tile summaries computed by a task, fanning out over the
+	 * common fork-join pool if there are many tiles.
+	 * 
+	 * @param task
+	 *            a task covering all tiles
+	 * @return the combined summary
+	 */
+	private static int invoke(TileTask task) {
+		if (task.hi - task.lo <= Settings.PARALLEL_TILES)
+			return task.compute();
+
+		return ForkJoinPool.commonPool().invoke(task);
+	}
+
+	/**
+	 * Adds to the number of mines at a depth.
+	 * 
+	 * @param depth
+	 *            a mine's depth
+	 * @param delta
+	 *            the number of mines added
+	 */
+	private void updateDepthCount(int depth, int delta) {
+		for (int z = depth; z < depthCounts.length; z += z & -z)
+			depthCounts[z] += delta;
+	}
+
+	/**
+	 * Returns the key of the tile containing an XY-coordinate.
+	 * 
+	 * @param position
+	 *            an XY-coordinate
+	 * @return the tile key
+	 */
+	private static long key(Position position) {
+		long tx = Math.floorDiv(position.getX(), Settings.TILE_SIZE);
+		long ty = Math.floorDiv(position.getY(), Settings.TILE_SIZE);
+
+		return (tx << 32) | (ty & 0xffffffffL);
+	}
+
+	/**
+	 * An inner class holding the mines of a single tile and their summary.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	private static class Tile {
+		private HashMap<Position, Position> mines;
+
+		private int count, minX, maxX, minY, maxY;
+
+		public Tile() {
+			mines = new HashMap<Position, Position>();
+		}
+
+		public Tile(Tile tile) {
+			mines = new HashMap<Position, Position>(tile.mines);
+
+			count = tile.count;
+			minX = tile.minX;
+			maxX = tile.maxX;
+			minY = tile.minY;
+			maxY = tile.maxY;
+		}
+
+		/**
+		 * Updates the summary after a mine was removed from the tile.
+		 * 
+		 * @param mine
+		 *            the removed mine
+		 */
+		public void remove(Position mine) {
+			count--;
+
+			if (mine.getX() == minX || mine.getX() == maxX
+					|| mine.getY() == minY || mine.getY() == maxY)
+				summarize();
+		}
+
+		/**
+		 * Recomputes the summary from the tile's mines.
+		 */
+		public void summarize() {
+			count = mines.size();
+			minX = minY = Integer.MAX_VALUE;
+			maxX = maxY = Integer.MIN_VALUE;
+
+			for (Position mine : mines.values()) {
+				minX = Math.min(minX, mine.getX());
+				maxX = Math.max(maxX, mine.getX());
+				minY = Math.min(minY, mine.getY());
+				maxY = Math.max(maxY, mine.getY());
+			}
+		}
+	}
+
+	/**
+	 * An inner class that summarizes a range of tiles and combines the tiles'
+	 * summaries, splitting the range in half until it is small enough.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	private static abstract class TileTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+
+		private final Tile[] tiles;
+
+		private final int lo, hi;
+
+		public TileTask(Tile[] tiles, int lo, int hi) {
+			this.tiles = tiles;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		/**
+		 * Summarizes a single tile.
+		 * 
+		 * @param tile
+		 *            a tile
+		 * @return the tile's summary
+		 */
+		protected abstract int summarize(Tile tile);
+
+		/**
+		 * Combines two summaries. Summaries are added by default.
+		 * 
+		 * @param a
+		 *            a summary
+		 * @param b
+		 *            another summary
+		 * @return the combined summary
+		 */
+		protected int combine(int a, int b) {
+			return a + b;
+		}
+
+		@Override
+		protected Integer compute() {
+			if (hi - lo <= Settings.PARALLEL_TILES) {
+				int result = lo < hi ? summarize(tiles[lo]) : 0;
+				for (int i = lo + 1; i < hi; i++)
+					result = combine(result, summarize(tiles[i]));
+
+				return result;
+			}
+
+			int mid = (lo + hi) >>> 1;
+			TileTask left = subtask(lo, mid), right = subtask(mid, hi);
+			left.fork();
+
+			return combine(right.compute(), left.join());
+		}
+
+		/**
+		 * Creates a task of this kind covering a sub-range of the tiles.
+		 * 
+		 * @param lo
+		 *            the index of the sub-range's first tile
+		 * @param hi
+		 *            the index after the sub-range's last tile
+		 * @return the sub-range's task
+		 */
+		private TileTask subtask(int lo, int hi) {
+			final TileTask parent = this;
+			return new TileTask(tiles, lo, hi) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected int summarize(Tile tile) {
+					return parent.summarize(tile);
+				}
+
+				@Override
+				protected int combine(int a, int b) {
+					return parent.combine(a, b);
+				}
+
+			};
+		}
+	}
+}
@@ -0,0 +1,323 @@
+package com.jonas.evaluator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+
+/**
+ * This class subscribes to a stream of {@link SimulationEvent}s and records
+ * them to a compact binary trace. Usage: $ java TraceRecorder <field-file>
+ * <script-file> <trace-file>
+ * 
+ * Each step is recorded as a delta: its instructions, the vessel's movement
+ * and the cells of the mines it destroyed. Before the first step, a keyframe
+ * holding the vessel's position and all active mines is recorded. Later
+ * keyframes are spaced by the number of active mines: a keyframe is recorded
+ * once at least {@link Settings#TRACE_KEYFRAME_INTERVAL} steps and as many
+ * bytes of deltas as the previous keyframe took have been recorded since it.
+ * The keyframes of a large field thus take at most as much of the trace as
+ * its deltas, rather than growing with the number of mines times the number
+ * of steps. The trace ends with an index of its keyframes, so a
+ * {@link TraceReplay} renders any step by seeking to the nearest keyframe and
+ * applying the deltas since, which take about as long to read as the
+ * keyframe itself. Coordinates are written as variable-length
+ * integers relative to the previous mine or the vessel. The stream's step
+ * events do not need to hold frames.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class TraceRecorder implements Flow.Subscriber<SimulationEvent> {
+	/** The first and last four bytes of a trace ("MCTR"). */
+	static final int MAGIC = 0x4d435452;
+
+	static final int VERSION = 1;
+
+	static final byte END_RECORD = 0, STEP_RECORD = 1, KEYFRAME_RECORD = 2,
+			SCORE_RECORD = 3;
+
+	private CountingOutputStream counter;
+
+	private DataOutputStream out;
+
+	private int keyframeInterval;
+
+	/** The offset at which the trace's records begin. */
+	private long recordsOffset;
+
+	/** The active mines in the order of the field file. */
+	private Map<Position, Position> mines;
+
+	/** The vessel's position before the next step. */
+	private Position vessel;
+
+	/** The steps and file offsets of the recorded keyframes. */
+	private List<long[]> keyframes = new ArrayList<long[]>();
+
+	/** The step of the last keyframe. */
+	private int keyframeStep;
+
+	/** The size of the last keyframe and the offset at which it ends. */
+	private long keyframeSize, keyframeEnd;
+
+	private int numSteps;
+
+	private Flow.Subscription subscription;
+
+	/** Signaled once the stream completes and the trace is written. */
+	private CountDownLatch done = new CountDownLatch(1);
+
+	/** The error that terminated the stream or the recording, or null. */
+	private volatile Throwable error;
+
+	public TraceRecorder(FieldGrid field, OutputStream out) throws IOException {
+		this(field, out, Settings.TRACE_KEYFRAME_INTERVAL);
+	}
+
+	/**
+	 * Creates a recorder of the evaluation of a field and writes the trace's
+	 * header.
+	 * 
+	 * @param field
+	 *            the evaluated field, before any step
+	 * @param out
+	 *            a stream to write the trace to, closed once the trace is
+	 *            written
+	 * @param keyframeInterval
+	 *            the number of steps between keyframes
+	 * @throws IOException
+	 */
+	public TraceRecorder(FieldGrid field, OutputStream out, int keyframeInterval)
+			throws IOException {
+		this.keyframeInterval = keyframeInterval;
+
+		counter = new CountingOutputStream(new BufferedOutputStream(out,
+				Settings.INPUT_BUFFER_SIZE));
+		this.out = new DataOutputStream(counter);
+
+		mines = new LinkedHashMap<Position, Position>();
+		for (int mine = 0; mine < field.getNumMines(); mine++) {
+			Position position = new Position(field.getX(mine),
+					field.getY(mine), field.getZ(mine));
+			mines.put(position, position);
+		}
+
+		Position center = field.getCenter();
+		vessel = new Position(center.getX(), center.getY(),
+				Settings.STARTING_DEPTH);
+
+		this.out.writeInt(MAGIC);
+		this.out.writeByte(VERSION);
+		this.out.writeInt(field.getXDimension());
+		this.out.writeInt(field.getYDimension());
+
+		writeVarInt(this.out, StepInstructions.INSTRUCTION_CODES.length);
+		for (String instruction : StepInstructions.INSTRUCTION_CODES)
+			this.out.writeUTF(instruction);
+
+		recordsOffset = counter.getCount();
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		this.subscription = subscription;
+		subscription.request(1);
+	}
+
+	@Override
+	public void onNext(SimulationEvent event) {
+		try {
+			if (event instanceof StepEvent)
+				writeStep((StepEvent) event);
+			else if (event instanceof ScoreEvent)
+				writeScore((ScoreEvent) event);
+
+		} catch (IOException e) {
+			subscription.cancel();
+			finish(e);
+			return;
+		}
+
+		subscription.request(1);
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		// keep the steps recorded so far replayable
+		finish(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		finish(null);
+	}
+
+	/**
+	 * Waits for the stream to complete and the trace to be written.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void await() throws InterruptedException {
+		done.await();
+	}
+
+	public Throwable getError() {
+		return error;
+	}
+
+	private void writeStep(StepEvent event) throws IOException {
+		if (keyframes.isEmpty()
+				|| (event.getStep() - keyframeStep >= keyframeInterval && counter
+						.getCount() - keyframeEnd >= keyframeSize))
+			writeKeyframe(event.getStep());
+
+		out.writeByte(STEP_RECORD);
+		writeVarInt(out, event.getStep());
+
+		List<String> instructions = event.getInstructions().getInstructions();
+		writeVarInt(out, instructions.size());
+		for (String instruction : instructions)
+			out.writeByte(StepInstructions.getCode(instruction));
+
+		Position moved = event.getVessel();
+		writeVarInt(out, moved.getX() - vessel.getX());
+		writeVarInt(out, moved.getY() - vessel.getY());
+		writeVarInt(out, moved.getZ() - vessel.getZ());
+		vessel = moved;
+
+		writeVarInt(out, event.getDestroyedMines().size());
+		for (Position mine : event.getDestroyedMines()) {
+			writeVarInt(out, mine.getX() - vessel.getX());
+			writeVarInt(out, mine.getY() - vessel.getY());
+			mines.remove(mine);
+		}
+
+		numSteps = event.getStep();
+	}
+
+	private void writeKeyframe(int step) throws IOException {
+		long offset = counter.getCount();
+		keyframes.add(new long[] { step, offset });
+
+		out.writeByte(KEYFRAME_RECORD);
+		writeVarInt(out, step);
+		out.writeInt(vessel.getX());
+		out.writeInt(vessel.getY());
+		out.writeInt(vessel.getZ());
+
+		writeVarInt(out, mines.size());
+		int x = 0, y = 0;
+		for (Position mine : mines.keySet()) {
+			writeVarInt(out, mine.getX() - x);
+			writeVarInt(out, mine.getY() - y);
+			writeVarInt(out, mine.getZ());
+			x = mine.getX();
+			y = mine.getY();
+		}
+
+		keyframeStep = step;
+		keyframeEnd = counter.getCount();
+		keyframeSize = keyframeEnd - offset;
+	}
+
+	private void writeScore(ScoreEvent event) throws IOException {
+		out.writeByte(SCORE_RECORD);
+		writeVarInt(out, event.getScore());
+	}
+
+	/**
+	 * Writes the keyframe index and closes the trace.
+	 */
+	private void finish(Throwable throwable) {
+		error = throwable;
+
+		try {
+			out.writeByte(END_RECORD);
+
+			long indexOffset = counter.getCount();
+			out.writeLong(recordsOffset);
+			out.writeInt(numSteps);
+			out.writeInt(keyframes.size());
+			for (long[] keyframe : keyframes) {
+				out.writeInt((int) keyframe[0]);
+				out.writeLong(keyframe[1]);
+			}
+
+			out.writeLong(indexOffset);
+			out.writeInt(MAGIC);
+			out.close();
+
+		} catch (IOException e) {
+			if (error == null)
+				error = e;
+		}
+
+		done.countDown();
+	}
+
+	/**
+	 * Writes a zig-zag encoded variable-length integer, which takes a single
+	 * byte for values between -64 and 63.
+	 */
+	static void writeVarInt(DataOutput out, int value) throws IOException {
+		int bits = (value << 1) ^ (value >> 31);
+		while ((bits & ~0x7f) != 0) {
+			out.writeByte((bits & 0x7f) | 0x80);
+			bits >>>= 7;
+		}
+
+		out.writeByte(bits);
+	}
+
+	/**
+	 * Reads an integer written by {@link #writeVarInt(DataOutput, int)}.
+	 */
+	static int readVarInt(DataInput in) throws IOException {
+		int bits = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = in.readByte();
+			bits |= (b & 0x7f) << shift;
+			if (b >= 0)
+				break;
+		}
+
+		return (bits >>> 1) ^ -(bits & 1);
+	}
+
+	public static void main(String[] args) throws Exception {
+		StepInstructions.loadPatterns();
+
+		if (args.length != 3) {
+			System.err.println("Invalid command line arguments");
+			System.err
+					.println("Usage: java TraceRecorder <field-file> <script-file> <trace-file>");
+
+			System.exit(1);
+		}
+
+		FieldGrid grid = new FieldGrid(args[0]);
+		Evaluator evaluator = new Evaluator(new Field(grid), new Script(args[1]));
+
+		EvaluationPublisher publisher = new EvaluationPublisher(evaluator, false);
+		TraceRecorder recorder = new TraceRecorder(grid, new FileOutputStream(
+				args[2]));
+		publisher.subscribe(recorder);
+		publisher.run();
+		recorder.await();
+
+		if (recorder.getError() != null)
+			Logger.printErrorAndExit(TraceRecorder.class,
+					"Could not record trace " + args[2] + ": "
+							+ recorder.getError());
+	}
+}
@@ -0,0 +1,306 @@
+package com.jonas.evaluator;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * This class replays a trace written by a {@link TraceRecorder}. Usage: $ java
+ * TraceReplay <trace-file> [step [pre|post]]
+ * 
+ * Given a step, the field before (pre) or after (post) the step is printed in
+ * the format of {@link Field#toString(Position)}. Otherwise the entire
+ * evaluation is printed in the text format of an {@link Evaluator}. A step is
+ * rendered by loading the nearest keyframe at or before it and applying the
+ * recorded deltas up to the step, without simulating the script.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class TraceReplay {
+	private String traceFile;
+
+	private int xDimension, yDimension;
+
+	/** The instructions in the order of their codes. */
+	private String[] instructions;
+
+	/** The offset at which the trace's records begin. */
+	private long recordsOffset;
+
+	private int numSteps;
+
+	/** The steps and file offsets of the keyframes, in ascending order. */
+	private int[] keyframeSteps;
+
+	private long[] keyframeOffsets;
+
+	public TraceReplay(String traceFile) throws IOException {
+		this.traceFile = traceFile;
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(traceFile)));
+		try {
+			if (in.readInt() != TraceRecorder.MAGIC
+					|| in.readByte() != TraceRecorder.VERSION)
+				throw new IOException("Not a trace file");
+
+			xDimension = in.readInt();
+			yDimension = in.readInt();
+
+			instructions = new String[TraceRecorder.readVarInt(in)];
+			for (int i = 0; i < instructions.length; i++)
+				instructions[i] = in.readUTF();
+
+		} finally {
+			in.close();
+		}
+
+		RandomAccessFile file = new RandomAccessFile(traceFile, "r");
+		try {
+			file.seek(file.length() - 12);
+			long indexOffset = file.readLong();
+			if (file.readInt() != TraceRecorder.MAGIC)
+				throw new IOException("Truncated trace file");
+
+			file.seek(indexOffset);
+			recordsOffset = file.readLong();
+			numSteps = file.readInt();
+			keyframeSteps = new int[file.readInt()];
+			keyframeOffsets = new long[keyframeSteps.length];
+			for (int i = 0; i < keyframeSteps.length; i++) {
+				keyframeSteps[i] = file.readInt();
+				keyframeOffsets[i] = file.readLong();
+			}
+
+		} finally {
+			file.close();
+		}
+	}
+
+	public int getXDimension() {
+		return xDimension;
+	}
+
+	public int getYDimension() {
+		return yDimension;
+	}
+
+	/**
+	 * Returns the number of recorded steps.
+	 * 
+	 * @return the last recorded step
+	 */
+	public int getNumSteps() {
+		return numSteps;
+	}
+
+	public int getNumKeyframes() {
+		return keyframeSteps.length;
+	}
+
+	/**
+	 * Renders the field before or after a step, centered at the vessel.
+	 * 
+	 * @param step
+	 *            a recorded step
+	 * @param post
+	 *            true to render the field after the step, false to render it
+	 *            before the step
+	 * @return the step's frame
+	 * @throws IOException
+	 */
+	public String getFrame(int step, boolean post) throws IOException {
+		if (step < 1 || step > numSteps)
+			throw new IndexOutOfBoundsException("Step " + step
+					+ " is not recorded in " + traceFile);
+
+		// the last keyframe at or before the step
+		int keyframe = Arrays.binarySearch(keyframeSteps, step);
+		if (keyframe < 0)
+			keyframe = -keyframe - 2;
+
+		Cursor cursor = new Cursor(keyframeOffsets[keyframe]);
+		try {
+			while (cursor.step < step)
+				cursor.next();
+
+			if (post)
+				while (cursor.next() != TraceRecorder.STEP_RECORD)
+					;
+
+			return cursor.render();
+
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Prints the entire evaluation in the text format of an {@link Evaluator}.
+	 * 
+	 * @param out
+	 *            a stream to print to
+	 * @throws IOException
+	 */
+	public void print(PrintStream out) throws IOException {
+		String ls = System.getProperty("line.separator");
+
+		Cursor cursor = new Cursor(recordsOffset);
+		try {
+			String frame = null;
+			for (byte record; (record = cursor.next()) != TraceRecorder.END_RECORD;) {
+				if (record == TraceRecorder.KEYFRAME_RECORD) {
+					// the frame before the first step
+					if (frame == null)
+						frame = cursor.render();
+
+				} else if (record == TraceRecorder.STEP_RECORD) {
+					out.println("Step " + (cursor.step - 1) + ls);
+					out.println(frame);
+					out.println(cursor.stepInstructions + ls);
+
+					frame = cursor.render();
+					out.println(frame);
+
+				} else if (cursor.score > 0) {
+					out.println("pass (" + cursor.score + ")");
+				} else {
+					out.println("fail (0)");
+				}
+			}
+
+		} finally {
+			cursor.close();
+		}
+
+		out.flush();
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1 || args.length > 3
+				|| (args.length == 3 && !args[2].equals("pre") && !args[2]
+						.equals("post"))) {
+			System.err.println("Invalid command line arguments");
+			System.err
+					.println("Usage: java TraceReplay <trace-file> [step [pre|post]]");
+
+			System.exit(1);
+		}
+
+		TraceReplay replay = new TraceReplay(args[0]);
+		if (args.length == 1)
+			replay.print(System.out);
+		else
+			System.out.println(replay.getFrame(Integer.parseInt(args[1]),
+					args.length == 3 && args[2].equals("post")));
+	}
+
+	/**
+	 * An inner class that reads the records of a trace in order and applies
+	 * them to the state of the field.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	private class Cursor implements Closeable {
+		private DataInputStream in;
+
+		/** The field's state, loaded by a keyframe. */
+		private Field field;
+
+		private MineIndex mineIndex;
+
+		private Position vessel;
+
+		/** The step whose record is read next. */
+		private int step;
+
+		/** The instructions of the last read step. */
+		private String stepInstructions;
+
+		private int score;
+
+		public Cursor(long offset) throws IOException {
+			FileInputStream file = new FileInputStream(traceFile);
+			file.getChannel().position(offset);
+
+			in = new DataInputStream(new BufferedInputStream(file,
+					Settings.INPUT_BUFFER_SIZE));
+		}
+
+		/**
+		 * Reads and applies the next record.
+		 * 
+		 * @return the type of the record
+		 * @throws IOException
+		 */
+		public byte next() throws IOException {
+			byte record = in.readByte();
+			if (record == TraceRecorder.KEYFRAME_RECORD)
+				readKeyframe();
+			else if (record == TraceRecorder.STEP_RECORD)
+				readStep();
+			else if (record == TraceRecorder.SCORE_RECORD)
+				score = readVarInt();
+			else if (record != TraceRecorder.END_RECORD)
+				throw new IOException("Corrupt trace file " + traceFile);
+
+			return record;
+		}
+
+		public String render() {
+			return field.toString(vessel);
+		}
+
+		private void readKeyframe() throws IOException {
+			step = readVarInt();
+			vessel = new Position(in.readInt(), in.readInt(), in.readInt());
+
+			mineIndex = Settings.MINE_INDEX_TYPE.newMineIndex();
+			int numMines = readVarInt(), x = 0, y = 0;
+			for (int i = 0; i < numMines; i++) {
+				x += readVarInt();
+				y += readVarInt();
+				mineIndex.addMine(new Position(x, y, readVarInt()));
+			}
+
+			mineIndex.build();
+			field = new Field(xDimension, yDimension, mineIndex);
+		}
+
+		private void readStep() throws IOException {
+			if (readVarInt() != step)
+				throw new IOException("Corrupt trace file " + traceFile);
+
+			String[] names = new String[readVarInt()];
+			for (int i = 0; i < names.length; i++)
+				names[i] = instructions[in.readUnsignedByte()];
+			stepInstructions = Util.join(" ", names);
+
+			vessel = new Position(vessel.getX() + readVarInt(), vessel.getY()
+					+ readVarInt(), vessel.getZ() + readVarInt());
+
+			int numDestroyed = readVarInt();
+			for (int i = 0; i < numDestroyed; i++)
+				mineIndex.removeMineAtXY(new Position(vessel.getX()
+						+ readVarInt(), vessel.getY() + readVarInt()));
+
+			step++;
+		}
+
+		private int readVarInt() throws IOException {
+			return TraceRecorder.readVarInt(in);
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
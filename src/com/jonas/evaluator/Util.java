@@ -7,6 +7,9 @@ package com.jonas.evaluator;
  * 
  */
 public class Util {
+	/** The largest depth range represented by a letter. */
+	public static final int MAX_LETTER_RANGE = 52;
+
 	/**
 	 * Translates a character to an integer representing depth range. The
 	 * letters a-z map to 1-26 and A-Z map to 27-52.
@@ -43,7 +46,7 @@ public class Util {
 	 */
 	public static char translateToLetter(int range) {
 		// validate range
-		if (range < 1 || range > 52)
+		if (range < 1 || range > MAX_LETTER_RANGE)
 			Logger.printErrorAndExit(Util.class, "Invalid range " + range);
 
 		char c = 'a';
@@ -0,0 +1,422 @@
+package com.jonas.evaluator.batch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.jonas.evaluator.Budget;
+import com.jonas.evaluator.Logger;
+import com.jonas.evaluator.ScoreAnalytics;
+import com.jonas.evaluator.ScriptCompiler;
+import com.jonas.evaluator.SharedMineIndex;
+import com.jonas.evaluator.TerminationReason;
+
+/**
+ * Run the BatchCoordinator to distribute the evaluation of many field/script
+ * pairs over several worker JVMs. Usage: $ java BatchCoordinator [-budget spec]
+ * [-script-cache directory] [-shared directory] [-analytics summary|json]
+ * (-workers n | -connect host:port,...) <jobs-file>
+ * 
+ * Each line of the jobs file names a field file and a script file separated by
+ * whitespace. With -workers, the coordinator spawns n local
+ * {@link BatchWorker} processes; with -connect, it uses already running
+ * workers. Jobs are handed out through a {@link JobQueue}, which keeps jobs
+ * sharing a field on the same worker. Every result is printed on standard
+ * output as a tab-separated "field-file script-file score termination-reason"
+ * line in completion order; failed jobs print "error" and a message in place
+ * of the score, as do jobs whose evaluation crashed
+ * {@value JobQueue#MAX_ATTEMPTS} workers. A -budget (see {@link Budget#parse(String)}) is passed on to
+ * spawned workers, which apply it to every job, and so are a -script-cache
+ * directory of compiled scripts (see {@link ScriptCompiler}) and a -shared
+ * directory of field indexes shared by the workers (see
+ * {@link SharedMineIndex}).
+ * 
+ * The results are also aggregated into {@link ScoreAnalytics}. Each worker's
+ * results are recorded by the thread dispatching its jobs, and the threads'
+ * analytics are merged once all jobs are done, so the aggregation takes
+ * constant memory and no locks. With -analytics, the merged report is printed
+ * on standard error.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class BatchCoordinator {
+	private List<Connection> connections = new ArrayList<Connection>();
+
+	private JobQueue queue;
+
+	private PrintStream out;
+
+	/** The budget passed on to spawned workers, or null. */
+	private Budget budget;
+
+	/** The compiled script cache passed on to spawned workers, or null. */
+	private File scriptCache;
+
+	/** The shared field directory passed on to spawned workers, or null. */
+	private File sharedDirectory;
+
+	/** The analytics of the results of the last run. */
+	private ScoreAnalytics analytics;
+
+	public BatchCoordinator(PrintStream out) {
+		this.out = out;
+	}
+
+	public void setBudget(Budget budget) {
+		this.budget = budget;
+	}
+
+	public void setScriptCache(File scriptCache) {
+		this.scriptCache = scriptCache;
+	}
+
+	public void setSharedDirectory(File sharedDirectory) {
+		this.sharedDirectory = sharedDirectory;
+	}
+
+	/**
+	 * Spawns a local worker process and connects to it.
+	 * 
+	 * @throws IOException
+	 */
+	public void spawnWorker() throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin"
+				+ File.separator + "java";
+		List<String> command = new ArrayList<String>();
+		command.add(java);
+		String patternFile = System.getProperty("evaluator.patterns");
+		if (patternFile != null)
+			command.add("-Devaluator.patterns=" + patternFile);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(BatchWorker.class.getName());
+		if (budget != null) {
+			command.add("-budget");
+			command.add(budget.toString());
+		}
+		if (scriptCache != null) {
+			command.add("-script-cache");
+			command.add(scriptCache.getPath());
+		}
+		if (sharedDirectory != null) {
+			command.add("-shared");
+			command.add(sharedDirectory.getPath());
+		}
+
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		Process process = builder.start();
+
+		// the worker announces its port on its first line of output
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				process.getInputStream()));
+		String line = in.readLine();
+		if (line == null || !line.startsWith(BatchWorker.PORT)) {
+			process.destroy();
+			throw new IOException("Worker did not announce its port");
+		}
+
+		int port = Integer.parseInt(line.split(BatchWorker.SEPARATOR)[1]);
+		Connection connection = new Connection(new Socket(
+				InetAddress.getLoopbackAddress(), port));
+		connection.process = process;
+		connections.add(connection);
+	}
+
+	/**
+	 * Connects to a running worker.
+	 * 
+	 * @param host
+	 *            the worker's host
+	 * @param port
+	 *            the worker's port
+	 * @throws IOException
+	 */
+	public void connectWorker(String host, int port) throws IOException {
+		connections.add(new Connection(new Socket(host, port)));
+	}
+
+	/**
+	 * Evaluates all jobs on the connected workers and prints their results.
+	 * 
+	 * @param jobs
+	 *            the jobs to evaluate
+	 * @throws InterruptedException
+	 */
+	public void run(List<Job> jobs) throws InterruptedException {
+		if (connections.isEmpty())
+			throw new IllegalStateException("No workers connected");
+
+		queue = new JobQueue(connections.size());
+		for (Job job : jobs)
+			queue.add(job);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		final ScoreAnalytics[] workerAnalytics = new ScoreAnalytics[connections
+				.size()];
+		for (int i = 0; i < connections.size(); i++) {
+			final int worker = i;
+			workerAnalytics[i] = new ScoreAnalytics();
+			Thread thread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					dispatch(worker, workerAnalytics[worker]);
+				}
+
+			}, "batch-worker-" + i);
+			thread.start();
+			threads.add(thread);
+		}
+
+		for (Thread thread : threads)
+			thread.join();
+
+		analytics = new ScoreAnalytics();
+		for (ScoreAnalytics results : workerAnalytics)
+			analytics.merge(results);
+
+		// any jobs left over could not be dispatched to a live worker
+		for (Job job : queue.drain()) {
+			printError(job, "No live workers");
+			analytics.recordError();
+		}
+	}
+
+	/**
+	 * Returns the analytics of the results of the last run.
+	 * 
+	 * @return the analytics or null if not yet run
+	 */
+	public ScoreAnalytics getAnalytics() {
+		return analytics;
+	}
+
+	/**
+	 * Hands out jobs to a worker until no jobs remain or the worker fails.
+	 * 
+	 * @param worker
+	 *            the worker's index
+	 * @param analytics
+	 *            the analytics recording the worker's results
+	 */
+	private void dispatch(int worker, ScoreAnalytics analytics) {
+		Connection connection = connections.get(worker);
+		while (true) {
+			Job job;
+			try {
+				job = queue.take(worker);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			if (job == null)
+				return;
+
+			String reply;
+			try {
+				connection.out.println(BatchWorker.JOB + BatchWorker.SEPARATOR
+						+ job.getId() + BatchWorker.SEPARATOR
+						+ job.getFieldFile() + BatchWorker.SEPARATOR
+						+ job.getScriptFile());
+				reply = connection.in.readLine();
+				if (reply == null)
+					throw new IOException("Connection closed");
+
+			} catch (IOException e) {
+				Logger.printWarning(BatchCoordinator.class,
+						"Worker {} failed: {}", worker, e.getMessage());
+
+				// leave the job to the remaining workers unless it has failed
+				// too many of them
+				if (!queue.fail(worker, job)) {
+					printError(job, "Failed " + job.getNumFailures()
+							+ " workers");
+					analytics.recordError();
+				}
+				return;
+			}
+
+			queue.complete();
+
+			String[] tokens = reply.split(BatchWorker.SEPARATOR);
+			if (tokens[0].equals(BatchWorker.RESULT) && tokens.length == 8) {
+				printResult(job, tokens[2] + "\t" + tokens[3]);
+				analytics.record(Integer.parseInt(tokens[2]),
+						TerminationReason.valueOf(tokens[3]),
+						Integer.parseInt(tokens[4]),
+						Integer.parseInt(tokens[5]),
+						Integer.parseInt(tokens[6]),
+						Integer.parseInt(tokens[7]));
+
+			} else {
+				String[] error = reply.split(BatchWorker.SEPARATOR, 3);
+				printError(job, error.length > 2 ? error[2] : reply);
+				analytics.recordError();
+			}
+		}
+	}
+
+	private synchronized void printResult(Job job, String result) {
+		out.println(job.getFieldFile() + "\t" + job.getScriptFile() + "\t"
+				+ result);
+	}
+
+	private synchronized void printError(Job job, String message) {
+		out.println(job.getFieldFile() + "\t" + job.getScriptFile()
+				+ "\terror\t" + message);
+	}
+
+	/**
+	 * Disconnects from all workers, shutting down spawned workers.
+	 */
+	public void close() {
+		for (Connection connection : connections) {
+			try {
+				if (connection.process != null)
+					connection.out.println(BatchWorker.QUIT);
+				connection.socket.close();
+
+				if (connection.process != null)
+					connection.process.waitFor();
+
+			} catch (IOException e) {
+				// nothing left to do
+			} catch (InterruptedException e) {
+				connection.process.destroy();
+			}
+		}
+	}
+
+	/**
+	 * Reads a jobs file.
+	 * 
+	 * @param jobsFile
+	 *            a file listing one field file and script file per line
+	 * @return the jobs
+	 * @throws IOException
+	 */
+	public static List<Job> readJobs(String jobsFile) throws IOException {
+		List<Job> jobs = new ArrayList<Job>();
+
+		BufferedReader br = new BufferedReader(new FileReader(jobsFile));
+		try {
+			String[] tokens;
+			for (String line; (line = br.readLine()) != null;) {
+				if (line.trim().isEmpty())
+					continue;
+
+				tokens = line.trim().split("\\s+");
+				if (tokens.length != 2)
+					Logger.printErrorAndExit(BatchCoordinator.class,
+							"Invalid job " + line);
+
+				jobs.add(new Job(jobs.size(), tokens[0], tokens[1]));
+			}
+
+		} finally {
+			br.close();
+		}
+
+		return jobs;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Budget budget = null;
+		File scriptCache = null, sharedDirectory = null;
+		String report = null;
+		while (args.length > 3
+				&& (args[0].equals("-budget")
+						|| args[0].equals("-script-cache")
+						|| args[0].equals("-shared") || args[0]
+							.equals("-analytics"))) {
+			if (args[0].equals("-budget"))
+				budget = Budget.parse(args[1]);
+			else if (args[0].equals("-script-cache"))
+				scriptCache = new File(args[1]);
+			else if (args[0].equals("-shared"))
+				sharedDirectory = new File(args[1]);
+			else
+				report = args[1];
+
+			args = Arrays.copyOfRange(args, 2, args.length);
+		}
+
+		if (args.length != 3
+				|| !(args[0].equals("-workers") || args[0].equals("-connect"))
+				|| (args[0].equals("-workers") && !args[1].matches("[1-9][0-9]*"))
+				|| (report != null && !report.equals("summary") && !report
+						.equals("json"))) {
+			System.err.println("Invalid command line arguments");
+			System.err
+					.println("Usage: java BatchCoordinator [-budget spec] [-script-cache directory] [-shared directory] [-analytics summary|json] (-workers n | -connect host:port,...) <jobs-file>");
+
+			System.exit(1);
+		}
+
+		List<Job> jobs = readJobs(args[2]);
+
+		BatchCoordinator coordinator = new BatchCoordinator(System.out);
+		coordinator.setBudget(budget);
+		coordinator.setScriptCache(scriptCache);
+		coordinator.setSharedDirectory(sharedDirectory);
+		try {
+			if (args[0].equals("-workers")) {
+				for (int i = Integer.parseInt(args[1]); i > 0; i--)
+					coordinator.spawnWorker();
+
+			} else {
+				for (String address : args[1].split(",")) {
+					String[] hostPort = address.trim().split(":");
+					coordinator.connectWorker(hostPort[0],
+							Integer.parseInt(hostPort[1]));
+				}
+			}
+
+			coordinator.run(jobs);
+
+			if (report != null)
+				coordinator.getAnalytics().report(System.err,
+						report.equals("json"));
+
+		} finally {
+			coordinator.close();
+		}
+	}
+
+	/**
+	 * An inner class holding the connection to a worker.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	private static class Connection {
+		private Socket socket;
+
+		private BufferedReader in;
+
+		private PrintWriter out;
+
+		/** The worker's process if spawned by the coordinator, or null. */
+		private Process process;
+
+		public Connection(Socket socket) throws IOException {
+			this.socket = socket;
+
+			in = new BufferedReader(new InputStreamReader(
+					socket.getInputStream()));
+			out = new PrintWriter(socket.getOutputStream(), true);
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package com.jonas.evaluator.batch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import com.jonas.evaluator.Budget;
+import com.jonas.evaluator.BudgetExceededException;
+import com.jonas.evaluator.EvaluationException;
+import com.jonas.evaluator.Evaluator;
+import com.jonas.evaluator.Field;
+import com.jonas.evaluator.FieldCache;
+import com.jonas.evaluator.InstructionSource;
+import com.jonas.evaluator.Logger;
+import com.jonas.evaluator.Script;
+import com.jonas.evaluator.ScriptCompiler;
+import com.jonas.evaluator.SharedMineIndex;
+import com.jonas.evaluator.StepInstructions;
+import com.jonas.evaluator.TerminationReason;
+
+/**
+ * This class is a batch worker process that evaluates jobs handed out by a
+ * {@link BatchCoordinator}. Usage: $ java BatchWorker [-budget spec]
+ * [-script-cache directory] [-shared directory] [port]
+ * 
+ * The worker listens on a loopback port (an ephemeral one by default) and
+ * announces it on standard output as "PORT &lt;port&gt;". A coordinator then
+ * sends one tab-separated "JOB &lt;id&gt; &lt;field-file&gt; &lt;script-file&gt;"
+ * line per job and the worker replies with "RESULT &lt;id&gt; &lt;score&gt;
+ * &lt;termination-reason&gt; &lt;step&gt; &lt;initial-mines&gt;
+ * &lt;volleys-fired&gt; &lt;kms-moved&gt;" or "ERROR &lt;id&gt;
+ * &lt;message&gt;". A "QUIT"
+ * line shuts the worker down. Parsed fields are kept in a {@link FieldCache},
+ * so jobs sharing a field only parse it once. With -budget, every job runs
+ * under its own copy of the given {@link Budget} and a job exceeding it
+ * results in a score of 0. With -script-cache, scripts are loaded through a
+ * {@link ScriptCompiler} caching their compiled form in the given directory,
+ * so a script is only parsed the first time any worker loads it. With
+ * -shared, fields are loaded through {@link SharedMineIndex} files in the
+ * given directory, so the workers on a host share one copy of each field.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class BatchWorker {
+	/** Protocol message types. */
+	public static final String PORT = "PORT", JOB = "JOB", RESULT = "RESULT",
+			ERROR = "ERROR", QUIT = "QUIT";
+
+	/** The separator of protocol message tokens. */
+	public static final String SEPARATOR = "\t";
+
+	private FieldCache fieldCache = new FieldCache();
+
+	/** The budget of each job, or null. */
+	private Budget budget;
+
+	/** The compiler loading scripts, or null to parse every script. */
+	private ScriptCompiler scriptCompiler;
+
+	public BatchWorker() {
+		this(null);
+	}
+
+	public BatchWorker(Budget budget) {
+		this.budget = budget;
+	}
+
+	public void setSharedDirectory(File sharedDirectory) {
+		fieldCache.setSharedDirectory(sharedDirectory);
+	}
+
+	public void setScriptCache(File cacheDirectory) {
+		scriptCompiler = cacheDirectory == null ? null : new ScriptCompiler(
+				cacheDirectory);
+	}
+
+	/**
+	 * Serves a coordinator connection until the coordinator quits or
+	 * disconnects.
+	 * 
+	 * @param socket
+	 *            a connection to a coordinator
+	 * @return true if the coordinator requested the worker to quit
+	 * @throws IOException
+	 */
+	public boolean serve(Socket socket) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				socket.getInputStream()));
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+
+		try {
+			for (String line; (line = in.readLine()) != null;) {
+				String[] tokens = line.split(SEPARATOR);
+				if (tokens[0].equals(QUIT))
+					return true;
+
+				if (!tokens[0].equals(JOB) || tokens.length != 4) {
+					out.println(ERROR + SEPARATOR + "-1" + SEPARATOR
+							+ "Invalid message " + line);
+					continue;
+				}
+
+				out.println(evaluate(new Job(Integer.parseInt(tokens[1]),
+						tokens[2], tokens[3])));
+			}
+
+			return false;
+
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Evaluates a job.
+	 * 
+	 * @param job
+	 *            a job
+	 * @return the job's result message
+	 */
+	public String evaluate(Job job) {
+		Budget jobBudget = budget == null ? null : new Budget(budget);
+		try {
+			InstructionSource script = scriptCompiler == null ? new Script(
+					job.getScriptFile(), jobBudget) : scriptCompiler.load(job
+					.getScriptFile());
+			Field field = fieldCache.get(job.getFieldFile(), jobBudget);
+			Evaluator evaluator = evaluate(field, script, jobBudget);
+
+			return result(job, evaluator.calculateScore(),
+					evaluator.getTerminationReason(), evaluator.getStep(),
+					evaluator.getInitialMines(), evaluator.getVolleysFired(),
+					evaluator.getKmsMoved());
+
+		} catch (BudgetExceededException e) {
+			// the budget was exceeded while loading the job's files
+			return result(job, 0, e.getReason(), 0, 0, 0, 0);
+
+		} catch (EvaluationException e) {
+			return ERROR + SEPARATOR + job.getId() + SEPARATOR
+					+ e.getMessage();
+
+		} catch (RuntimeException e) {
+			// a bug or a corrupt input must not take down the worker
+			Logger.printWarning(BatchWorker.class, "Job {} failed: {}",
+					job.getId(), e);
+			return ERROR + SEPARATOR + job.getId() + SEPARATOR + e;
+		}
+	}
+
+	private static String result(Job job, int score, TerminationReason reason,
+			int step, int initialMines, int volleysFired, int kmsMoved) {
+		return RESULT + SEPARATOR + job.getId() + SEPARATOR + score
+				+ SEPARATOR + reason + SEPARATOR + step + SEPARATOR
+				+ initialMines + SEPARATOR + volleysFired + SEPARATOR
+				+ kmsMoved;
+	}
+
+	/**
+	 * Evaluates a script on a field without printing anything.
+	 * 
+	 * @param field
+	 *            a field, which is destroyed by the evaluation
+	 * @param script
+	 *            a script
+	 * @return the script's score
+	 */
+	public static int score(Field field, Script script) {
+		return evaluate(field, script, null).calculateScore();
+	}
+
+	/**
+	 * Evaluates a script on a field within a budget without printing
+	 * anything.
+	 * 
+	 * @param field
+	 *            a field, which is destroyed by the evaluation
+	 * @param script
+	 *            a script or compiled script
+	 * @param budget
+	 *            a budget or null
+	 * @return the evaluator, holding the score and termination reason
+	 */
+	public static Evaluator evaluate(Field field, InstructionSource script,
+			Budget budget) {
+		Evaluator evaluator = new Evaluator(field, script);
+		evaluator.setOutput(new PrintStream(OutputStream.nullOutputStream()));
+		evaluator.setRender(false);
+		evaluator.setBudget(budget);
+		evaluator.evaluate();
+
+		return evaluator;
+	}
+
+	public static void main(String[] args) throws IOException {
+		StepInstructions.loadPatterns();
+
+		int port = 0;
+		Budget budget = null;
+		File scriptCache = null, sharedDirectory = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-budget") && i + 1 < args.length)
+				budget = Budget.parse(args[++i]);
+			else if (args[i].equals("-script-cache") && i + 1 < args.length)
+				scriptCache = new File(args[++i]);
+			else if (args[i].equals("-shared") && i + 1 < args.length)
+				sharedDirectory = new File(args[++i]);
+			else
+				port = Integer.parseInt(args[i]);
+		}
+
+		// report evaluation errors to the coordinator rather than exiting
+		Logger.setExitOnError(false);
+
+		ServerSocket server = new ServerSocket(port, 1,
+				InetAddress.getLoopbackAddress());
+		System.out.println(PORT + SEPARATOR + server.getLocalPort());
+		System.out.flush();
+
+		BatchWorker worker = new BatchWorker(budget);
+		worker.setScriptCache(scriptCache);
+		worker.setSharedDirectory(sharedDirectory);
+		try {
+			while (!worker.serve(server.accept()))
+				; // serve the next coordinator
+
+		} finally {
+			server.close();
+		}
+	}
+}
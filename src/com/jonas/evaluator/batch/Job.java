@@ -0,0 +1,57 @@
+package com.jonas.evaluator.batch;
+
+/**
+ * This class represents a single batch job: the evaluation of a script file on
+ * a field file.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class Job {
+	private final int id;
+
+	private final String fieldFile, scriptFile;
+
+	/** The number of workers that failed while evaluating the job. */
+	private int numFailures = 0;
+
+	public Job(int id, String fieldFile, String scriptFile) {
+		this.id = id;
+		this.fieldFile = fieldFile;
+		this.scriptFile = scriptFile;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getFieldFile() {
+		return fieldFile;
+	}
+
+	public String getScriptFile() {
+		return scriptFile;
+	}
+
+	public int getNumFailures() {
+		return numFailures;
+	}
+
+	/**
+	 * Records the failure of a worker evaluating the job.
+	 * 
+	 * @return the number of failures so far
+	 */
+	int fail() {
+		return ++numFailures;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("Job [id=").append(id).append(", fieldFile=")
+				.append(fieldFile).append(", scriptFile=").append(scriptFile)
+				.append("]");
+		return builder.toString();
+	}
+}
@@ -0,0 +1,178 @@
+package com.jonas.evaluator.batch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * This class distributes batch jobs among a fixed number of workers. Each job
+ * is routed to the deque of the worker that owns its field file, so that jobs
+ * sharing a field run on the same worker and find the field in its cache.
+ * Workers take jobs from the head of their own deque. A worker whose deque is
+ * empty steals a job from the tail of the fullest deque of another worker.
+ * 
+ * The queue also tracks the jobs taken but not yet completed. A worker that
+ * finds no pending jobs waits while other workers still hold jobs, since a
+ * failing worker hands its job back (see {@link #fail(int, Job)}) to be taken
+ * by a live worker. Jobs of failed workers are routed to the next live worker.
+ * A job whose evaluation has failed {@value #MAX_ATTEMPTS} workers is not
+ * handed back, so a job that crashes every worker it runs on takes down at
+ * most that many workers.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class JobQueue {
+	/** The number of workers a job may fail before it is given up. */
+	public static final int MAX_ATTEMPTS = 2;
+
+	/** Holds the pending jobs of each worker. */
+	private final List<Deque<Job>> deques;
+
+	/** Whether or not each worker has failed. */
+	private final boolean[] failed;
+
+	/** The number of jobs taken but neither completed nor handed back. */
+	private int numTaken = 0;
+
+	public JobQueue(int numWorkers) {
+		if (numWorkers < 1)
+			throw new IllegalArgumentException("Invalid number of workers "
+					+ numWorkers);
+
+		deques = new ArrayList<Deque<Job>>(numWorkers);
+		for (int i = 0; i < numWorkers; i++)
+			deques.add(new ArrayDeque<Job>());
+
+		failed = new boolean[numWorkers];
+	}
+
+	/**
+	 * Adds a job to the deque of the worker owning the job's field.
+	 * 
+	 * @param job
+	 *            a job
+	 */
+	public synchronized void add(Job job) {
+		deques.get(owner(job)).addLast(job);
+		notifyAll();
+	}
+
+	/**
+	 * Takes the next job of a worker, stealing one from another worker if the
+	 * worker has none. If no jobs are pending but other workers still hold
+	 * jobs, waits until they complete or hand them back.
+	 * 
+	 * @param worker
+	 *            the worker's index
+	 * @return the next job or null if no jobs remain
+	 * @throws InterruptedException
+	 */
+	public synchronized Job take(int worker) throws InterruptedException {
+		while (true) {
+			Job job = poll(worker);
+			if (job != null) {
+				numTaken++;
+				return job;
+			}
+
+			if (numTaken == 0)
+				return null;
+
+			wait();
+		}
+	}
+
+	/**
+	 * Records the completion of a job taken by a worker.
+	 */
+	public synchronized void complete() {
+		numTaken--;
+		notifyAll();
+	}
+
+	/**
+	 * Hands back the job of a failed worker, which takes no more jobs, to be
+	 * taken by the live workers, unless the job has failed
+	 * {@value #MAX_ATTEMPTS} workers.
+	 * 
+	 * @param worker
+	 *            the failed worker's index
+	 * @param job
+	 *            the job the worker failed to complete
+	 * @return true if the job was handed back, false if it is given up
+	 */
+	public synchronized boolean fail(int worker, Job job) {
+		failed[worker] = true;
+		numTaken--;
+
+		// move the failed worker's pending jobs along with its job
+		boolean retry = job.fail() < MAX_ATTEMPTS;
+		Deque<Job> pending = deques.get(worker);
+		if (retry)
+			pending.addFirst(job);
+		if (hasLiveWorkers())
+			for (Job next; (next = pending.pollFirst()) != null;)
+				deques.get(owner(next)).addLast(next);
+
+		notifyAll();
+		return retry;
+	}
+
+	/**
+	 * Removes and returns the jobs left over once all workers have failed.
+	 * 
+	 * @return the pending jobs
+	 */
+	public synchronized List<Job> drain() {
+		List<Job> jobs = new ArrayList<Job>();
+		for (Deque<Job> deque : deques) {
+			jobs.addAll(deque);
+			deque.clear();
+		}
+
+		return jobs;
+	}
+
+	private Job poll(int worker) {
+		Job job = deques.get(worker).pollFirst();
+		if (job != null)
+			return job;
+
+		// steal from the worker with the most pending jobs
+		Deque<Job> victim = null;
+		for (Deque<Job> deque : deques)
+			if (victim == null || deque.size() > victim.size())
+				victim = deque;
+
+		return victim.pollLast();
+	}
+
+	private boolean hasLiveWorkers() {
+		for (boolean workerFailed : failed)
+			if (!workerFailed)
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * Returns the index of the live worker owning a job's field, or of its
+	 * original owner if all workers have failed.
+	 * 
+	 * @param job
+	 *            a job
+	 * @return the owning worker's index
+	 */
+	private int owner(Job job) {
+		int owner = Math.floorMod(job.getFieldFile().hashCode(), deques.size());
+		for (int i = 0; i < failed.length; i++) {
+			int worker = (owner + i) % failed.length;
+			if (!failed[worker])
+				return worker;
+		}
+
+		return owner;
+	}
+}
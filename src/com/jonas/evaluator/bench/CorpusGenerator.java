@@ -0,0 +1,147 @@
+package com.jonas.evaluator.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.jonas.evaluator.Settings;
+import com.jonas.evaluator.StepInstructions;
+import com.jonas.evaluator.Util;
+
+/**
+ * This class generates synthetic field and script files of arbitrary scale.
+ * Files are written line-by-line so that fields far larger than the heap can be
+ * generated.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class CorpusGenerator {
+	/** The maximum depth range that can be encoded in a field file. */
+	public static final int MAX_DEPTH = 52;
+
+	/** The distributions from which mine depths are drawn. */
+	public enum DepthDistribution {
+		/** All depths are equally likely. */
+		UNIFORM,
+
+		/** Shallow depths are more likely than deep ones. */
+		SHALLOW,
+
+		/** Deep depths are more likely than shallow ones. */
+		DEEP
+	}
+
+	private Random random;
+
+	public CorpusGenerator(long seed) {
+		random = new Random(seed);
+	}
+
+	/**
+	 * Writes a field file.
+	 * 
+	 * @param file
+	 *            the field file to write
+	 * @param width
+	 *            the field's x dimension
+	 * @param height
+	 *            the field's y dimension
+	 * @param density
+	 *            the probability that a position holds a mine
+	 * @param depths
+	 *            the distribution of mine depths
+	 * @throws IOException
+	 */
+	public void writeField(File file, int width, int height, double density,
+			DepthDistribution depths) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file),
+				1 << 16);
+		try {
+			char[] line = new char[width];
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++)
+					line[x] = random.nextDouble() < density ? Util
+							.translateToLetter(nextDepth(depths))
+							: Settings.EMPTY_POSITION_CHARACTER;
+
+				writer.write(line);
+				writer.newLine();
+			}
+
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes a script file. Each step holds an optional firing pattern and an
+	 * optional move instruction.
+	 * 
+	 * @param file
+	 *            the script file to write
+	 * @param length
+	 *            the number of steps
+	 * @param fireProbability
+	 *            the probability that a step fires a pattern
+	 * @param moveProbability
+	 *            the probability that a step moves the vessel
+	 * @throws IOException
+	 */
+	public void writeScript(File file, int length, double fireProbability,
+			double moveProbability) throws IOException {
+		List<String> patterns = new ArrayList<String>(
+				StepInstructions.FIRING_PATTERNS.keySet());
+		List<String> moves = new ArrayList<String>(
+				StepInstructions.MOVE_MAP.keySet());
+
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file),
+				1 << 16);
+		try {
+			List<String> instructions = new ArrayList<String>();
+			for (int step = 0; step < length; step++) {
+				instructions.clear();
+				if (random.nextDouble() < fireProbability)
+					instructions.add(patterns.get(random.nextInt(patterns
+							.size())));
+				if (random.nextDouble() < moveProbability)
+					instructions.add(moves.get(random.nextInt(moves.size())));
+
+				// every step needs at least one instruction
+				if (instructions.isEmpty())
+					instructions.add(moves.get(random.nextInt(moves.size())));
+
+				writer.write(Util.join(" ",
+						instructions.toArray(new String[instructions.size()])));
+				writer.newLine();
+			}
+
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Draws a mine depth from a distribution.
+	 * 
+	 * @param depths
+	 *            a depth distribution
+	 * @return a depth in the range 1-52
+	 */
+	private int nextDepth(DepthDistribution depths) {
+		switch (depths) {
+		case SHALLOW:
+			return 1 + Math.min(random.nextInt(MAX_DEPTH),
+					random.nextInt(MAX_DEPTH));
+		case DEEP:
+			return 1 + Math.max(random.nextInt(MAX_DEPTH),
+					random.nextInt(MAX_DEPTH));
+		default:
+			return 1 + random.nextInt(MAX_DEPTH);
+		}
+	}
+}
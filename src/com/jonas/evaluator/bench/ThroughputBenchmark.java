@@ -0,0 +1,169 @@
+package com.jonas.evaluator.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+import com.jonas.evaluator.CountingOutputStream;
+import com.jonas.evaluator.Evaluator;
+import com.jonas.evaluator.Field;
+import com.jonas.evaluator.Script;
+import com.jonas.evaluator.StepInstructions;
+
+/**
+ * Run the ThroughputBenchmark to measure the full field parsing and evaluation
+ * pipeline on a synthetic corpus (see {@link CorpusGenerator}). Usage: $ java
+ * ThroughputBenchmark [-width n] [-height n] [-density d] [-depths
+ * uniform|shallow|deep] [-steps n] [-mode render|headless|both] [-runs n]
+ * [-dir directory]
+ * 
+ * Each run is reported as a single line of JSON holding the parse time, the
+ * number of simulated steps per second, the number of bytes written and the
+ * allocation rate of the evaluating thread.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class ThroughputBenchmark {
+	private static final long SEED = 42;
+
+	private File fieldFile, scriptFile;
+
+	public ThroughputBenchmark(File fieldFile, File scriptFile) {
+		this.fieldFile = fieldFile;
+		this.scriptFile = scriptFile;
+	}
+
+	/**
+	 * Parses and evaluates the corpus once and reports the measurements.
+	 * 
+	 * @param render
+	 *            whether or not the evaluation renders each step
+	 * @return a JSON object holding the measurements
+	 */
+	public String run(boolean render) {
+		long allocatedStart = allocatedBytes();
+
+		// parse the corpus
+		long parseStart = System.nanoTime();
+		Field field = new Field(fieldFile.getPath());
+		Script script = new Script(scriptFile.getPath());
+		long parseNanos = System.nanoTime() - parseStart;
+
+		// evaluate the script, discarding (but counting) its output
+		CountingOutputStream counter = new CountingOutputStream(
+				OutputStream.nullOutputStream());
+		Evaluator evaluator = new Evaluator(field, script);
+		evaluator.setOutput(new PrintStream(counter, false));
+		evaluator.setRender(render);
+
+		long evaluateStart = System.nanoTime();
+		evaluator.evaluate();
+		long evaluateNanos = System.nanoTime() - evaluateStart;
+
+		long allocated = allocatedBytes() - allocatedStart;
+		long totalNanos = parseNanos + evaluateNanos;
+		int steps = evaluator.getStep() - 1;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"field\":\"").append(fieldFile.getName()).append('"');
+		sb.append(",\"script\":\"").append(scriptFile.getName()).append('"');
+		sb.append(",\"mode\":\"").append(render ? "render" : "headless")
+				.append('"');
+		sb.append(",\"parseMillis\":").append(parseNanos / 1e6);
+		sb.append(",\"evaluateMillis\":").append(evaluateNanos / 1e6);
+		sb.append(",\"steps\":").append(steps);
+		sb.append(",\"stepsPerSecond\":").append(
+				evaluateNanos == 0 ? 0 : steps / (evaluateNanos / 1e9));
+		sb.append(",\"bytesWritten\":").append(counter.getCount());
+		sb.append(",\"allocatedBytes\":").append(allocated);
+		sb.append(",\"allocationRate\":").append(
+				allocated < 0 || totalNanos == 0 ? -1 : allocated
+						/ (totalNanos / 1e9));
+		sb.append(",\"score\":").append(evaluator.calculateScore());
+		sb.append('}');
+
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the number of bytes allocated by the current thread.
+	 * 
+	 * @return the allocated bytes, or -1 if unsupported by the JVM
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory
+				.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+			return -1;
+
+		return ((com.sun.management.ThreadMXBean) bean)
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	public static void main(String[] args) throws IOException {
+		StepInstructions.loadPatterns();
+
+		int width = 1000, height = 1000, steps = 100, runs = 3;
+		double density = 0.05;
+		String depths = "uniform", mode = "both", dir = null;
+
+		// parse the optional command line arguments
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-width"))
+				width = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-height"))
+				height = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-density"))
+				density = Double.parseDouble(args[i + 1]);
+			else if (args[i].equals("-depths"))
+				depths = args[i + 1];
+			else if (args[i].equals("-steps"))
+				steps = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-mode"))
+				mode = args[i + 1];
+			else if (args[i].equals("-runs"))
+				runs = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-dir"))
+				dir = args[i + 1];
+			else {
+				System.err.println("Invalid command line argument " + args[i]);
+				System.err
+						.println("Usage: java ThroughputBenchmark [-width n] [-height n] [-density d] [-depths uniform|shallow|deep] [-steps n] [-mode render|headless|both] [-runs n] [-dir directory]");
+
+				System.exit(1);
+			}
+		}
+
+		// generate the synthetic corpus
+		File directory = dir == null ? new File(
+				System.getProperty("java.io.tmpdir")) : new File(dir);
+		directory.mkdirs();
+
+		String name = width + "x" + height + "-" + density + "-" + depths;
+		File fieldFile = new File(directory, "field-" + name + ".txt");
+		File scriptFile = new File(directory, "script-" + steps + ".txt");
+
+		CorpusGenerator generator = new CorpusGenerator(SEED);
+		generator.writeField(fieldFile, width, height, density,
+				CorpusGenerator.DepthDistribution.valueOf(depths.toUpperCase()));
+		generator.writeScript(scriptFile, steps, 0.5, 0.5);
+
+		// run the pipeline
+		ThroughputBenchmark benchmark = new ThroughputBenchmark(fieldFile,
+				scriptFile);
+		for (int run = 0; run < runs; run++) {
+			if (!mode.equals("headless"))
+				System.out.println(benchmark.run(true));
+			if (!mode.equals("render"))
+				System.out.println(benchmark.run(false));
+		}
+
+		if (dir == null) {
+			fieldFile.delete();
+			scriptFile.delete();
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package com.jonas.evaluator.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.jonas.evaluator.TerminationReason;
+
+/**
+ * Run the EvaluationClient to evaluate a script on a field using a running
+ * {@link EvaluationServer}. Usage: $ java EvaluationClient (-port n | -socket
+ * path) [-trace] [-inline] <field-file> <script-file>
+ * 
+ * By default the server reads the field and script files itself; with -inline,
+ * the client sends their content instead. The client prints the same output as
+ * the evaluator: the full simulation with -trace, only the score otherwise.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class EvaluationClient {
+	private SocketChannel channel;
+
+	private BufferedReader in;
+
+	private PrintWriter out;
+
+	public EvaluationClient(SocketChannel channel) {
+		this.channel = channel;
+
+		in = new BufferedReader(new InputStreamReader(
+				Channels.newInputStream(channel)));
+		out = new PrintWriter(Channels.newOutputStream(channel));
+	}
+
+	/**
+	 * Sends an evaluation request and prints the server's response.
+	 * 
+	 * @param fieldFile
+	 *            the path of a field file
+	 * @param scriptFile
+	 *            the path of a script file
+	 * @param trace
+	 *            whether or not to print the full simulation
+	 * @param inline
+	 *            whether or not to send the files' content
+	 * @return true if the evaluation succeeded, false otherwise
+	 * @throws IOException
+	 */
+	public boolean evaluate(String fieldFile, String scriptFile,
+			boolean trace, boolean inline) throws IOException {
+		String traceToken = trace ? EvaluationServer.SEPARATOR
+				+ EvaluationServer.TRACE : "";
+
+		if (inline) {
+			List<String> fieldLines = Files.readAllLines(Path.of(fieldFile));
+			List<String> scriptLines = Files.readAllLines(Path.of(scriptFile));
+
+			out.print(EvaluationServer.INLINE + EvaluationServer.SEPARATOR
+					+ fieldLines.size() + EvaluationServer.SEPARATOR
+					+ scriptLines.size() + traceToken + '\n');
+			for (String line : fieldLines)
+				out.print(line + '\n');
+			for (String line : scriptLines)
+				out.print(line + '\n');
+
+		} else {
+			out.print(EvaluationServer.EVAL + EvaluationServer.SEPARATOR
+					+ fieldFile + EvaluationServer.SEPARATOR + scriptFile
+					+ traceToken + '\n');
+		}
+		out.flush();
+
+		// print the trace, which ends with the score, as it is streamed
+		String tracePrefix = EvaluationServer.TRACE
+				+ EvaluationServer.SEPARATOR;
+		String response;
+		boolean traced = false;
+		while ((response = in.readLine()) != null
+				&& response.startsWith(tracePrefix)) {
+			System.out.println(response.substring(tracePrefix.length()));
+			traced = true;
+		}
+
+		if (response == null)
+			throw new IOException("Connection closed");
+
+		String[] tokens = response.split(EvaluationServer.SEPARATOR);
+		if (!tokens[0].equals(EvaluationServer.OK)) {
+			System.err.println(tokens.length > 1 ? tokens[1] : response);
+			System.out.println("fail (0)");
+			return false;
+		}
+
+		// without a trace, print just the score
+		if (!traced) {
+			int score = Integer.parseInt(tokens[1]);
+			if (TerminationReason.valueOf(tokens[2]).isBudget())
+				System.err.println("Evaluation ended: " + tokens[2]);
+
+			System.out.println(score > 0 ? "pass (" + score + ")" : "fail (0)");
+		}
+
+		return true;
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		String socketPath = null, fieldFile = null, scriptFile = null;
+		int port = -1;
+		boolean trace = false, inline = false;
+
+		// parse the command line arguments
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-port") && i + 1 < args.length)
+				port = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-socket") && i + 1 < args.length)
+				socketPath = args[++i];
+			else if (args[i].equals("-trace"))
+				trace = true;
+			else if (args[i].equals("-inline"))
+				inline = true;
+			else if (fieldFile == null)
+				fieldFile = args[i];
+			else if (scriptFile == null)
+				scriptFile = args[i];
+		}
+
+		if (scriptFile == null || (port < 0 && socketPath == null)) {
+			System.err.println("Invalid command line arguments");
+			System.err
+					.println("Usage: java EvaluationClient (-port n | -socket path) [-trace] [-inline] <field-file> <script-file>");
+
+			System.exit(1);
+		}
+
+		SocketChannel channel;
+		if (socketPath != null) {
+			channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+			channel.connect(UnixDomainSocketAddress.of(socketPath));
+		} else {
+			channel = SocketChannel.open(new InetSocketAddress(
+					InetAddress.getLoopbackAddress(), port));
+		}
+
+		EvaluationClient client = new EvaluationClient(channel);
+		try {
+			if (!client.evaluate(fieldFile, scriptFile, trace, inline))
+				System.exit(1);
+
+		} finally {
+			client.close();
+		}
+	}
+}
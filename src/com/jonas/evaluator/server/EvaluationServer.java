@@ -0,0 +1,454 @@
+package com.jonas.evaluator.server;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.jonas.evaluator.Budget;
+import com.jonas.evaluator.BudgetExceededException;
+import com.jonas.evaluator.EvaluationException;
+import com.jonas.evaluator.Evaluator;
+import com.jonas.evaluator.Field;
+import com.jonas.evaluator.FieldCache;
+import com.jonas.evaluator.Logger;
+import com.jonas.evaluator.Script;
+import com.jonas.evaluator.Settings;
+import com.jonas.evaluator.StepInstructions;
+
+/**
+ * Run the EvaluationServer to keep a warm evaluator JVM serving evaluation
+ * requests on a local port or Unix domain socket. Usage: $ java
+ * EvaluationServer (-port n | -socket path) [-budget spec]
+ * 
+ * A client (see {@link EvaluationClient}) sends one tab-separated request line
+ * per evaluation:
+ * 
+ * "EVAL &lt;field-file&gt; &lt;script-file&gt; [TRACE]" evaluates files readable
+ * by the server, and "INLINE &lt;field-lines&gt; &lt;script-lines&gt; [TRACE]"
+ * evaluates content that follows the request line (the field's lines, then
+ * the script's lines).
+ * 
+ * The server replies with "OK &lt;score&gt; &lt;termination-reason&gt;" or with
+ * "ERROR &lt;message&gt;". If requested, the trace (the evaluator's text
+ * output) precedes the reply, streamed as it is printed with each line
+ * prefixed by "TRACE". Connections may send any number of requests and are
+ * handled concurrently, up to {@link Settings#SERVER_MAX_CONNECTIONS}
+ * connections. With -budget, every request runs under its own copy of the
+ * given {@link Budget}.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class EvaluationServer {
+	/** Protocol message types. */
+	public static final String EVAL = "EVAL", INLINE = "INLINE",
+			TRACE = "TRACE", OK = "OK", ERROR = "ERROR";
+
+	/** The separator of protocol message tokens. */
+	public static final String SEPARATOR = "\t";
+
+	/** The file type bits of a Unix file mode and the type of a socket. */
+	private static final int S_IFMT = 0170000, S_IFSOCK = 0140000;
+
+	private ServerSocketChannel server;
+
+	private ExecutorService executor;
+
+	/** Caches the fields of EVAL requests. */
+	private FieldCache fieldCache = new FieldCache();
+
+	/** The budget of each request, or null. */
+	private Budget budget;
+
+	public EvaluationServer(ServerSocketChannel server) {
+		this(server, null);
+	}
+
+	public EvaluationServer(ServerSocketChannel server, Budget budget) {
+		this.server = server;
+		this.budget = budget;
+
+		executor = new ThreadPoolExecutor(0, Settings.SERVER_MAX_CONNECTIONS,
+				60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+	}
+
+	/**
+	 * Accepts and serves connections until the server is closed.
+	 * 
+	 * @throws IOException
+	 */
+	public void run() throws IOException {
+		try {
+			while (true) {
+				final SocketChannel channel = server.accept();
+				try {
+					executor.execute(new Runnable() {
+
+						@Override
+						public void run() {
+							serve(channel);
+						}
+
+					});
+
+				} catch (RejectedExecutionException e) {
+					refuse(channel);
+				}
+			}
+
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Serves the requests of a connection until the client disconnects.
+	 * 
+	 * @param channel
+	 *            a client connection
+	 */
+	private void serve(SocketChannel channel) {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					Channels.newInputStream(channel)));
+			PrintStream out = new PrintStream(new BufferedOutputStream(
+					Channels.newOutputStream(channel)));
+
+			for (String line; (line = in.readLine()) != null;) {
+				handle(line, in, out);
+				out.flush();
+			}
+
+		} catch (IOException e) {
+			Logger.printWarning(EvaluationServer.class, "Connection failed: {}",
+					e.getMessage());
+
+		} finally {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing left to do
+			}
+		}
+	}
+
+	/**
+	 * Refuses a connection beyond {@link Settings#SERVER_MAX_CONNECTIONS}.
+	 * 
+	 * @param channel
+	 *            a client connection
+	 */
+	private static void refuse(SocketChannel channel) {
+		try {
+			PrintStream out = new PrintStream(Channels.newOutputStream(channel));
+			out.print(error("Too many connections"));
+			out.flush();
+
+		} finally {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing left to do
+			}
+		}
+	}
+
+	/**
+	 * Handles a single request, writing its response.
+	 * 
+	 * @param request
+	 *            the request line
+	 * @param in
+	 *            the connection's reader, positioned after the request line
+	 * @param out
+	 *            the connection's output
+	 * @throws IOException
+	 */
+	private void handle(String request, BufferedReader in, PrintStream out)
+			throws IOException {
+		String[] tokens = request.split(SEPARATOR);
+		boolean trace = tokens.length == 4 && tokens[3].equals(TRACE);
+		Budget requestBudget = budget == null ? null : new Budget(budget);
+
+		try {
+			Field field;
+			Script script;
+			if (tokens[0].equals(EVAL) && tokens.length >= 3) {
+				field = fieldCache.get(tokens[1], requestBudget);
+				script = new Script(tokens[2], requestBudget);
+
+			} else if (tokens[0].equals(INLINE) && tokens.length >= 3) {
+				String fieldLines = readLines(in, Integer.parseInt(tokens[1]));
+				String scriptLines = readLines(in, Integer.parseInt(tokens[2]));
+
+				field = new Field(new StringReader(fieldLines), "inline field",
+						requestBudget);
+				script = new Script(new StringReader(scriptLines),
+						"inline script", requestBudget);
+
+			} else {
+				out.print(error("Invalid request " + request));
+				return;
+			}
+
+			evaluate(field, script, requestBudget, trace, out);
+
+		} catch (BudgetExceededException e) {
+			out.print(OK + SEPARATOR + 0 + SEPARATOR + e.getReason() + '\n');
+
+		} catch (EvaluationException e) {
+			out.print(error(e.getMessage()));
+
+		} catch (NumberFormatException e) {
+			out.print(error("Invalid request " + request));
+
+		} catch (RuntimeException e) {
+			// a bug or a corrupt input must not take down the connection
+			Logger.printWarning(EvaluationServer.class,
+					"Request {} failed: {}", request, e);
+			out.print(error(e.toString()));
+		}
+	}
+
+	/**
+	 * Evaluates a script on a field, streaming the evaluator's output as trace
+	 * lines if requested, followed by the result line.
+	 * 
+	 * @param field
+	 *            a field
+	 * @param script
+	 *            a script
+	 * @param budget
+	 *            a budget or null
+	 * @param trace
+	 *            whether or not to include the evaluator's output
+	 * @param out
+	 *            the connection's output
+	 */
+	private void evaluate(Field field, Script script, Budget budget,
+			boolean trace, PrintStream out) {
+		TraceOutputStream traceOut = trace ? new TraceOutputStream(out) : null;
+
+		Evaluator evaluator = new Evaluator(field, script);
+		evaluator.setOutput(new PrintStream(trace ? traceOut : OutputStream
+				.nullOutputStream()));
+		evaluator.setRender(trace);
+		evaluator.setBudget(budget);
+		try {
+			evaluator.evaluate();
+
+		} finally {
+			// an evaluation failing mid-line must not garble the reply
+			if (traceOut != null)
+				traceOut.endLine();
+		}
+
+		out.print(OK + SEPARATOR + evaluator.calculateScore() + SEPARATOR
+				+ evaluator.getTerminationReason() + '\n');
+	}
+
+	private static String error(String message) {
+		return ERROR + SEPARATOR + message.replace('\n', ' ') + '\n';
+	}
+
+	/**
+	 * Reads a number of lines from a reader.
+	 * 
+	 * @param in
+	 *            a reader
+	 * @param numLines
+	 *            the number of lines to read
+	 * @return the lines, each terminated by a line separator
+	 * @throws IOException
+	 */
+	private static String readLines(BufferedReader in, int numLines)
+			throws IOException {
+		StringBuilder sb = new StringBuilder();
+		String line;
+		for (int i = 0; i < numLines; i++) {
+			if ((line = in.readLine()) == null)
+				throw new IOException("Unexpected end of request");
+
+			sb.append(line).append('\n');
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Opens a server channel on a loopback port or a Unix domain socket.
+	 * 
+	 * @param port
+	 *            a loopback port, used if socketPath is null
+	 * @param socketPath
+	 *            the path of a Unix domain socket or null
+	 * @return the bound server channel
+	 * @throws IOException
+	 */
+	public static ServerSocketChannel open(int port, String socketPath)
+			throws IOException {
+		ServerSocketChannel server;
+		SocketAddress address;
+		if (socketPath != null) {
+			Path path = Path.of(socketPath);
+			deleteStaleSocket(path);
+
+			server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			address = UnixDomainSocketAddress.of(path);
+
+		} else {
+			server = ServerSocketChannel.open();
+			address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+					port);
+		}
+
+		server.bind(address);
+		return server;
+	}
+
+	/**
+	 * Deletes the socket file left behind by a server that is no longer
+	 * running. Any other file, and the socket of a running server, is left in
+	 * place.
+	 * 
+	 * @param path
+	 *            the path of a Unix domain socket
+	 * @throws IOException
+	 *             if the path names anything but a stale socket
+	 */
+	private static void deleteStaleSocket(Path path) throws IOException {
+		int mode;
+		try {
+			mode = (Integer) Files.getAttribute(path, "unix:mode",
+					LinkOption.NOFOLLOW_LINKS);
+
+		} catch (NoSuchFileException e) {
+			return;
+		}
+
+		if ((mode & S_IFMT) != S_IFSOCK)
+			throw new IOException("Not a socket: " + path);
+
+		// a socket that accepts connections belongs to a running server
+		SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+		try {
+			channel.connect(UnixDomainSocketAddress.of(path));
+			throw new IOException("Socket in use: " + path);
+
+		} catch (ConnectException e) {
+			Files.delete(path);
+
+		} finally {
+			channel.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		StepInstructions.loadPatterns();
+
+		if ((args.length != 2 && !(args.length == 4 && args[2]
+				.equals("-budget")))
+				|| !(args[0].equals("-port") || args[0].equals("-socket"))) {
+			System.err.println("Invalid command line arguments");
+			System.err
+					.println("Usage: java EvaluationServer (-port n | -socket path) [-budget spec]");
+
+			System.exit(1);
+		}
+
+		// report evaluation errors to clients rather than exiting
+		Logger.setExitOnError(false);
+
+		ServerSocketChannel server = args[0].equals("-port") ? open(
+				Integer.parseInt(args[1]), null) : open(0, args[1]);
+		Logger.printInfo(EvaluationServer.class, "Listening on {}",
+				server.getLocalAddress());
+
+		new EvaluationServer(server, args.length == 4 ? Budget.parse(args[3])
+				: null).run();
+	}
+
+	/**
+	 * An inner class that streams the evaluator's output to a connection as
+	 * trace lines, prefixing each line with "TRACE".
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	private static class TraceOutputStream extends OutputStream {
+		private static final byte[] PREFIX = (TRACE + SEPARATOR).getBytes();
+
+		private PrintStream out;
+
+		/** Whether or not the next byte starts a line. */
+		private boolean lineStart = true;
+
+		public TraceOutputStream(PrintStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (lineStart)
+				out.write(PREFIX);
+
+			out.write(b);
+			lineStart = b == '\n';
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			int end = off + len;
+			while (off < end) {
+				if (lineStart)
+					out.write(PREFIX);
+
+				// write up to and including the next line separator
+				int next = off;
+				while (next < end && b[next] != '\n')
+					next++;
+				lineStart = next < end;
+				if (lineStart)
+					next++;
+
+				out.write(b, off, next - off);
+				off = next;
+			}
+		}
+
+		/**
+		 * Ends the current line of the trace if it is incomplete.
+		 */
+		public void endLine() {
+			if (!lineStart)
+				out.println();
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+	}
+}
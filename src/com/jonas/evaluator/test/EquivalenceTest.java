@@ -0,0 +1,459 @@
+package com.jonas.evaluator.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+
+import com.jonas.evaluator.CompiledScript;
+import com.jonas.evaluator.EvaluationPublisher;
+import com.jonas.evaluator.Evaluator;
+import com.jonas.evaluator.Field;
+import com.jonas.evaluator.FieldGrid;
+import com.jonas.evaluator.IncrementalFieldLoader;
+import com.jonas.evaluator.InstructionSource;
+import com.jonas.evaluator.LockstepEvaluator;
+import com.jonas.evaluator.NumericFieldFormat;
+import com.jonas.evaluator.Perturbation;
+import com.jonas.evaluator.RobustnessEvaluator;
+import com.jonas.evaluator.Script;
+import com.jonas.evaluator.ScriptCompiler;
+import com.jonas.evaluator.Settings;
+import com.jonas.evaluator.SharedMineIndex;
+import com.jonas.evaluator.SimulationEvent;
+import com.jonas.evaluator.StepEvent;
+import com.jonas.evaluator.StepInstructions;
+import com.jonas.evaluator.TraceRecorder;
+import com.jonas.evaluator.TraceReplay;
+import com.jonas.evaluator.test.RegressionRunner.TestCase;
+
+/**
+ * Run the EquivalenceTest to check that the alternative ways of evaluating a
+ * script agree with an {@link Evaluator} run on the field and script files of
+ * every test case in a directory (see {@link RegressionRunner}). Usage: $ java
+ * EquivalenceTest [directory]
+ * 
+ * Each check prints a PASS or FAIL line per test case and the test exits with
+ * status 1 if any check failed. The files written by the checks are kept in a
+ * temporary directory, which is deleted at the end.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class EquivalenceTest {
+	/** The number of perturbations of a field scored for robustness. */
+	private static final int NUM_PERTURBATIONS = 64;
+
+	private List<TestCase> testCases;
+
+	/** The directory of the files written by the checks. */
+	private File directory;
+
+	private PrintStream out;
+
+	private int numFailed = 0;
+
+	public EquivalenceTest(List<TestCase> testCases, File directory,
+			PrintStream out) {
+		this.testCases = testCases;
+		this.directory = directory;
+		this.out = out;
+	}
+
+	/**
+	 * Runs every check.
+	 * 
+	 * @return the number of failed checks
+	 * @throws Exception
+	 */
+	public int run() throws Exception {
+		checkLockstep();
+		checkTraceReplay();
+		checkNumericDepths();
+		checkCompiledScripts();
+		checkRobustness();
+		checkIncrementalReloads();
+		checkSharedIndexes();
+
+		return numFailed;
+	}
+
+	/**
+	 * A lockstep evaluation of a script on the fields of every test case
+	 * yields the score and termination reason of an evaluator run on each
+	 * field alone.
+	 */
+	private void checkLockstep() {
+		for (TestCase testCase : testCases) {
+			LockstepEvaluator lockstep = new LockstepEvaluator(new Script(
+					path(testCase.getScriptFile())));
+			for (TestCase fieldCase : testCases)
+				lockstep.addField(new FieldGrid(path(fieldCase
+						.getFieldFile())));
+			lockstep.evaluate();
+
+			boolean equal = true;
+			for (int i = 0; i < testCases.size(); i++) {
+				Evaluator evaluator = evaluate(new Field(path(testCases.get(i)
+						.getFieldFile())), new Script(
+						path(testCase.getScriptFile())));
+
+				equal &= lockstep.getScore(i) == evaluator.calculateScore()
+						&& lockstep.getTerminationReason(i) == evaluator
+								.getTerminationReason();
+			}
+
+			check(testCase, "lockstep: the script scores every field alike",
+					equal);
+		}
+	}
+
+	/**
+	 * A trace recorded from an evaluation replays the evaluator's output, and
+	 * renders the frames of each step as the evaluator rendered them. The trace
+	 * is recorded with as many keyframes as the recorder allows, so that steps
+	 * are rendered from different keyframes.
+	 */
+	private void checkTraceReplay() throws Exception {
+		for (TestCase testCase : testCases) {
+			FieldGrid grid = new FieldGrid(path(testCase.getFieldFile()));
+			Evaluator evaluator = new Evaluator(new Field(grid), new Script(
+					path(testCase.getScriptFile())));
+			File traceFile = new File(directory, "trace-" + testCase.getName());
+
+			EvaluationPublisher publisher = new EvaluationPublisher(evaluator,
+					true);
+			TraceRecorder recorder = new TraceRecorder(grid,
+					new FileOutputStream(traceFile), 1);
+			StepCollector steps = new StepCollector();
+			publisher.subscribe(recorder);
+			publisher.subscribe(steps);
+			publisher.run();
+			recorder.await();
+			steps.await();
+
+			TraceReplay replay = new TraceReplay(path(traceFile));
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			replay.print(new PrintStream(output, true));
+			check(testCase, "trace replay: the evaluation is printed alike",
+					recorder.getError() == null
+							&& output.toString().equals(
+									render(testCase.getFieldFile(),
+											testCase.getScriptFile())));
+
+			boolean equal = replay.getNumSteps() == steps.events.size();
+			for (StepEvent event : steps.events)
+				equal &= replay.getFrame(event.getStep(), false).equals(
+						event.getPreFrame())
+						&& replay.getFrame(event.getStep(), true).equals(
+								event.getPostFrame());
+
+			check(testCase, "trace replay: every frame is rendered alike",
+					equal);
+		}
+	}
+
+	/**
+	 * A field converted to either numeric depth format is evaluated as the
+	 * field in the letter format.
+	 */
+	private void checkNumericDepths() throws Exception {
+		for (TestCase testCase : testCases) {
+			FieldGrid grid = new FieldGrid(path(testCase.getFieldFile()));
+			String expected = render(testCase.getFieldFile(),
+					testCase.getScriptFile());
+
+			File textFile = new File(directory, "depths-" + testCase.getName());
+			PrintStream text = new PrintStream(new FileOutputStream(textFile));
+			try {
+				NumericFieldFormat.writeText(grid, text);
+			} finally {
+				text.close();
+			}
+
+			check(testCase,
+					"numeric depths: the text format is evaluated alike",
+					render(textFile, testCase.getScriptFile()).equals(
+							expected));
+
+			File binaryFile = new File(directory, "depths-"
+					+ testCase.getName() + ".bin");
+			OutputStream binary = new FileOutputStream(binaryFile);
+			try {
+				NumericFieldFormat.writeBinary(grid, binary);
+			} finally {
+				binary.close();
+			}
+
+			check(testCase,
+					"numeric depths: the binary format is evaluated alike",
+					render(binaryFile, testCase.getScriptFile()).equals(
+							expected));
+		}
+	}
+
+	/**
+	 * A script compiled along with the others, and its compiled form loaded
+	 * from the cache, are evaluated as the script file.
+	 */
+	private void checkCompiledScripts() throws Exception {
+		List<File> scriptFiles = new ArrayList<File>();
+		for (TestCase testCase : testCases)
+			scriptFiles.add(testCase.getScriptFile());
+
+		ScriptCompiler compiler = new ScriptCompiler(directory);
+		List<ScriptCompiler.Result> results = compiler.compileAll(scriptFiles,
+				Runtime.getRuntime().availableProcessors());
+
+		for (int i = 0; i < testCases.size(); i++) {
+			TestCase testCase = testCases.get(i);
+			String expected = render(testCase.getFieldFile(),
+					testCase.getScriptFile());
+
+			CompiledScript compiled = results.get(i).getScript();
+			check(testCase, "compiled scripts: the script is evaluated alike",
+					results.get(i).isValid()
+							&& render(new Field(path(testCase.getFieldFile())),
+									compiled).equals(expected));
+
+			ScriptCompiler.Result cached = compiler.compile(testCase
+					.getScriptFile());
+			check(testCase,
+					"compiled scripts: the cached script is evaluated alike",
+					cached.isCached()
+							&& render(new Field(path(testCase.getFieldFile())),
+									cached.getScript()).equals(expected));
+		}
+	}
+
+	/**
+	 * The unperturbed field and a perturbation that changes nothing score as
+	 * the field, and the results of many perturbations do not depend on the
+	 * number of threads evaluating them.
+	 */
+	private void checkRobustness() throws Exception {
+		for (TestCase testCase : testCases) {
+			FieldGrid grid = new FieldGrid(path(testCase.getFieldFile()));
+			Script script = new Script(path(testCase.getScriptFile()));
+			Evaluator expected = evaluate(new Field(grid), script);
+			Evaluator base = new RobustnessEvaluator(grid, script,
+					new Perturbation()).evaluateBase();
+			Evaluator unchanged = new RobustnessEvaluator(grid, script,
+					new Perturbation()).evaluate(0, 0);
+			check(testCase, "robustness: the unperturbed field scores alike",
+					base.calculateScore() == expected.calculateScore()
+							&& base.getTerminationReason() == expected
+									.getTerminationReason()
+							&& unchanged.calculateScore() == expected
+									.calculateScore()
+							&& unchanged.getTerminationReason() == expected
+									.getTerminationReason());
+
+			RobustnessEvaluator robustness = new RobustnessEvaluator(grid,
+					script, Perturbation
+							.parse(RobustnessEvaluator.DEFAULT_PERTURBATION));
+			check(testCase,
+					"robustness: the results do not depend on the threads",
+					robustness.run(NUM_PERTURBATIONS, 1, 0).toJson().equals(
+							robustness.run(NUM_PERTURBATIONS, 4, 0).toJson()));
+		}
+	}
+
+	/**
+	 * A field reloaded after its file was edited back to the test case's field
+	 * is evaluated as the test case's field, and a reload of an unchanged file
+	 * re-parses no rows but still yields that field. The edit empties every
+	 * other row and appends a row.
+	 */
+	private void checkIncrementalReloads() throws Exception {
+		for (TestCase testCase : testCases) {
+			List<String> rows = Files.readAllLines(testCase.getFieldFile()
+					.toPath());
+			List<String> edited = new ArrayList<String>();
+			for (int y = 0; y < rows.size(); y++) {
+				String row = rows.get(y);
+				if (y % 2 == 1)
+					row = row.replaceAll(".",
+							String.valueOf(Settings.EMPTY_POSITION_CHARACTER));
+				edited.add(row);
+			}
+			edited.add("a");
+
+			File fieldFile = new File(directory, "edit-" + testCase.getName());
+			IncrementalFieldLoader loader = new IncrementalFieldLoader(
+					path(fieldFile));
+			Files.write(fieldFile.toPath(), edited);
+			loader.load();
+
+			Files.write(fieldFile.toPath(), rows);
+			loader.load();
+
+			String expected = render(testCase.getFieldFile(),
+					testCase.getScriptFile());
+			check(testCase, "incremental reloads: the edited field is "
+					+ "evaluated alike", loader.getNumChangedRows() > 0
+					&& render(loader.copyField(),
+							new Script(path(testCase.getScriptFile())))
+							.equals(expected));
+
+			loader.load();
+			check(testCase,
+					"incremental reloads: an unchanged field is not re-parsed",
+					loader.getNumChangedRows() == 0
+							&& render(loader.copyField(),
+									new Script(path(testCase.getScriptFile())))
+									.equals(expected));
+		}
+	}
+
+	/**
+	 * A field loaded through a shared mine index, both when the index is
+	 * published and when it is attached to later, is evaluated as the field.
+	 */
+	private void checkSharedIndexes() {
+		for (TestCase testCase : testCases) {
+			String expected = render(testCase.getFieldFile(),
+					testCase.getScriptFile());
+
+			Field published = SharedMineIndex.load(
+					path(testCase.getFieldFile()), directory);
+			check(testCase, "shared indexes: the published field is "
+					+ "evaluated alike", render(published, new Script(
+					path(testCase.getScriptFile()))).equals(expected));
+
+			Field attached = SharedMineIndex.load(
+					path(testCase.getFieldFile()), directory);
+			check(testCase, "shared indexes: the attached field is "
+					+ "evaluated alike", render(attached, new Script(
+					path(testCase.getScriptFile()))).equals(expected));
+		}
+	}
+
+	/**
+	 * Evaluates a script on a field without printing anything.
+	 * 
+	 * @return the evaluator, holding the score and termination reason
+	 */
+	private static Evaluator evaluate(Field field, InstructionSource script) {
+		Evaluator evaluator = new Evaluator(field, script);
+		evaluator.setOutput(new PrintStream(OutputStream.nullOutputStream()));
+		evaluator.setRender(false);
+		evaluator.evaluate();
+
+		return evaluator;
+	}
+
+	/**
+	 * Evaluates a script file on a field file.
+	 * 
+	 * @return the printed evaluation
+	 */
+	private static String render(File fieldFile, File scriptFile) {
+		return render(new Field(path(fieldFile)), new Script(path(scriptFile)));
+	}
+
+	/**
+	 * Evaluates a script on a field.
+	 * 
+	 * @return the printed evaluation
+	 */
+	private static String render(Field field, InstructionSource script) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Evaluator evaluator = new Evaluator(field, script);
+		evaluator.setOutput(new PrintStream(output, true));
+		evaluator.evaluate();
+
+		return output.toString();
+	}
+
+	private static String path(File file) {
+		return file.getPath();
+	}
+
+	private void check(TestCase testCase, String name, boolean passed) {
+		if (!passed)
+			numFailed++;
+
+		out.println(testCase.getName() + ": " + (passed ? "PASS: " : "FAIL: ")
+				+ name);
+	}
+
+	public static void main(String[] args) throws Exception {
+		StepInstructions.loadPatterns();
+
+		String directory = args.length > 0 ? args[0] : ".";
+		List<TestCase> testCases = RegressionRunner.discover(new File(
+				directory));
+		if (testCases.isEmpty()) {
+			System.err.println("No test cases found in " + directory);
+			System.err.println("Usage: java EquivalenceTest [directory]");
+
+			System.exit(1);
+		}
+
+		File temporary = File.createTempFile("equivalence", "");
+		temporary.delete();
+		temporary.mkdir();
+
+		int numFailed;
+		try {
+			numFailed = new EquivalenceTest(testCases, temporary, System.out)
+					.run();
+
+		} finally {
+			for (File file : temporary.listFiles())
+				file.delete();
+			temporary.delete();
+		}
+
+		if (numFailed > 0) {
+			System.out.println(numFailed + " checks failed");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * An inner class that collects the step events of a simulation.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	private static class StepCollector implements
+			Flow.Subscriber<SimulationEvent> {
+		private List<StepEvent> events = new ArrayList<StepEvent>();
+
+		/** Signaled once the stream completes. */
+		private CountDownLatch done = new CountDownLatch(1);
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			subscription.request(Long.MAX_VALUE);
+		}
+
+		@Override
+		public void onNext(SimulationEvent event) {
+			if (event instanceof StepEvent)
+				events.add((StepEvent) event);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			done.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			done.countDown();
+		}
+
+		public void await() throws InterruptedException {
+			done.await();
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package com.jonas.evaluator.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.jonas.evaluator.Field;
+import com.jonas.evaluator.FieldCache;
+import com.jonas.evaluator.Position;
+import com.jonas.evaluator.Settings;
+
+/**
+ * Run the FieldCacheTest to check the eviction, the loading of concurrent
+ * misses and the change detection of a {@link FieldCache}. Usage: $ java
+ * FieldCacheTest
+ * 
+ * Each check prints a PASS or FAIL line and the test exits with status 1 if
+ * any check failed. Loads are counted by the cache itself (see
+ * {@link FieldCache#getNumLoads()}).
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class FieldCacheTest {
+	/** The number of threads missing on the same field at once. */
+	private static final int NUM_THREADS = 16;
+
+	private File directory;
+
+	private PrintStream out;
+
+	private int numFailed = 0;
+
+	public FieldCacheTest(File directory, PrintStream out) {
+		this.directory = directory;
+		this.out = out;
+	}
+
+	/**
+	 * Runs every check.
+	 * 
+	 * @return the number of failed checks
+	 * @throws Exception
+	 */
+	public int run() throws Exception {
+		checkEviction();
+		checkLeastRecentlyUsedEviction();
+		checkConcurrentMisses();
+		checkChangeDetection();
+
+		return numFailed;
+	}
+
+	/**
+	 * A field loaded beyond the budget evicts the others, but is kept itself
+	 * even if it alone exceeds the budget.
+	 */
+	private void checkEviction() throws IOException {
+		String a = writeField("evict-a", 4), b = writeField("evict-b", 4);
+		String large = writeField("evict-large", 16);
+		FieldCache cache = new FieldCache(weight(6));
+
+		cache.get(a);
+		cache.get(b);
+		check("eviction: loading past the budget evicts a field",
+				cache.size() == 1 && cache.getWeight() == weight(4));
+
+		cache.get(large);
+		check("eviction: a field over the budget is still cached",
+				cache.size() == 1 && cache.getWeight() == weight(16));
+
+		long loads = cache.getNumLoads();
+		cache.get(a);
+		check("eviction: an evicted field is loaded again",
+				cache.getNumLoads() == loads + 1);
+	}
+
+	/**
+	 * The least recently used field is evicted first, where a hit counts as a
+	 * use.
+	 */
+	private void checkLeastRecentlyUsedEviction() throws IOException {
+		String a = writeField("lru-a", 1), b = writeField("lru-b", 2);
+		String c = writeField("lru-c", 3);
+		FieldCache cache = new FieldCache(weight(5));
+
+		cache.get(a);
+		cache.get(b);
+		cache.get(a);
+		cache.get(c);
+
+		// evicting b leaves a and c; evicting a would leave b and c
+		check("eviction: the least recently used field is evicted",
+				cache.size() == 2 && cache.getWeight() == weight(4));
+
+		long loads = cache.getNumLoads();
+		cache.get(a);
+		check("eviction: a recently used field is kept",
+				cache.getNumLoads() == loads);
+	}
+
+	/**
+	 * Threads missing on the same field at once wait on a single load and
+	 * each receive a private copy of the field.
+	 */
+	private void checkConcurrentMisses() throws Exception {
+		final String fieldFile = writeField("concurrent", 300, 300);
+		final FieldCache cache = new FieldCache(Settings.FIELD_CACHE_BUDGET);
+		final CountDownLatch start = new CountDownLatch(1);
+
+		ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+		List<Future<Field>> results = new ArrayList<Future<Field>>();
+		for (int i = 0; i < NUM_THREADS; i++) {
+			results.add(executor.submit(new Callable<Field>() {
+
+				@Override
+				public Field call() throws Exception {
+					start.await();
+					return cache.get(fieldFile);
+				}
+
+			}));
+		}
+
+		long loads = cache.getNumLoads();
+		start.countDown();
+
+		List<Field> fields = new ArrayList<Field>();
+		for (Future<Field> result : results)
+			fields.add(result.get());
+		executor.shutdown();
+
+		check("concurrent misses: the field is loaded once",
+				cache.getNumLoads() == loads + 1 && cache.size() == 1);
+
+		boolean complete = true;
+		for (Field field : fields)
+			complete &= field.getNumMines() == 300 * 300 / 2;
+		check("concurrent misses: every thread receives the field", complete);
+
+		// destroying the mines of one copy leaves the other copies intact
+		Position mine = new Position(0, 0);
+		fields.get(0).destroyMines(mine);
+		check("concurrent misses: every thread receives a private copy",
+				fields.get(1).getNumMines() == 300 * 300 / 2
+						&& cache.get(fieldFile).getNumMines() == 300 * 300 / 2);
+	}
+
+	/**
+	 * A field is reloaded when its file's modification time or length
+	 * changes, and only then.
+	 */
+	private void checkChangeDetection() throws IOException {
+		String fieldFile = writeField("change", 5);
+		File file = new File(fieldFile);
+		FieldCache cache = new FieldCache(Settings.FIELD_CACHE_BUDGET);
+
+		cache.get(fieldFile);
+		long loads = cache.getNumLoads();
+		cache.get(fieldFile);
+		check("change detection: an unchanged field is not reloaded",
+				cache.getNumLoads() == loads);
+
+		// same length (two rows of two), later modification time
+		long lastModified = file.lastModified();
+		writeField("change", 2, 2);
+		file.setLastModified(lastModified + 2000);
+		check("change detection: a modified field is reloaded", cache.get(
+				fieldFile).getNumMines() == 2
+				&& cache.getNumLoads() == loads + 1);
+
+		// different length, same modification time
+		lastModified = file.lastModified();
+		writeField("change", 6);
+		file.setLastModified(lastModified);
+		check("change detection: a resized field is reloaded", cache.get(
+				fieldFile).getNumMines() == 6
+				&& cache.getNumLoads() == loads + 2);
+
+		check("change detection: the reloaded field replaces the cached one",
+				cache.size() == 1 && cache.getWeight() == weight(6));
+	}
+
+	/**
+	 * Writes a field file of a single row of mines.
+	 * 
+	 * @return the path of the field file
+	 */
+	private String writeField(String name, int numMines) throws IOException {
+		return writeField(name, numMines, 1);
+	}
+
+	/**
+	 * Writes a field file. A single row holds a mine at every position; the
+	 * rows of a larger field alternate mines and empty positions like a
+	 * checkerboard.
+	 * 
+	 * @return the path of the field file
+	 */
+	private String writeField(String name, int xDimension, int yDimension)
+			throws IOException {
+		File file = new File(directory, "field-" + name + ".txt");
+		Writer writer = new FileWriter(file);
+		try {
+			for (int y = 0; y < yDimension; y++) {
+				for (int x = 0; x < xDimension; x++) {
+					boolean mine = yDimension == 1 || (x + y) % 2 == 0;
+					writer.write(mine ? 'a' : Settings.EMPTY_POSITION_CHARACTER);
+				}
+				writer.write(System.getProperty("line.separator"));
+			}
+
+		} finally {
+			writer.close();
+		}
+
+		return file.getPath();
+	}
+
+	private static long weight(int numMines) {
+		return (long) numMines * Settings.ESTIMATED_MINE_BYTES;
+	}
+
+	private void check(String name, boolean passed) {
+		if (!passed)
+			numFailed++;
+
+		out.println((passed ? "PASS: " : "FAIL: ") + name);
+	}
+
+	public static void main(String[] args) throws Exception {
+		File directory = File.createTempFile("field-cache", "");
+		directory.delete();
+		directory.mkdir();
+
+		int numFailed;
+		try {
+			numFailed = new FieldCacheTest(directory, System.out).run();
+
+		} finally {
+			for (File file : directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+
+		if (numFailed > 0) {
+			System.out.println(numFailed + " checks failed");
+			System.exit(1);
+		}
+	}
+}
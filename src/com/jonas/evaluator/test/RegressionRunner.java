@@ -0,0 +1,347 @@
+package com.jonas.evaluator.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.jonas.evaluator.EvaluationException;
+import com.jonas.evaluator.Evaluator;
+import com.jonas.evaluator.Field;
+import com.jonas.evaluator.Logger;
+import com.jonas.evaluator.Script;
+import com.jonas.evaluator.StepInstructions;
+
+/**
+ * Run the RegressionRunner to compare the Evaluator's output to the valid
+ * output files of every test case in a directory. Usage: $ java
+ * RegressionRunner [-threads n] [directory]
+ * 
+ * A test case is a field file "fields/field-&lt;name&gt;.txt" with a matching
+ * script file "scripts/script-&lt;name&gt;.txt" and output file
+ * "output/output-&lt;name&gt;.txt". Test cases run in parallel (one per
+ * available processor by default). Unlike {@link TestEvaluator}, the output is
+ * compared to the output file line by line as it is generated, without
+ * buffering either of them, and a test case stops at its first divergence,
+ * which is reported with its step and line. As with {@link TestEvaluator},
+ * lines are compared without leading and trailing whitespace and trailing
+ * blank lines are ignored.
+ * 
+ * @author Jonas Michel, jonas.r.michel@gmail.com
+ * 
+ */
+public class RegressionRunner {
+	private ExecutorService executor;
+
+	public RegressionRunner(int numThreads) {
+		executor = Executors.newFixedThreadPool(numThreads);
+	}
+
+	/**
+	 * Runs every test case and prints the result of each.
+	 * 
+	 * @param testCases
+	 *            the test cases
+	 * @param out
+	 *            a stream to print the results to
+	 * @return the number of failed test cases
+	 * @throws InterruptedException
+	 */
+	public int run(List<TestCase> testCases, PrintStream out)
+			throws InterruptedException {
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for (final TestCase testCase : testCases) {
+			results.add(executor.submit(new Callable<String>() {
+
+				@Override
+				public String call() throws Exception {
+					return run(testCase);
+				}
+
+			}));
+		}
+
+		int numFailed = 0;
+		for (int i = 0; i < testCases.size(); i++) {
+			String result;
+			try {
+				result = results.get(i).get();
+			} catch (ExecutionException e) {
+				result = "ERROR: " + e.getCause();
+			}
+
+			if (!result.startsWith("PASS"))
+				numFailed++;
+
+			out.println(testCases.get(i).getName() + ": " + result);
+		}
+
+		return numFailed;
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Runs a single test case.
+	 * 
+	 * @param testCase
+	 *            a test case
+	 * @return the test case's result
+	 * @throws IOException
+	 */
+	public static String run(TestCase testCase) throws IOException {
+		BufferedReader expected = new BufferedReader(new FileReader(
+				testCase.getOutputFile()), 64 * 1024);
+		ComparingOutputStream comparison = new ComparingOutputStream(expected);
+
+		try {
+			Evaluator evaluator = new Evaluator(new Field(
+					testCase.getFieldFile().getPath()), new Script(testCase
+					.getScriptFile().getPath()));
+			evaluator.setOutput(new PrintStream(comparison));
+			evaluator.evaluate();
+
+			comparison.finish();
+
+		} catch (Divergence d) {
+			return "FAIL: " + d.getMessage();
+
+		} catch (EvaluationException e) {
+			return "ERROR: " + e.getMessage();
+
+		} finally {
+			expected.close();
+		}
+
+		return "PASS: generated and test output are identical ("
+				+ comparison.getNumLines() + " lines)";
+	}
+
+	/**
+	 * Discovers the test cases of a directory.
+	 * 
+	 * @param directory
+	 *            a directory holding the fields, scripts and output
+	 *            directories
+	 * @return the test cases, ordered by name
+	 */
+	public static List<TestCase> discover(File directory) {
+		List<TestCase> testCases = new ArrayList<TestCase>();
+
+		File[] fieldFiles = new File(directory, "fields").listFiles();
+		if (fieldFiles == null)
+			return testCases;
+
+		Arrays.sort(fieldFiles);
+		for (File fieldFile : fieldFiles) {
+			String fileName = fieldFile.getName();
+			if (!fileName.startsWith("field-") || !fileName.endsWith(".txt"))
+				continue;
+
+			String name = fileName.substring("field-".length(),
+					fileName.length() - ".txt".length());
+			File scriptFile = new File(directory, "scripts/script-" + name
+					+ ".txt");
+			File outputFile = new File(directory, "output/output-" + name
+					+ ".txt");
+
+			if (scriptFile.isFile() && outputFile.isFile())
+				testCases.add(new TestCase(name, fieldFile, scriptFile,
+						outputFile));
+		}
+
+		return testCases;
+	}
+
+	public static void main(String[] args) throws Exception {
+		StepInstructions.loadPatterns();
+
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		String directory = ".";
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threads") && i + 1 < args.length)
+				numThreads = Integer.parseInt(args[++i]);
+			else
+				directory = args[i];
+		}
+
+		List<TestCase> testCases = discover(new File(directory));
+		if (testCases.isEmpty()) {
+			System.err.println("No test cases found in " + directory);
+			System.err
+					.println("Usage: java RegressionRunner [-threads n] [directory]");
+
+			System.exit(1);
+		}
+
+		// report evaluation errors per test case rather than exiting
+		Logger.setExitOnError(false);
+
+		long start = System.nanoTime();
+		RegressionRunner runner = new RegressionRunner(numThreads);
+		int numFailed;
+		try {
+			numFailed = runner.run(testCases, System.out);
+		} finally {
+			runner.shutdown();
+		}
+
+		System.out.println((testCases.size() - numFailed) + " of "
+				+ testCases.size() + " test cases passed in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+
+		if (numFailed > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * An inner class representing a field, script and valid output file
+	 * triple.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	public static class TestCase {
+		private final String name;
+
+		private final File fieldFile, scriptFile, outputFile;
+
+		public TestCase(String name, File fieldFile, File scriptFile,
+				File outputFile) {
+			this.name = name;
+			this.fieldFile = fieldFile;
+			this.scriptFile = scriptFile;
+			this.outputFile = outputFile;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public File getFieldFile() {
+			return fieldFile;
+		}
+
+		public File getScriptFile() {
+			return scriptFile;
+		}
+
+		public File getOutputFile() {
+			return outputFile;
+		}
+	}
+
+	/**
+	 * An inner class that signals the first divergence of the generated
+	 * output from the valid output. It is thrown out of the evaluator's print
+	 * stream to stop the evaluation.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	private static class Divergence extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public Divergence(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * An inner class that compares the bytes written to it with the lines of
+	 * a valid output file, one line at a time.
+	 * 
+	 * @author Jonas Michel, jonas.r.michel@gmail.com
+	 * 
+	 */
+	private static class ComparingOutputStream extends OutputStream {
+		private static final String STEP_PREFIX = "Step ";
+
+		private BufferedReader expected;
+
+		/** The generated line being written. */
+		private StringBuilder line = new StringBuilder();
+
+		private int numLines = 0;
+
+		private String step = "0";
+
+		public ComparingOutputStream(BufferedReader expected) {
+			this.expected = expected;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (b == '\n')
+				compareLine();
+			else if (b != '\r')
+				line.append((char) (b & 0xff));
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			for (int i = off; i < off + len; i++)
+				write(b[i]);
+		}
+
+		/**
+		 * Compares the remainder of the generated output with the remainder of
+		 * the valid output.
+		 * 
+		 * @throws IOException
+		 */
+		public void finish() throws IOException {
+			if (line.length() > 0)
+				compareLine();
+
+			// only blank lines may remain in the valid output
+			for (String remaining; (remaining = expected.readLine()) != null;) {
+				numLines++;
+				if (!remaining.trim().isEmpty())
+					throw new Divergence(divergence(remaining.trim(),
+							"end of output"));
+			}
+		}
+
+		public int getNumLines() {
+			return numLines;
+		}
+
+		private void compareLine() throws IOException {
+			String generated = line.toString().trim();
+			line.setLength(0);
+			numLines++;
+
+			if (generated.startsWith(STEP_PREFIX))
+				step = generated.substring(STEP_PREFIX.length());
+
+			String valid = expected.readLine();
+			if (valid == null) {
+				// only blank lines may remain in the generated output
+				if (!generated.isEmpty())
+					throw new Divergence(divergence("end of output", generated));
+
+			} else if (!valid.trim().equals(generated)) {
+				throw new Divergence(divergence(valid.trim(), generated));
+			}
+		}
+
+		private String divergence(String valid, String generated) {
+			return "generated and test output differ at step " + step
+					+ ", line " + numLines + ": expected \"" + valid
+					+ "\" but was \"" + generated + "\"";
+		}
+	}
+}
@@ -5,6 +5,7 @@ import java.io.PrintStream;
 
 import com.jonas.evaluator.Evaluator;
 import com.jonas.evaluator.InputFileModel;
+import com.jonas.evaluator.StepInstructions;
 
 /**
  * Run the TestEvaluator to compare the Evaluator's output to a valid output
@@ -39,6 +40,8 @@ public class TestEvaluator extends InputFileModel {
 	}
 
 	public static void main(String[] args) {
+		StepInstructions.loadPatterns();
+
 		if (args.length != 3) {
 			System.err.println("Invalid number of command line arguments");
 			System.err